@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.omahaprogrammer.crypto;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time to audit a file of stored PHC strings mixing every benchmarked parameter set. The file is written
+ * once and stays in the page cache, so this is the parser-bound rate a scan can reach when the disk keeps up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PHCCorpusScanBenchmark {
+    @Param("1000000")
+    public int lines;
+
+    private Path file;
+    private PHCCorpusScanner scanner;
+
+    @Setup
+    public void setUp() throws IOException {
+        var sets = ParameterSet.values();
+        var prefixes = new String[sets.length];
+        for (int i = 0; i < sets.length; i++) {
+            prefixes[i] = sets[i].builder().build().toString();
+        }
+        var random = ThreadLocalRandom.current();
+        var encoder = Base64.getEncoder().withoutPadding();
+        var salt = new byte[16];
+        var hash = new byte[32];
+        file = Files.createTempFile("phc-corpus", ".txt");
+        try (var out = Files.newBufferedWriter(file, StandardCharsets.US_ASCII)) {
+            for (int i = 0; i < lines; i++) {
+                random.nextBytes(salt);
+                random.nextBytes(hash);
+                out.write(prefixes[i % prefixes.length]);
+                out.write('$');
+                out.write(encoder.encodeToString(salt));
+                out.write('$');
+                out.write(encoder.encodeToString(hash));
+                out.write('\n');
+            }
+        }
+        scanner = PHCCorpusScanner.builder().build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public PHCCorpusScanner.Report scan() throws IOException {
+        return scanner.scan(file);
+    }
+}
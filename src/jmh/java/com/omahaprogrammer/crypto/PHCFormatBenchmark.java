@@ -0,0 +1,111 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the text side of a login: parsing the stored PHC string and formatting a PHC back to text, against the
+ * same round trip through the compact binary form.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PHCFormatBenchmark {
+    @Param
+    public ParameterSet parameterSet;
+
+    /**
+     * The stored PHC string for the parameter set
+     */
+    private String phcString;
+
+    /**
+     * The parsed form of {@link #phcString}
+     */
+    private PHC<?> phc;
+
+    /**
+     * The binary form of {@link #phc}
+     */
+    private byte[] phcBytes;
+
+    /**
+     * A copy of {@link #phc} that has never been formatted, so it has no cached text
+     */
+    private PHC<?> unformatted;
+
+    /**
+     * The buffer {@link #writeTo()} formats into
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * A cache already holding {@link #phcString}
+     */
+    private PHCCache cache;
+
+    @Setup
+    public void setUp() {
+        phc = parameterSet.builder()
+                .withRandomSalt()
+                .protect(ParameterSet.PASSWORD.toCharArray());
+        phcString = phc.toString();
+        phcBytes = phc.encode();
+        unformatted = PHC.decode(phcBytes);
+        buffer = ByteBuffer.allocate(phc.getFormattedLength());
+        cache = PHCCache.builder().build();
+        cache.parse(phcString);
+    }
+
+    @Benchmark
+    public PHC<?> parse() {
+        return PHC.parse(phcString);
+    }
+
+    @Benchmark
+    public PHC<?> cachedParse() {
+        return cache.parse(phcString);
+    }
+
+    @Benchmark
+    public String format() {
+        return phc.toString();
+    }
+
+    @Benchmark
+    public ByteBuffer writeTo() {
+        buffer.clear();
+        unformatted.writeTo(buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public PHC<?> decode() {
+        return PHC.decode(phcBytes);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return phc.encode();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of protecting a new password and of validating a password against a stored PHC.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class PHCProtectBenchmark {
+    @Param
+    public ParameterSet parameterSet;
+
+    /**
+     * The builder holding the parameter set and a fixed salt
+     */
+    private PHC.Builder<?> builder;
+
+    /**
+     * The PHC protecting {@link ParameterSet#PASSWORD}
+     */
+    private PHC<?> phc;
+
+    /**
+     * The cleartext password
+     */
+    private char[] password;
+
+    @Setup
+    public void setUp() {
+        password = ParameterSet.PASSWORD.toCharArray();
+        builder = parameterSet.builder().withRandomSalt();
+        phc = builder.protect(password);
+    }
+
+    @Benchmark
+    public PHC<?> protect() {
+        return builder.protect(password);
+    }
+
+    @Benchmark
+    public boolean validate() {
+        return phc.validate(password);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto;
+
+import com.omahaprogrammer.crypto.function.*;
+
+/**
+ * The matrix of realistic parameter sets benchmarked for every supported function. The Argon2 sets follow the RFC 9106
+ * and OWASP recommendations, PBKDF2 follows the OWASP iteration counts, and bcrypt covers the usual cost range. The
+ * scrypt sets use the largest cost factor the {@link SCrypt.CostFactorParam} currently accepts.
+ */
+public enum ParameterSet {
+    ARGON2I_M19456_T2_P1 {
+        @Override
+        PHC.Builder<?> builder() {
+            return PHC.builder(Argon2i.getInstance())
+                    .withParam(Argon2i.M, 19456)
+                    .withParam(Argon2i.T, 2)
+                    .withParam(Argon2i.P, 1);
+        }
+    },
+    ARGON2D_M19456_T2_P1 {
+        @Override
+        PHC.Builder<?> builder() {
+            return PHC.builder(Argon2d.getInstance())
+                    .withParam(Argon2d.M, 19456)
+                    .withParam(Argon2d.T, 2)
+                    .withParam(Argon2d.P, 1);
+        }
+    },
+    ARGON2ID_M19456_T2_P1 {
+        @Override
+        PHC.Builder<?> builder() {
+            return PHC.builder(Argon2id.getInstance())
+                    .withParam(Argon2id.M, 19456)
+                    .withParam(Argon2id.T, 2)
+                    .withParam(Argon2id.P, 1);
+        }
+    },
+    ARGON2ID_M65536_T3_P4 {
+        @Override
+        PHC.Builder<?> builder() {
+            return PHC.builder(Argon2id.getInstance())
+                    .withParam(Argon2id.M, 65536)
+                    .withParam(Argon2id.T, 3)
+                    .withParam(Argon2id.P, 4);
+        }
+    },
+    PBKDF2_SHA1_C1300000 {
+        @Override
+        PHC.Builder<?> builder() {
+            return PHC.builder(PBKDF2.getInstance())
+                    .withParam(PBKDF2.ALG, PBKDF2.Algorithm.HMAC_SHA1)
+                    .withParam(PBKDF2.C, 1300000);
+        }
+    },
+    PBKDF2_SHA256_C600000 {
+        @Override
+        PHC.Builder<?> builder() {
+            return PHC.builder(PBKDF2.getInstance())
+                    .withParam(PBKDF2.ALG, PBKDF2.Algorithm.HMAC_SHA256)
+                    .withParam(PBKDF2.C, 600000);
+        }
+    },
+    PBKDF2_SHA512_C210000 {
+        @Override
+        PHC.Builder<?> builder() {
+            return PHC.builder(PBKDF2.getInstance())
+                    .withParam(PBKDF2.ALG, PBKDF2.Algorithm.HMAC_SHA512)
+                    .withParam(PBKDF2.C, 210000);
+        }
+    },
+    BCRYPT_C10 {
+        @Override
+        PHC.Builder<?> builder() {
+            return PHC.builder(BCrypt.getInstance())
+                    .withParam(BCrypt.C, 10);
+        }
+    },
+    BCRYPT_C12 {
+        @Override
+        PHC.Builder<?> builder() {
+            return PHC.builder(BCrypt.getInstance())
+                    .withParam(BCrypt.C, 12);
+        }
+    },
+    SCRYPT_N16_R8_P1 {
+        @Override
+        PHC.Builder<?> builder() {
+            return PHC.builder(SCrypt.getInstance())
+                    .withParam(SCrypt.N, 16)
+                    .withParam(SCrypt.R, 8)
+                    .withParam(SCrypt.P, 1);
+        }
+    },
+    SCRYPT_N16_R8_P4 {
+        @Override
+        PHC.Builder<?> builder() {
+            return PHC.builder(SCrypt.getInstance())
+                    .withParam(SCrypt.N, 16)
+                    .withParam(SCrypt.R, 8)
+                    .withParam(SCrypt.P, 4);
+        }
+    };
+
+    /**
+     * The password protected by every benchmark
+     */
+    static final String PASSWORD = "correct horse battery staple"; // NOSONAR
+
+    /**
+     * Creates a builder populated with this parameter set
+     * @return the populated builder
+     */
+    abstract PHC.Builder<?> builder();
+}
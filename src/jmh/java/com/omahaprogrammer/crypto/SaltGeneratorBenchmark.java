@@ -0,0 +1,59 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures salt generation throughput under concurrent registrations, comparing a new {@code SecureRandom} per salt
+ * with the shared thread-local DRBG generator, with and without prefetching.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class SaltGeneratorBenchmark {
+    @Param({"16", "128"})
+    public int saltLength;
+
+    /**
+     * A generator drawing 4 KiB at a time
+     */
+    private final SaltGenerator prefetching = DrbgSaltGenerator.builder().withPrefetch(4096).build();
+
+    @Benchmark
+    public byte[] newSecureRandom() {
+        var salt = new byte[saltLength];
+        new SecureRandom().nextBytes(salt);
+        return salt;
+    }
+
+    @Benchmark
+    public byte[] defaultGenerator() {
+        return SaltGenerator.getDefault().generate(saltLength);
+    }
+
+    @Benchmark
+    public byte[] prefetchingGenerator() {
+        return prefetching.generate(saltLength);
+    }
+}
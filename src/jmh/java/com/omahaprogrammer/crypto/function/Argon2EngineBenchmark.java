@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto.function;
+
+import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
+import org.bouncycastle.crypto.params.Argon2Parameters;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the in-project Argon2id engine with BouncyCastle's generator on a single lane, so that only the block
+ * function and memory handling differ. {@code vectorEngine} uses the Vector API backend, which needs Java 17 or later,
+ * the multi-release classes and {@code -jvmArgsAppend --add-modules=jdk.incubator.vector}; otherwise it measures the
+ * scalar backend again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class Argon2EngineBenchmark {
+    private static final byte[] PASSWORD = "correct horse battery staple".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SALT = "somesaltsomesalt".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * The memory size in KiB
+     */
+    @Param({"4096", "19456"})
+    public int memory;
+
+    @Param({"2"})
+    public int iterations;
+
+    private final byte[] out = new byte[32];
+
+    private Argon2Parameters parameters;
+
+    private Argon2BlockFunction vector;
+
+    @Setup
+    public void setUp() {
+        parameters = new Argon2Parameters.Builder(Argon2Parameters.ARGON2_id)
+                .withMemoryAsKB(memory)
+                .withIterations(iterations)
+                .withParallelism(1)
+                .withSalt(SALT)
+                .build();
+        vector = Argon2Backend.VECTOR.isAvailable() ? Argon2BlockFunction.vector() : Argon2BlockFunction.SCALAR;
+    }
+
+    @Benchmark
+    public byte[] engine() {
+        new Argon2Engine(Argon2Parameters.ARGON2_id, memory, iterations, 1).generate(PASSWORD, SALT, null, null, out);
+        return out;
+    }
+
+    @Benchmark
+    public byte[] vectorEngine() {
+        new Argon2Engine(Argon2Parameters.ARGON2_id, memory, iterations, 1, vector)
+                .generate(PASSWORD, SALT, null, null, out);
+        return out;
+    }
+
+    @Benchmark
+    public byte[] bouncyCastle() {
+        var generator = new Argon2BytesGenerator();
+        generator.init(parameters);
+        generator.generateBytes(PASSWORD, out);
+        return out;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto.function;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the in-project bcrypt engine, which reuses per-thread state, with BouncyCastle's, which allocates its
+ * Blowfish state and password bytes on every call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BCryptEngineBenchmark {
+    private static final char[] PASSWORD = "correct horse battery staple".toCharArray();
+    private static final byte[] SALT = "somesaltsomesalt".getBytes(StandardCharsets.UTF_8);
+
+    @Param({"10"})
+    public int cost;
+
+    private final byte[] out = new byte[BCryptEngine.HASH_LENGTH];
+
+    @Benchmark
+    public byte[] engine() {
+        BCryptEngine.generate(PASSWORD, SALT, cost, out, 0);
+        return out;
+    }
+
+    @Benchmark
+    public byte[] bouncyCastle() {
+        return org.bouncycastle.crypto.generators.BCrypt.generate(
+                org.bouncycastle.crypto.generators.BCrypt.passwordToByteArray(PASSWORD), SALT, cost);
+    }
+}
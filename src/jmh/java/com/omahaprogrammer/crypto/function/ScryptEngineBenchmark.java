@@ -0,0 +1,59 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto.function;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the in-project scrypt engine, which mixes independent chains on the {@link KdfPool}, with BouncyCastle's,
+ * which mixes them one after another. On a machine with at least {@code p} cores the engine should take about as
+ * long for any {@code p} as for one chain.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScryptEngineBenchmark {
+    private static final byte[] PASSWORD = "correct horse battery staple".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SALT = "somesaltsomesalt".getBytes(StandardCharsets.UTF_8);
+
+    @Param({"16384"})
+    public int n;
+
+    @Param({"8"})
+    public int r;
+
+    @Param({"1", "4"})
+    public int p;
+
+    private final byte[] out = new byte[64];
+
+    @Benchmark
+    public byte[] engine() {
+        ScryptEngine.derive(PASSWORD, 0, PASSWORD.length, SALT, n, r, p, out, 0, out.length);
+        return out;
+    }
+
+    @Benchmark
+    public byte[] bouncyCastle() {
+        return org.bouncycastle.crypto.generators.SCrypt.generate(PASSWORD, SALT, n, r, p, out.length);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto;
+
+import java.util.Arrays;
+
+/**
+ * Table-driven codec for the unpadded standard Base64 alphabet used by the PHC format. Decoding accepts exactly what
+ * {@link java.util.Base64#getDecoder()} accepts for unpadded input, but works on a range of any {@code CharSequence};
+ * encoding writes into a caller's array instead of allocating a string.
+ */
+final class Base64Unpadded {
+    /**
+     * The value of every ASCII character in the alphabet, or -1 for characters outside it
+     */
+    private static final byte[] DECODE_TABLE = new byte[128];
+
+    /**
+     * The character of every 6-bit value
+     */
+    private static final char[] ENCODE_TABLE =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    static {
+        Arrays.fill(DECODE_TABLE, (byte) -1);
+        for (int i = 0; i < ENCODE_TABLE.length; i++) {
+            DECODE_TABLE[ENCODE_TABLE[i]] = (byte) i;
+        }
+    }
+
+    private Base64Unpadded() {
+    }
+
+    /**
+     * Computes the number of bytes encoded by the given number of characters
+     * @param length the number of Base64 characters
+     * @return the number of decoded bytes, or -1 if no encoding has that length
+     */
+    static int decodedLength(int length) {
+        var remainder = length % 4;
+        if (remainder == 1) {
+            return -1;
+        }
+        return (length / 4) * 3 + (remainder == 0 ? 0 : remainder - 1);
+    }
+
+    /**
+     * Computes the number of characters encoding the given number of bytes
+     * @param length the number of bytes
+     * @return the number of Base64 characters without padding
+     */
+    static int encodedLength(int length) {
+        return (length / 3) * 4 + (length % 3 == 0 ? 0 : length % 3 + 1);
+    }
+
+    /**
+     * Encodes bytes into an array of characters
+     * @param in the bytes
+     * @param out the array receiving {@link #encodedLength(int)} characters
+     * @param pos the index of the first character in {@code out}
+     * @return the index after the last character written
+     */
+    static int encode(byte[] in, char[] out, int pos) {
+        var i = 0;
+        for (; i + 3 <= in.length; i += 3) {
+            var bits = (in[i] & 0xff) << 16 | (in[i + 1] & 0xff) << 8 | (in[i + 2] & 0xff);
+            out[pos++] = ENCODE_TABLE[bits >>> 18];
+            out[pos++] = ENCODE_TABLE[(bits >>> 12) & 0x3f];
+            out[pos++] = ENCODE_TABLE[(bits >>> 6) & 0x3f];
+            out[pos++] = ENCODE_TABLE[bits & 0x3f];
+        }
+        if (i < in.length) {
+            var bits = (in[i] & 0xff) << 16 | (i + 1 < in.length ? (in[i + 1] & 0xff) << 8 : 0);
+            out[pos++] = ENCODE_TABLE[bits >>> 18];
+            out[pos++] = ENCODE_TABLE[(bits >>> 12) & 0x3f];
+            if (i + 1 < in.length) {
+                out[pos++] = ENCODE_TABLE[(bits >>> 6) & 0x3f];
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Decodes a range of characters into a new array
+     * @param s the characters
+     * @param start the index of the first character
+     * @param end the index after the last character
+     * @return the decoded bytes, or {@code null} if the range is not valid unpadded Base64
+     */
+    static byte[] decode(CharSequence s, int start, int end) {
+        var length = decodedLength(end - start);
+        if (length < 0) {
+            return null;
+        }
+        var out = new byte[length];
+        var o = 0;
+        var i = start;
+        for (; i + 4 <= end; i += 4) {
+            var bits = (value(s.charAt(i)) << 18) | (value(s.charAt(i + 1)) << 12)
+                    | (value(s.charAt(i + 2)) << 6) | value(s.charAt(i + 3));
+            if (bits < 0) {
+                return null;
+            }
+            out[o++] = (byte) (bits >> 16);
+            out[o++] = (byte) (bits >> 8);
+            out[o++] = (byte) bits;
+        }
+        if (i < end) {
+            var bits = (value(s.charAt(i)) << 18) | (value(s.charAt(i + 1)) << 12)
+                    | (i + 2 < end ? value(s.charAt(i + 2)) << 6 : 0);
+            if (bits < 0) {
+                return null;
+            }
+            out[o++] = (byte) (bits >> 16);
+            if (o < length) {
+                out[o] = (byte) (bits >> 8);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Looks up the value of a Base64 character
+     * @param c the character
+     * @return the 6-bit value, or a negative number if the character is not in the alphabet
+     */
+    private static int value(char c) {
+        // a negative result survives the shifts and ORs in decode, which then rejects the group
+        return c < 128 ? DECODE_TABLE[c] : -1;
+    }
+}
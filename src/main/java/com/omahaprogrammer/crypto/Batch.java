@@ -0,0 +1,143 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
+import java.util.function.IntToLongFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Runs a batch of hashes on a {@link ForkJoinPool}. One worker per pool thread claims items from a shared cursor, so
+ * no thread idles while another has a queue of its own. Items are claimed most expensive first, which keeps a slow hash
+ * from starting last and stretching the batch. Memory-hard items only run together while their memory fits: when a
+ * controller is {@linkplain MemoryAdmissionController#setGlobal installed}, every hash reserves its memory from it as
+ * any other hash does, and otherwise a worker reserves the item's memory from a default budget of half the heap that is
+ * shared by every batch in the process. The first failure stops the batch and is rethrown once every worker has
+ * finished.
+ */
+final class Batch {
+    /**
+     * The memory that may be reserved by the hashes of all batches when no controller is installed
+     */
+    static final long DEFAULT_MEMORY_BUDGET = Runtime.getRuntime().maxMemory() / 2;
+
+    private Batch() {
+    }
+
+    /**
+     * Provides the pool batches run on when the caller does not give one, created on first use with one daemon worker
+     * per available processor
+     * @return the default pool
+     */
+    static ForkJoinPool defaultPool() {
+        return DefaultPoolHolder.POOL;
+    }
+
+    /**
+     * Runs the batch and waits for it to finish
+     * @param count the number of items
+     * @param work the estimated work of each item
+     * @param memory the estimated memory of each item
+     * @param task the task running one item
+     * @param pool the pool running the workers
+     */
+    static void run(int count, IntToLongFunction work, IntToLongFunction memory, IntConsumer task, ForkJoinPool pool) {
+        if (count == 0) {
+            return;
+        }
+        var order = order(count, work);
+        // an installed controller already admits every hash, and reserving from it twice could deadlock
+        var budget = MemoryAdmissionController.getGlobal().isPresent() ? null : DefaultBudgetHolder.BUDGET;
+        var cursor = new AtomicInteger();
+        var failure = new AtomicReference<Throwable>();
+        Runnable worker = () -> {
+            for (int i = cursor.getAndIncrement(); i < count; i = cursor.getAndIncrement()) {
+                var index = order[i];
+                try {
+                    if (budget == null) {
+                        task.accept(index);
+                        continue;
+                    }
+                    var permit = budget.acquire(Math.min(memory.applyAsLong(index), budget.getBudget()));
+                    try {
+                        task.accept(index);
+                    } finally {
+                        permit.close();
+                    }
+                } catch (RuntimeException | Error e) {
+                    failure.compareAndSet(null, e);
+                    cursor.set(count);
+                }
+            }
+        };
+        var workers = new ForkJoinTask<?>[Math.min(pool.getParallelism(), count)];
+        for (int w = 0; w < workers.length; w++) {
+            workers[w] = pool.submit(worker);
+        }
+        for (var w : workers) {
+            w.join();
+        }
+        var e = failure.get();
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e != null) {
+            throw (Error) e;
+        }
+    }
+
+    /**
+     * Sorts the item indices by decreasing work, keeping the input order among equal items
+     * @param count the number of items
+     * @param work the estimated work of each item
+     * @return the indices in the order they should run
+     */
+    private static int[] order(int count, IntToLongFunction work) {
+        var keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = work.applyAsLong(i);
+        }
+        return IntStream.range(0, count)
+                .boxed()
+                .sorted((a, b) -> Long.compare(keys[b], keys[a]))
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    /**
+     * Holds the budget shared by every batch when no controller is installed, created on first use
+     */
+    private static final class DefaultBudgetHolder {
+        private static final MemoryAdmissionController BUDGET =
+                MemoryAdmissionController.builder(DEFAULT_MEMORY_BUDGET).build();
+    }
+
+    /**
+     * Holds the default pool so that it is only created when used
+     */
+    private static final class DefaultPoolHolder {
+        private static final AtomicInteger COUNTER = new AtomicInteger();
+        private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+            var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("phc-batch-" + COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto;
+
+import java.security.DrbgParameters;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A salt generator that gives every thread its own {@code DRBG} {@link SecureRandom}, so concurrent callers never
+ * contend on a shared generator or re-seed a new one per salt. Each thread's generator is reseeded from the system
+ * entropy source once it has produced a configured number of bytes or a configured time has passed. Optionally, each
+ * thread draws random bytes in bulk and serves salts from that buffer.
+ */
+public final class DrbgSaltGenerator implements SaltGenerator {
+    /**
+     * The shared instance with the default settings
+     */
+    static final DrbgSaltGenerator DEFAULT = builder().build();
+
+    /**
+     * The number of bytes a thread's generator may produce before it is reseeded
+     */
+    private final long reseedBytes;
+
+    /**
+     * The time in nanoseconds after which a thread's generator is reseeded
+     */
+    private final long reseedNanos;
+
+    /**
+     * The number of bytes each thread draws at once, or zero to draw exactly what each salt needs
+     */
+    private final int prefetchBytes;
+
+    /**
+     * The state of each thread
+     */
+    private final ThreadLocal<State> state = ThreadLocal.withInitial(State::new);
+
+    private DrbgSaltGenerator(Builder builder) {
+        this.reseedBytes = builder.reseedBytes;
+        this.reseedNanos = builder.reseedNanos;
+        this.prefetchBytes = builder.prefetchBytes;
+    }
+
+    /**
+     * Creates a new builder for a generator
+     * @return the builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public void nextBytes(byte[] salt) {
+        var s = state.get();
+        if (s.produced >= reseedBytes || System.nanoTime() - s.seededAt >= reseedNanos) {
+            s.reseed();
+        }
+        s.produced += salt.length;
+        if (salt.length > prefetchBytes) {
+            s.random.nextBytes(salt);
+            return;
+        }
+        if (s.buffer == null || s.position + salt.length > s.buffer.length) {
+            if (s.buffer == null) {
+                s.buffer = new byte[prefetchBytes];
+            }
+            s.random.nextBytes(s.buffer);
+            s.position = 0;
+        }
+        System.arraycopy(s.buffer, s.position, salt, 0, salt.length);
+        s.position += salt.length;
+    }
+
+    /**
+     * Creates a new DRBG instance, falling back to the default {@code SecureRandom} when the platform has none
+     * @return the new random number generator
+     */
+    private static SecureRandom newRandom() {
+        try {
+            return SecureRandom.getInstance("DRBG",
+                    DrbgParameters.instantiation(256, DrbgParameters.Capability.RESEED_ONLY, null));
+        } catch (NoSuchAlgorithmException | IllegalArgumentException e) {
+            return new SecureRandom();
+        }
+    }
+
+    /**
+     * The generator and buffered bytes owned by one thread
+     */
+    private static final class State {
+        private SecureRandom random = newRandom();
+        private long seededAt = System.nanoTime();
+        private long produced;
+        private byte[] buffer;
+        private int position;
+
+        /**
+         * Reseeds the generator and discards any buffered bytes
+         */
+        void reseed() {
+            try {
+                random.reseed();
+            } catch (UnsupportedOperationException e) {
+                random = newRandom();
+            }
+            seededAt = System.nanoTime();
+            produced = 0;
+            if (buffer != null) {
+                position = buffer.length;
+            }
+        }
+    }
+
+    /**
+     * This class configures a new {@link DrbgSaltGenerator}
+     */
+    public static final class Builder {
+        private long reseedBytes = 1L << 20;
+        private long reseedNanos = TimeUnit.MINUTES.toNanos(10);
+        private int prefetchBytes;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets how much output each thread's generator may produce before it is reseeded. The default is 1 MiB.
+         * @param bytes the number of bytes
+         * @return this builder object
+         */
+        public Builder withReseedAfterBytes(long bytes) {
+            if (bytes <= 0) {
+                throw new IllegalArgumentException("bytes must be positive");
+            }
+            this.reseedBytes = bytes;
+            return this;
+        }
+
+        /**
+         * Sets how long each thread's generator may run before it is reseeded. The default is ten minutes.
+         * @param interval the reseed interval
+         * @return this builder object
+         */
+        public Builder withReseedInterval(Duration interval) {
+            if (interval.isNegative() || interval.isZero()) {
+                throw new IllegalArgumentException("interval must be positive");
+            }
+            this.reseedNanos = interval.toNanos();
+            return this;
+        }
+
+        /**
+         * Sets how many random bytes each thread draws at once. Salts no longer than this are served from the
+         * thread's buffer. The default of zero draws exactly the bytes each salt needs.
+         * @param bytes the size of each thread's buffer
+         * @return this builder object
+         */
+        public Builder withPrefetch(int bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("bytes must not be negative");
+            }
+            this.prefetchBytes = bytes;
+            return this;
+        }
+
+        /**
+         * Creates the generator
+         * @return the new generator
+         */
+        public DrbgSaltGenerator build() {
+            return new DrbgSaltGenerator(this);
+        }
+    }
+}
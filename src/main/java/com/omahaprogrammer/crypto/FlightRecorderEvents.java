@@ -0,0 +1,259 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto;
+
+import com.omahaprogrammer.crypto.function.PHCFunction;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Emits Java Flight Recorder events for parsing, validating and protecting, so that a recording shows the cost of
+ * every hash next to the GC and thread activity around it. The events are
+ * <ul>
+ *     <li>{@code com.omahaprogrammer.crypto.Parse}, with a default threshold of 1 ms,</li>
+ *     <li>{@code com.omahaprogrammer.crypto.Validate} and {@code com.omahaprogrammer.crypto.Protect}, with no default
+ *     threshold,</li>
+ * </ul>
+ * and carry the function identifier, the cost parameters {@code m}, {@code t}, {@code p}, {@code N}, {@code r} and
+ * {@code c} (zero when the function has no such parameter), the length of the protected password and the outcome. The
+ * default thresholds can be changed with the system properties {@code com.omahaprogrammer.crypto.jfr.threshold.parse},
+ * {@code .validate} and {@code .protect}, using the JFR syntax such as {@code "20 ms"}, and a recording's settings
+ * override them as for any other event.
+ * <p>
+ * The library is built for a release without the {@code jdk.jfr} module, so the event types are defined at run time
+ * through {@code jdk.jfr.EventFactory} and driven through method handles. When the module is missing, or no recording
+ * has ever started in this JVM, each call site costs a field read.
+ */
+final class FlightRecorderEvents {
+    static final String THRESHOLD_PROPERTY = "com.omahaprogrammer.crypto.jfr.threshold.";
+
+    static final String PARSED = "parsed";
+    static final String VALID = "valid";
+    static final String INVALID = "invalid";
+    static final String PROTECTED = "protected";
+    static final String FAILED = "failed";
+
+    /**
+     * The names of the integer cost parameters, in the order of their event fields after the function identifier
+     */
+    private static final String[] COSTS = {"m", "t", "p", "N", "r", "c"};
+    private static final String[] COST_LABELS = {
+            "Memory Cost", "Time Cost", "Parallelism", "CPU/Memory Cost", "Block Size", "Iterations or Cost"
+    };
+    private static final int LENGTH_FIELD = 1 + COSTS.length;
+    private static final int OUTCOME_FIELD = LENGTH_FIELD + 1;
+
+    static final Kind PARSE;
+    static final Kind VALIDATE;
+    static final Kind PROTECT;
+
+    private static final MethodHandle IS_INITIALIZED;
+    private static final MethodHandle BEGIN;
+    private static final MethodHandle END;
+    private static final MethodHandle SHOULD_COMMIT;
+    private static final MethodHandle SET;
+    private static final MethodHandle COMMIT;
+
+    static {
+        Kind parse = null;
+        Kind validate = null;
+        Kind protect = null;
+        MethodHandle isInitialized = null;
+        MethodHandle begin = null;
+        MethodHandle end = null;
+        MethodHandle shouldCommit = null;
+        MethodHandle set = null;
+        MethodHandle commit = null;
+        try {
+            var lookup = MethodHandles.publicLookup();
+            var recorder = Class.forName("jdk.jfr.FlightRecorder");
+            var event = Class.forName("jdk.jfr.Event");
+            var toVoid = MethodType.methodType(void.class, Object.class);
+            isInitialized = lookup.findStatic(recorder, "isInitialized", MethodType.methodType(boolean.class));
+            begin = lookup.findVirtual(event, "begin", MethodType.methodType(void.class)).asType(toVoid);
+            end = lookup.findVirtual(event, "end", MethodType.methodType(void.class)).asType(toVoid);
+            commit = lookup.findVirtual(event, "commit", MethodType.methodType(void.class)).asType(toVoid);
+            shouldCommit = lookup.findVirtual(event, "shouldCommit", MethodType.methodType(boolean.class))
+                    .asType(MethodType.methodType(boolean.class, Object.class));
+            set = lookup.findVirtual(event, "set", MethodType.methodType(void.class, int.class, Object.class))
+                    .asType(MethodType.methodType(void.class, Object.class, int.class, Object.class));
+            parse = new Kind("Parse", "Parsing of a PHC string", "1 ms");
+            validate = new Kind("Validate", "Validation of a password against a PHC", "0 ms");
+            protect = new Kind("Protect", "Protection of a new password", "0 ms");
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            // the jdk.jfr module is not present, so no events are emitted
+            parse = null;
+            validate = null;
+            protect = null;
+        }
+        PARSE = parse;
+        VALIDATE = validate;
+        PROTECT = protect;
+        IS_INITIALIZED = isInitialized;
+        BEGIN = begin;
+        END = end;
+        SHOULD_COMMIT = shouldCommit;
+        SET = set;
+        COMMIT = commit;
+    }
+
+    private FlightRecorderEvents() {
+    }
+
+    /**
+     * Determines whether this JVM supports the events
+     * @return whether the {@code jdk.jfr} module is present
+     */
+    static boolean isAvailable() {
+        return PARSE != null;
+    }
+
+    /**
+     * Starts timing an event
+     * @param kind the kind of event, which is {@code null} when the events are not available
+     * @return the event, or {@code null} if it would not be recorded
+     */
+    static Object begin(Kind kind) {
+        if (kind == null) {
+            return null;
+        }
+        try {
+            if (!(boolean) IS_INITIALIZED.invokeExact()) {
+                return null;
+            }
+            var event = (Object) kind.newEvent.invokeExact();
+            BEGIN.invokeExact(event);
+            return event;
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * Ends an event and records it if it passes the recording's threshold
+     * @param event the event from {@link #begin(Kind)}, may be {@code null}
+     * @param function the function, or {@code null} if it is not known
+     * @param params the parameter values, or {@code null} if they are not known
+     * @param length the length of the protected password in bytes
+     * @param outcome the outcome
+     */
+    static void commit(Object event, PHCFunction<?> function, Map<?, ?> params, int length, String outcome) {
+        if (event == null) {
+            return;
+        }
+        try {
+            END.invokeExact(event);
+            if (!(boolean) SHOULD_COMMIT.invokeExact(event)) {
+                return;
+            }
+            if (function != null) {
+                SET.invokeExact(event, 0, (Object) function.getId());
+                for (int slot = 0; slot < PHC.SLOTS.getSlotCount(params); slot++) {
+                    var field = costField(PHC.SLOTS.getSlotParam(params, slot).getName());
+                    if (field > 0 && PHC.SLOTS.isSlotSet(params, slot) && PHC.SLOTS.isIntSlot(params, slot)) {
+                        SET.invokeExact(event, field, (Object) PHC.SLOTS.getSlotInt(params, slot));
+                    }
+                }
+            }
+            SET.invokeExact(event, LENGTH_FIELD, (Object) length);
+            SET.invokeExact(event, OUTCOME_FIELD, (Object) outcome);
+            COMMIT.invokeExact(event);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * Finds the event field of a cost parameter
+     * @param name the parameter name
+     * @return the field index, or -1 if the parameter is not a cost parameter
+     */
+    private static int costField(String name) {
+        for (int i = 0; i < COSTS.length; i++) {
+            if (COSTS[i].equals(name)) {
+                return 1 + i;
+            }
+        }
+        return -1;
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return t instanceof RuntimeException ? (RuntimeException) t : new IllegalStateException(t);
+    }
+
+    /**
+     * An event type defined at run time
+     */
+    static final class Kind {
+        /**
+         * Creates an instance of the event type, as an {@code Object} returned from a method with no arguments
+         */
+        private final MethodHandle newEvent;
+
+        /**
+         * Defines the event type
+         * @param name the simple name of the event
+         * @param description the description of the event
+         * @param defaultThreshold the threshold used unless the system property sets another
+         * @throws ReflectiveOperationException if the JFR classes cannot be used
+         */
+        Kind(String name, String description, String defaultThreshold) throws ReflectiveOperationException {
+            var lookup = MethodHandles.publicLookup();
+            var threshold = System.getProperty(THRESHOLD_PROPERTY + name.toLowerCase(), defaultThreshold);
+            var annotations = List.of(
+                    annotation("jdk.jfr.Name", "com.omahaprogrammer.crypto." + name),
+                    annotation("jdk.jfr.Label", "PHC " + name),
+                    annotation("jdk.jfr.Description", description),
+                    annotation("jdk.jfr.Category", new String[]{"PHC"}),
+                    annotation("jdk.jfr.Threshold", threshold));
+            var fields = new ArrayList<Object>();
+            fields.add(field(String.class, "function", "Function"));
+            for (int i = 0; i < COSTS.length; i++) {
+                fields.add(field(int.class, COSTS[i], COST_LABELS[i]));
+            }
+            fields.add(field(int.class, "length", "Output Length"));
+            fields.add(field(String.class, "outcome", "Outcome"));
+
+            var factoryClass = Class.forName("jdk.jfr.EventFactory");
+            var factory = factoryClass.getMethod("create", List.class, List.class).invoke(null, annotations, fields);
+            newEvent = lookup.findVirtual(factoryClass, "newEvent",
+                    MethodType.methodType(Class.forName("jdk.jfr.Event")))
+                    .bindTo(factory)
+                    .asType(MethodType.methodType(Object.class));
+        }
+
+        private static Object field(Class<?> type, String name, String label) throws ReflectiveOperationException {
+            return Class.forName("jdk.jfr.ValueDescriptor")
+                    .getConstructor(Class.class, String.class, List.class)
+                    .newInstance(type, name, List.of(annotation("jdk.jfr.Label", label)));
+        }
+
+        private static Object annotation(String type, Object value) throws ReflectiveOperationException {
+            return Class.forName("jdk.jfr.AnnotationElement")
+                    .getConstructor(Class.class, Object.class)
+                    .newInstance(Class.forName(type).asSubclass(Annotation.class), value);
+        }
+    }
+}
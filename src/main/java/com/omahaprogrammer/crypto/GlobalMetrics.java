@@ -0,0 +1,44 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto;
+
+/**
+ * Holds the installed {@link PHCMetrics}, which an interface cannot do itself
+ */
+final class GlobalMetrics {
+    /**
+     * The implementation that ignores everything
+     */
+    static final PHCMetrics NOOP = new PHCMetrics() {
+    };
+
+    /**
+     * The installed implementation, never {@code null}
+     */
+    static volatile PHCMetrics current = NOOP;
+
+    private GlobalMetrics() {
+    }
+
+    /**
+     * Reads the clock if the given implementation will use the reading
+     * @param metrics the installed implementation
+     * @return the current time in nanoseconds, or 0 for the no-op implementation
+     */
+    static long start(PHCMetrics metrics) {
+        return metrics == NOOP ? 0 : System.nanoTime();
+    }
+}
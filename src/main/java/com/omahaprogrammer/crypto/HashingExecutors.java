@@ -0,0 +1,97 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto;
+
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factories for the executors that run the asynchronous {@link PHC} operations. Hashing is CPU-bound, so the default
+ * executor is a pool of platform threads sized to the available processors. Callers with an unbounded executor, such as
+ * one starting a virtual thread per task, should front it with {@link #limit(Executor, int)} so that at most a fixed
+ * number of hashes run at once.
+ */
+public final class HashingExecutors {
+    private HashingExecutors() {
+    }
+
+    /**
+     * Provides the shared executor used by the asynchronous methods when no executor is given. It is created on first
+     * use by {@link #newPlatformExecutor()}.
+     * @return the shared executor
+     */
+    public static Executor getDefault() {
+        return DefaultHolder.EXECUTOR;
+    }
+
+    /**
+     * Creates an executor with one daemon thread per available processor and an unbounded queue
+     * @return the new executor
+     */
+    public static ExecutorService newPlatformExecutor() {
+        return newPlatformExecutor(Runtime.getRuntime().availableProcessors(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates an executor with a fixed number of daemon threads. Tasks submitted while the queue is full are rejected,
+     * which the asynchronous methods report through the returned future.
+     * @param threads the number of threads
+     * @param queueCapacity the maximum number of waiting tasks
+     * @return the new executor
+     */
+    public static ExecutorService newPlatformExecutor(int threads, int queueCapacity) {
+        var counter = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueCapacity),
+                r -> {
+                    var thread = new Thread(r, "phc-hash-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Limits the number of tasks of the given executor that run at the same time. Each task waits for a permit on the
+     * thread the delegate runs it on, so this suits executors whose threads are cheap to block, such as a virtual
+     * thread per task executor.
+     * @param delegate the executor running the tasks
+     * @param maxConcurrent the maximum number of tasks running at once
+     * @return the limited executor
+     */
+    public static Executor limit(Executor delegate, int maxConcurrent) {
+        Objects.requireNonNull(delegate);
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("maxConcurrent must be positive");
+        }
+        var permits = new Semaphore(maxConcurrent, true);
+        return task -> delegate.execute(() -> {
+            permits.acquireUninterruptibly();
+            try {
+                task.run();
+            } finally {
+                permits.release();
+            }
+        });
+    }
+
+    /**
+     * Holds the shared executor so that it is only created when used
+     */
+    private static final class DefaultHolder {
+        private static final Executor EXECUTOR = newPlatformExecutor();
+    }
+}
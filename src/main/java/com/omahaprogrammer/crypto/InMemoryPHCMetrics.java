@@ -0,0 +1,341 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto;
+
+import com.omahaprogrammer.crypto.function.PHCFunction;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps counts and latency histograms in memory, one per phase and parameter set, for tests and simple monitoring.
+ * The histograms have a bucket per power of two nanoseconds, so percentiles are accurate to within a factor of two
+ * whatever the range of latencies, and recording takes a few atomic updates.
+ */
+public final class InMemoryPHCMetrics implements PHCMetrics {
+    /**
+     * The parameter set reported for strings that failed to parse
+     */
+    public static final String INVALID = "invalid";
+
+    /**
+     * The number of buckets in a histogram: bucket {@code i} counts latencies below 2<sup>i</sup> nanoseconds that are
+     * not counted by a lower bucket
+     */
+    static final int BUCKETS = 64;
+
+    /**
+     * The recorders of every phase and parameter set seen so far
+     */
+    private final ConcurrentHashMap<Key, Recorder> recorders = new ConcurrentHashMap<>();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    @Override
+    public void record(Phase phase, PHCFunction<?> function, Map<? extends PHCFunction.Param<?, ?>, ?> params, long nanos) {
+        if (phase == Phase.HASH) {
+            inFlight.decrementAndGet();
+        }
+        var key = new Key(phase, function, params);
+        var recorder = recorders.get(key);
+        if (recorder == null) {
+            recorder = recorders.computeIfAbsent(key, k -> new Recorder());
+        }
+        recorder.record(nanos);
+    }
+
+    @Override
+    public void hashStarted(PHCFunction<?> function, Map<? extends PHCFunction.Param<?, ?>, ?> params) {
+        inFlight.incrementAndGet();
+    }
+
+    @Override
+    public void queued() {
+        queued.incrementAndGet();
+    }
+
+    @Override
+    public void dequeued() {
+        queued.decrementAndGet();
+    }
+
+    /**
+     * The number of hashes running now
+     * @return the hashes in flight
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * The number of tasks waiting for an executor thread or for memory now
+     * @return the waiting tasks
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * Takes a snapshot of every histogram
+     * @return the histograms, ordered by phase and then by parameter set
+     */
+    public List<Histogram> getHistograms() {
+        var result = new ArrayList<Histogram>(recorders.size());
+        recorders.forEach((key, recorder) -> result.add(recorder.snapshot(key)));
+        result.sort(Comparator.comparing(Histogram::getPhase).thenComparing(Histogram::getParameterSet));
+        return result;
+    }
+
+    /**
+     * Takes a snapshot of the histogram of one phase and parameter set
+     * @param phase the phase
+     * @param parameterSet the identifier and parameter segments of the PHC strings, such as
+     * {@code $argon2id$m=65536,t=3,p=4}, or {@link #INVALID}
+     * @return the histogram, or an empty {@code Optional} if nothing was recorded for them
+     */
+    public Optional<Histogram> getHistogram(Phase phase, String parameterSet) {
+        for (var entry : recorders.entrySet()) {
+            var key = entry.getKey();
+            if (key.phase == phase && key.label().equals(parameterSet)) {
+                return Optional.of(entry.getValue().snapshot(key));
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Counts the records of a phase across all parameter sets
+     * @param phase the phase
+     * @return the number of records
+     */
+    public long getCount(Phase phase) {
+        var count = 0L;
+        for (var entry : recorders.entrySet()) {
+            if (entry.getKey().phase == phase) {
+                count += entry.getValue().count.get();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Discards every histogram. The in-flight and queued counts are kept, since they describe work still running.
+     */
+    public void reset() {
+        recorders.clear();
+    }
+
+    /**
+     * Finds the bucket of a latency
+     * @param nanos the latency in nanoseconds
+     * @return the bucket index
+     */
+    static int bucket(long nanos) {
+        return nanos <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+    }
+
+    /**
+     * Identifies a histogram by phase, function and parameter values. Parameter values are compared by content.
+     */
+    private static final class Key {
+        private final Phase phase;
+        private final PHCFunction<?> function;
+        private final Map<?, ?> params;
+        private final int hash;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Key(Phase phase, PHCFunction<?> function, Map<? extends PHCFunction.Param<?, ?>, ?> params) {
+            this.phase = phase;
+            this.function = function;
+            this.params = params == null ? null : PHC.SLOTS.valuesOf((PHCFunction) function, params);
+            this.hash = 31 * (31 * phase.hashCode() + Objects.hashCode(function))
+                    + (this.params == null ? 0 : PHC.SLOTS.valuesHashCode(this.params));
+        }
+
+        String label() {
+            return function == null ? INVALID : PHC.parametersToString(function, params);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            var other = (Key) o;
+            return phase == other.phase
+                    && Objects.equals(function, other.function)
+                    && (params == null ? other.params == null
+                                       : other.params != null && PHC.SLOTS.hasSameValues(params, other.params));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Accumulates the latencies of one histogram
+     */
+    private static final class Recorder {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        void record(long nanos) {
+            buckets.incrementAndGet(bucket(nanos));
+            total.addAndGet(nanos);
+            count.incrementAndGet();
+            var current = max.get();
+            while (nanos > current && !max.compareAndSet(current, nanos)) {
+                current = max.get();
+            }
+        }
+
+        Histogram snapshot(Key key) {
+            var counts = new long[BUCKETS];
+            var sum = 0L;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                sum += counts[i];
+            }
+            var function = key.function == null ? null : key.function.getId();
+            return new Histogram(key.phase, function, key.label(), sum, total.get(), max.get(), counts);
+        }
+    }
+
+    /**
+     * A snapshot of the latencies recorded for one phase and parameter set
+     */
+    public static final class Histogram {
+        private final Phase phase;
+        private final String functionId;
+        private final String parameterSet;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long[] buckets;
+
+        private Histogram(Phase phase, String functionId, String parameterSet, long count, long totalNanos,
+                          long maxNanos, long[] buckets) {
+            this.phase = phase;
+            this.functionId = functionId;
+            this.parameterSet = parameterSet;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.buckets = buckets;
+        }
+
+        /**
+         * The phase the latencies belong to
+         * @return the phase
+         */
+        public Phase getPhase() {
+            return phase;
+        }
+
+        /**
+         * The identifier of the function, such as {@code argon2id}
+         * @return the function identifier, or {@code null} for strings that failed to parse
+         */
+        public String getFunctionId() {
+            return functionId;
+        }
+
+        /**
+         * The identifier and parameter segments of the PHC strings, such as {@code $argon2id$m=65536,t=3,p=4}
+         * @return the parameter set, or {@link #INVALID} for strings that failed to parse
+         */
+        public String getParameterSet() {
+            return parameterSet;
+        }
+
+        /**
+         * The number of latencies recorded
+         * @return the count
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * The sum of the latencies recorded
+         * @return the total time
+         */
+        public Duration getTotal() {
+            return Duration.ofNanos(totalNanos);
+        }
+
+        /**
+         * The longest latency recorded
+         * @return the maximum
+         */
+        public Duration getMax() {
+            return Duration.ofNanos(maxNanos);
+        }
+
+        /**
+         * The average latency
+         * @return the mean, or zero if nothing was recorded
+         */
+        public Duration getMean() {
+            return Duration.ofNanos(count == 0 ? 0 : totalNanos / count);
+        }
+
+        /**
+         * Estimates a percentile as the upper bound of the bucket holding it, which is at most twice the true value
+         * @param percentile the percentile, from 0 to 100
+         * @return the estimated latency, never more than the maximum, or zero if nothing was recorded
+         * @throws IllegalArgumentException if the percentile is out of range
+         */
+        public Duration getPercentile(double percentile) {
+            if (!(percentile >= 0 && percentile <= 100)) {
+                throw new IllegalArgumentException("percentile must be between 0 and 100");
+            }
+            var rank = (long) Math.ceil(percentile / 100 * count);
+            var seen = 0L;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) {
+                    var upper = i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+                    return Duration.ofNanos(Math.min(upper, maxNanos));
+                }
+            }
+            return Duration.ZERO;
+        }
+
+        /**
+         * The number of latencies in each bucket; bucket {@code i} holds those from 2<sup>i-1</sup> to
+         * 2<sup>i</sup>-1 nanoseconds, and bucket 0 holds zero
+         * @return the counts, copied
+         */
+        public long[] getBucketCounts() {
+            return buckets.clone();
+        }
+
+        @Override
+        public String toString() {
+            return phase + " " + parameterSet + " count=" + count + " mean=" + getMean()
+                    + " p50=" + getPercentile(50) + " p99=" + getPercentile(99) + " max=" + getMax();
+        }
+    }
+}
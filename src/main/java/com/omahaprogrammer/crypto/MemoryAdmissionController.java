@@ -0,0 +1,303 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the memory held by concurrent password hashes. Every hash reserves its
+ * {@linkplain com.omahaprogrammer.crypto.function.PHCFunction#estimateMemory(java.util.Map) estimated footprint} from a
+ * fixed budget before it runs and returns it afterwards. Requests that do not fit wait in arrival order, so a large
+ * request is not starved by a stream of small ones; they fail with an {@link IllegalStateException} if the queue is full
+ * or the wait times out. Once {@linkplain #setGlobal(MemoryAdmissionController) installed}, the controller applies to
+ * every hash computed through {@link PHC}.
+ */
+public final class MemoryAdmissionController {
+    /**
+     * The controller applied to every hash, or {@code null} for none
+     */
+    private static volatile MemoryAdmissionController global;
+
+    /**
+     * The number of bytes that may be reserved at once
+     */
+    private final long budget;
+
+    /**
+     * The longest time in nanoseconds a request waits, or a negative number to wait indefinitely
+     */
+    private final long maxWaitNanos;
+
+    /**
+     * The largest number of requests that may wait at once
+     */
+    private final int maxQueuedRequests;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signalled whenever memory is returned or the head of the queue changes
+     */
+    private final Condition changed = lock.newCondition();
+
+    /**
+     * The waiting requests in arrival order
+     */
+    private final ArrayDeque<Request> queue = new ArrayDeque<>();
+
+    /**
+     * The number of bytes reserved by admitted requests
+     */
+    private long inUse;
+
+    /**
+     * The number of bytes requested by waiting requests
+     */
+    private long queued;
+
+    private MemoryAdmissionController(Builder builder) {
+        this.budget = builder.budget;
+        this.maxWaitNanos = builder.maxWaitNanos;
+        this.maxQueuedRequests = builder.maxQueuedRequests;
+    }
+
+    /**
+     * Creates a new builder for a controller
+     * @param budget the number of bytes that may be reserved at once
+     * @return the builder
+     */
+    public static Builder builder(long budget) {
+        return new Builder(budget);
+    }
+
+    /**
+     * Installs the controller applied to every hash computed through {@link PHC}
+     * @param controller the controller, or {@code null} to remove the current one
+     */
+    public static void setGlobal(MemoryAdmissionController controller) {
+        global = controller;
+    }
+
+    /**
+     * Retrieves the controller applied to every hash computed through {@link PHC}
+     * @return the installed controller, if any
+     */
+    public static Optional<MemoryAdmissionController> getGlobal() {
+        return Optional.ofNullable(global);
+    }
+
+    /**
+     * Reserves memory, waiting for it if necessary
+     * @param bytes the number of bytes to reserve
+     * @return the reservation, which must be closed once the memory is no longer used
+     * @throws IllegalArgumentException if the request is larger than the whole budget
+     * @throws IllegalStateException if the queue is full, the wait times out, or the thread is interrupted
+     */
+    public Permit acquire(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("bytes must not be negative");
+        }
+        if (bytes > budget) {
+            throw new IllegalArgumentException("Request of " + bytes + " bytes exceeds the budget of " + budget + " bytes");
+        }
+        lock.lock();
+        try {
+            if (queue.isEmpty() && inUse + bytes <= budget) {
+                inUse += bytes;
+                return new Permit(bytes);
+            }
+            if (maxWaitNanos == 0 || queue.size() >= maxQueuedRequests) {
+                throw new IllegalStateException("Memory budget exhausted");
+            }
+            var request = new Request();
+            queue.addLast(request);
+            queued += bytes;
+            try {
+                var remaining = maxWaitNanos;
+                while (queue.peekFirst() != request || inUse + bytes > budget) {
+                    if (maxWaitNanos < 0) {
+                        changed.await();
+                    } else if (remaining > 0) {
+                        remaining = changed.awaitNanos(remaining);
+                    } else {
+                        throw new IllegalStateException("Timed out waiting for " + bytes + " bytes of memory");
+                    }
+                }
+                inUse += bytes;
+                return new Permit(bytes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted waiting for memory", e);
+            } finally {
+                queue.remove(request);
+                queued -= bytes;
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(long bytes) {
+        lock.lock();
+        try {
+            inUse -= bytes;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of bytes that may be reserved at once
+     * @return the budget
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * The number of bytes currently reserved
+     * @return the reserved bytes
+     */
+    public long getInUse() {
+        lock.lock();
+        try {
+            return inUse;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of bytes requested by waiting callers
+     * @return the queued bytes
+     */
+    public long getQueued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of waiting callers
+     * @return the queue length
+     */
+    public int getQueuedRequests() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A waiting request, compared by identity
+     */
+    private static final class Request {
+    }
+
+    /**
+     * A reservation of memory, returned to the budget when closed
+     */
+    public final class Permit implements AutoCloseable {
+        private final long bytes;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(long bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * The number of bytes reserved
+         * @return the reserved bytes
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Returns the memory to the budget. Closing a permit more than once has no further effect.
+         */
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release(bytes);
+            }
+        }
+    }
+
+    /**
+     * This class configures a new {@link MemoryAdmissionController}
+     */
+    public static final class Builder {
+        private final long budget;
+        private long maxWaitNanos = -1;
+        private int maxQueuedRequests = Integer.MAX_VALUE;
+
+        private Builder(long budget) {
+            if (budget <= 0) {
+                throw new IllegalArgumentException("budget must be positive");
+            }
+            this.budget = budget;
+        }
+
+        /**
+         * Sets how long a request waits for memory before it fails. A zero duration rejects requests that do not fit
+         * immediately. By default requests wait indefinitely.
+         * @param maxWait the longest wait
+         * @return this builder object
+         */
+        public Builder withMaxWait(Duration maxWait) {
+            if (maxWait.isNegative()) {
+                throw new IllegalArgumentException("maxWait must not be negative");
+            }
+            this.maxWaitNanos = maxWait.toNanos();
+            return this;
+        }
+
+        /**
+         * Sets how many requests may wait at once; further requests fail immediately. By default the queue is
+         * unbounded.
+         * @param requests the largest number of waiting requests
+         * @return this builder object
+         */
+        public Builder withMaxQueuedRequests(int requests) {
+            if (requests < 0) {
+                throw new IllegalArgumentException("requests must not be negative");
+            }
+            this.maxQueuedRequests = requests;
+            return this;
+        }
+
+        /**
+         * Creates the controller
+         * @return the new controller
+         */
+        public MemoryAdmissionController build() {
+            return new MemoryAdmissionController(this);
+        }
+    }
+}
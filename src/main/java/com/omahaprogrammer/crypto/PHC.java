@@ -17,11 +17,19 @@ package com.omahaprogrammer.crypto;
 
 import com.omahaprogrammer.crypto.function.*;
 
-import java.security.SecureRandom;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.invoke.MethodHandles;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.security.MessageDigest;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * This class is a representation of a PHC-formatted string describing a protected password. Instances of this class may
@@ -33,16 +41,25 @@ import java.util.stream.Collectors;
 public final class PHC<T extends PHCFunction<T>> {
 
     /**
-     * The list of supported PHC functions by name. Used for parsing.
+     * The maximum length of a PHC-formatted string accepted by the parser
      */
-    private static final Map<String, PHCFunction<?>> functions;
+    public static final int MAX_LENGTH = 2048;
 
     /**
-     * The regular expression describing a PHC
+     * The array each thread formats into before copying to an {@code Appendable} or {@code ByteBuffer}
      */
-    private static final Pattern PHC_FORMAT_PATTERN = Pattern.compile("\\$(?<id>[a-z0-9-]*)" +
-            "(?:\\$(?<params>[a-z0-9-]*=[a-zA-Z0-9/+.-]*(?:,[a-z0-9-]*=[a-zA-Z0-9/+.-]*)*))?" +
-            "(?:\\$(?<salt>[a-zA-Z0-9/+.-]*)(?:\\$(?<hash>[a-zA-Z0-9/+.-]*))?)?");
+    private static final ThreadLocal<char[]> SCRATCH = ThreadLocal.withInitial(() -> new char[MAX_LENGTH]);
+
+    /**
+     * The array each thread hashes into while validating. It is taken out while in use, so a validation nested on the
+     * same thread hashes into an array of its own.
+     */
+    private static final ThreadLocal<byte[]> HASH_SCRATCH = new ThreadLocal<>();
+
+    /**
+     * The access of this package to the slots of parameter values
+     */
+    static final ParamAccess SLOTS = ParamAccess.get(MethodHandles.lookup());
 
     /**
      * The one-way function driving this object
@@ -50,9 +67,9 @@ public final class PHC<T extends PHCFunction<T>> {
     private final T function;
 
     /**
-     * The priority-ordered map of parameters with their associated values
+     * The parameter values in priority-ordered slots
      */
-    private final NavigableMap<PHCFunction.Param<T, ?>, Object> params;
+    private final Map<PHCFunction.Param<T, ?>, Object> params;
 
     /**
      * The cryptographic salt
@@ -64,108 +81,156 @@ public final class PHC<T extends PHCFunction<T>> {
      */
     private final byte[] protectedPassword;
 
-    static {
-        var funcs = List.of(
-                Argon2i.getInstance(),
-                Argon2d.getInstance(),
-                Argon2id.getInstance(),
-                PBKDF2.getInstance(),
-                BCrypt.getInstance(),
-                SCrypt.getInstance()
-        );
-        functions = funcs.stream().collect(Collectors.toMap(PHCFunction::getId, e -> e));
-    }
+    /**
+     * The text representation, built on first use. Racing threads build equal strings, so the field needs no
+     * synchronization.
+     */
+    private String text;
 
     /**
-     * Creates a new PHC object
+     * Creates a new PHC object. The new object takes ownership of the given arrays, so callers must pass copies of
+     * anything they or others may modify later.
      * @param function the function driving this object
      * @param params the function-specific parameters used to protect the password
      * @param salt the cryptographic salt used to protect the password
      * @param protectedPassword the result of the protection function on the cleartext password
      */
-    private PHC(T function,
-                  Map<PHCFunction.Param<T, ?>, Object> params,
-                  byte[] salt,
-                  byte[] protectedPassword) {
+    PHC(T function,
+        Map<PHCFunction.Param<T, ?>, Object> params,
+        byte[] salt,
+        byte[] protectedPassword) {
         this.function = function;
-        this.params = Collections.unmodifiableNavigableMap(new TreeMap<>(params));
-        this.salt = (salt == null) ? null : Arrays.copyOf(salt, salt.length);
-        this.protectedPassword = (protectedPassword == null) ? null : Arrays.copyOf(protectedPassword, protectedPassword.length);
+        this.params = params;
+        this.salt = salt;
+        this.protectedPassword = protectedPassword;
     }
 
     /**
-     * Retrieves the function identified by the given string. Used during parsing
-     * @param id the standard identifier of the function.
-     * @return the function associated with the identifier
+     * Parses a PHC-formatted string and produces the corresponding object
+     * @param phcString the PHC-formatted string
+     * @param <T> the type of the function determined by the string
+     * @return the fully populated PHC object represented by the string
+     * @throws IllegalArgumentException if the string is not a valid PHC string for a supported function
      */
-    private static Optional<PHCFunction<?>> getFunction(String id) {
-        return Optional.ofNullable(functions.get(id));
+    public static <T extends PHCFunction<T>> PHC<T> parse(String phcString) {
+        var parser = new PHCParser(phcString);
+        @SuppressWarnings("unchecked")
+        PHC<T> phc = (PHC<T>) parse(parser);
+        if (phc == null) {
+            throw new IllegalArgumentException(parser.getError());
+        }
+        return phc;
     }
 
     /**
-     * Parses a PHC-formatted string and produces the corresponding object
+     * Parses a PHC-formatted string without throwing an exception for malformed input
      * @param phcString the PHC-formatted string
      * @param <T> the type of the function determined by the string
-     * @return the fully populated PHC object represented by the string
+     * @return the PHC object represented by the string, or an empty {@code Optional} if the string is not valid
      */
-    public static <T extends PHCFunction<T>> PHC<T> parse(String phcString) {
-        Matcher m = PHC_FORMAT_PATTERN.matcher(phcString);
-        if (m.matches()) {
-            var decoder = Base64.getDecoder();
-            var id = m.group("id");
-            var saltStr = m.group("salt");
-            var hashStr = m.group("hash");
-            var salt = (saltStr == null) ? null : decoder.decode(saltStr);
-            var hash = (hashStr == null) ? null : decoder.decode(hashStr);
-            var paramMap = extractParams(m.group("params"));
-            var fOpt = getFunction(id);
-            if (fOpt.isPresent()) {
-                var function = fOpt.get();
-                var typedParams = new TreeMap<PHCFunction.Param<?, ?>, Object>();
-                for (var entry : paramMap.entrySet()) {
-                    var param = function.getParam(entry.getKey());
-                    param.ifPresent(p -> typedParams.put(p, p.validate(entry.getValue())));
-                }
-                @SuppressWarnings({"unchecked", "rawtypes"})
-                PHC<T> phc = new PHC(function, typedParams, salt, hash);
-                return phc;
+    public static <T extends PHCFunction<T>> Optional<PHC<T>> tryParse(CharSequence phcString) {
+        return tryParse(phcString, e -> { });
+    }
+
+    /**
+     * Parses a PHC-formatted string without throwing an exception for malformed input
+     * @param phcString the PHC-formatted string
+     * @param errorHandler receives the reason the string could not be parsed
+     * @param <T> the type of the function determined by the string
+     * @return the PHC object represented by the string, or an empty {@code Optional} if the string is not valid
+     */
+    public static <T extends PHCFunction<T>> Optional<PHC<T>> tryParse(CharSequence phcString,
+                                                                        Consumer<? super String> errorHandler) {
+        var parser = new PHCParser(phcString);
+        @SuppressWarnings("unchecked")
+        PHC<T> phc = (PHC<T>) parse(parser);
+        if (phc == null) {
+            errorHandler.accept(parser.getError());
+        }
+        return Optional.ofNullable(phc);
+    }
+
+    /**
+     * Runs the parser, reporting the time taken to the installed metrics and the flight recorder
+     * @param parser the parser
+     * @return the parsed object, or {@code null} if the text is not a valid PHC string
+     */
+    private static PHC<?> parse(PHCParser parser) {
+        var metrics = PHCMetrics.getGlobal();
+        var start = GlobalMetrics.start(metrics);
+        var event = FlightRecorderEvents.begin(FlightRecorderEvents.PARSE);
+        var phc = parser.parse();
+        if (metrics != GlobalMetrics.NOOP) {
+            metrics.record(PHCMetrics.Phase.PARSE, phc == null ? null : phc.function, phc == null ? null : phc.params,
+                    System.nanoTime() - start);
+        }
+        if (event != null) {
+            if (phc == null) {
+                FlightRecorderEvents.commit(event, null, null, 0, parser.getError());
             } else {
-                throw new IllegalArgumentException("Unknown function");
+                FlightRecorderEvents.commit(event, phc.function, phc.params,
+                        phc.protectedPassword == null ? 0 : phc.protectedPassword.length, FlightRecorderEvents.PARSED);
             }
         }
-        throw new IllegalArgumentException("Unparseable token");
+        return phc;
     }
 
     /**
-     * Extracts the given parameters from
-     * @param params the part of the PHC-formatted string describing the parameters
-     * @return the map of key-value pairs describing the parameters
+     * Decodes the compact binary form produced by {@link #encode()}
+     * @param bytes the encoded object
+     * @param <T> the type of the function determined by the encoding
+     * @return the decoded PHC object
+     * @throws IllegalArgumentException if the array is not exactly one valid encoding of a supported function
      */
-    private static Map<String, String> extractParams(String params) {
-        var paramMap = new HashMap<String, String>();
-        if (params != null) {
-            var tuples = params.split(",");
-            for (var tuple : tuples) {
-                var parts = tuple.split("=");
-                paramMap.put(parts[0], parts[1]);
-            }
+    public static <T extends PHCFunction<T>> PHC<T> decode(byte[] bytes) {
+        var buffer = ByteBuffer.wrap(bytes);
+        PHC<T> phc = decode(buffer);
+        if (buffer.hasRemaining()) {
+            throw new IllegalArgumentException(PHCBinaryCodec.MALFORMED);
         }
-        return paramMap;
+        return phc;
+    }
+
+    /**
+     * Decodes the compact binary form produced by {@link #encode(ByteBuffer)} straight from the buffer, starting at its
+     * position. On success the position is advanced past the encoding, so consecutive encodings can be read one after
+     * another; on failure it is left unchanged.
+     * @param buffer the buffer holding the encoded object
+     * @param <T> the type of the function determined by the encoding
+     * @return the decoded PHC object
+     * @throws IllegalArgumentException if the bytes are not a valid encoding of a supported function
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends PHCFunction<T>> PHC<T> decode(ByteBuffer buffer) {
+        return (PHC<T>) PHCBinaryCodec.decode(buffer);
     }
 
     /**
      * Creates a new PHC object protecting the given cleartext password using the same parameters of this PHC. This
      * method will randomly derive a new salt of the same length as this PHC's salt. This method is intended for reusing
-     * the parameters and function, not validating the given cleartext password.
+     * the parameters and function, not validating the given cleartext password. A PHC without a salt or protected
+     * password, such as one from {@link Builder#build()}, uses the function's default lengths instead.
      * @param password the cleartext password to protect
      * @return a new PHC object protecting the given password
      */
     public PHC<T> protectNewPassword(char[] password) {
+        return protectNewPassword(SaltGenerator.getDefault(), password);
+    }
+
+    /**
+     * Creates a new PHC object protecting the given cleartext password using the same parameters of this PHC. This
+     * method will derive a new salt of the same length as this PHC's salt from the given generator. This method is
+     * intended for reusing the parameters and function, not validating the given cleartext password. A PHC without a
+     * salt or protected password uses the function's default lengths instead.
+     * @param saltGenerator the source of the new salt
+     * @param password the cleartext password to protect
+     * @return a new PHC object protecting the given password
+     */
+    public PHC<T> protectNewPassword(SaltGenerator saltGenerator, char[] password) {
         password = Arrays.copyOf(password, password.length);
         try {
-            var newSalt = new byte[this.salt.length];
-            new SecureRandom().nextBytes(newSalt);
-            return new PHC<>(function, params, newSalt, function.protectPassword(params, newSalt, password, protectedPassword.length));
+            var newSalt = saltGenerator.generate(salt == null ? function.getDefaultSaltLength() : salt.length);
+            return new PHC<>(function, params, newSalt, protect(function, params, newSalt, password, hashLength()));
         } finally {
             Arrays.fill(password, '\0');
         }
@@ -180,13 +245,22 @@ public final class PHC<T extends PHCFunction<T>> {
      */
     public PHC<T> protectNewPassword(byte[] newSalt, char[] password) {
         password = Arrays.copyOf(password, password.length);
+        newSalt = Arrays.copyOf(newSalt, newSalt.length);
         try {
-            return new PHC<>(function, params, newSalt, function.protectPassword(params, newSalt, password, protectedPassword.length));
+            return new PHC<>(function, params, newSalt, protect(function, params, newSalt, password, hashLength()));
         } finally {
             Arrays.fill(password, '\0');
         }
     }
 
+    /**
+     * The length of the passwords protected by {@code protectNewPassword}
+     * @return the length of this PHC's protected password, or the function's default if there is none
+     */
+    int hashLength() {
+        return protectedPassword == null ? function.getDefaultHashLength() : protectedPassword.length;
+    }
+
     /**
      * The cryptographic one-way function that is used to protect the supplied password.
      * @return this PHC's function
@@ -199,15 +273,26 @@ public final class PHC<T extends PHCFunction<T>> {
      * Retrieves the parameter value described for the given parameter
      * @param param the parameter whose value is to be retrieved
      * @param <V> the type of the value
-     * @return the {@code Optional} containing the value of the object
+     * @return the {@code Optional} containing the value of the object; array values are cloned
      */
     public <V> Optional<V> getParam(PHCFunction.Param<T, V> param) {
         var v = params.get(param);
         if (v == null) {
             return Optional.empty();
-        } else {
-            return Optional.of(param.getValueClass().cast(params.get(param)));
+        } else if (v instanceof byte[]) {
+            v = copyOf((byte[]) v);
         }
+        return Optional.of(param.getValueClass().cast(v));
+    }
+
+    /**
+     * Retrieves the value of an integer parameter without boxing
+     * @param param the parameter whose value is to be retrieved
+     * @param defaultValue the result when the parameter is not set
+     * @return the value of the parameter, or {@code defaultValue}
+     */
+    public int getIntParam(PHCFunction.Param<T, Integer> param, int defaultValue) {
+        return SLOTS.getInt(params, param, defaultValue);
     }
 
     /**
@@ -234,50 +319,608 @@ public final class PHC<T extends PHCFunction<T>> {
      * @return {@code true} if the given password is the same as the password protected by this PHC
      */
     public boolean validate(char[] password) {
-        password = Arrays.copyOf(password, password.length);
-        var testHash = function.protectPassword(params, salt, password, protectedPassword.length);
-        Arrays.fill(password, '\0');
-        var valid = true;
-        for (int i = protectedPassword.length - 1; i >= 0; --i) {
-            valid &= testHash[i] == protectedPassword[i];
+        return validate(CharBuffer.wrap(password));
+    }
+
+    /**
+     * Validates the remaining characters of the given buffer as the cleartext password, as {@link #validate(char[])}
+     * does. The position of the buffer is unchanged.
+     * @param password the cleartext password to validate
+     * @return {@code true} if the given password is the same as the password protected by this PHC
+     */
+    public boolean validate(CharBuffer password) {
+        return validate(Objects.requireNonNull(password), null, 0, 0);
+    }
+
+    /**
+     * Validates a cleartext password given as its UTF-8 encoding, as {@link #validate(char[])} does
+     * @param password the UTF-8 encoded cleartext password to validate
+     * @return {@code true} if the given password is the same as the password protected by this PHC
+     */
+    public boolean validate(byte[] password) {
+        return validate(null, password, 0, password.length);
+    }
+
+    /**
+     * Validates a password given either as characters or as UTF-8 bytes, hashing it into this thread's scratch array and
+     * comparing it there
+     * @param chars the password characters, or {@code null} when the password is given as bytes
+     * @param bytes the array holding the password bytes when {@code chars} is {@code null}
+     * @param off the offset of the password bytes
+     * @param len the length of the password bytes
+     * @return {@code true} if the given password is the same as the password protected by this PHC
+     */
+    private boolean validate(CharBuffer chars, byte[] bytes, int off, int len) {
+        var event = FlightRecorderEvents.begin(FlightRecorderEvents.VALIDATE);
+        var outcome = FlightRecorderEvents.FAILED;
+        var length = protectedPassword.length;
+        var testHash = HASH_SCRATCH.get();
+        if (testHash == null || testHash.length < length) {
+            testHash = new byte[Math.max(length, 64)];
+        } else {
+            HASH_SCRATCH.set(null);
         }
-        return valid;
+        try {
+            hash(function, params, salt, chars, bytes, off, len, testHash, length);
+            var metrics = PHCMetrics.getGlobal();
+            var start = GlobalMetrics.start(metrics);
+            var valid = true;
+            for (int i = length - 1; i >= 0; --i) {
+                valid &= testHash[i] == protectedPassword[i];
+            }
+            if (metrics != GlobalMetrics.NOOP) {
+                metrics.record(PHCMetrics.Phase.COMPARE, function, params, System.nanoTime() - start);
+            }
+            outcome = valid ? FlightRecorderEvents.VALID : FlightRecorderEvents.INVALID;
+            return valid;
+        } finally {
+            Arrays.fill(testHash, 0, length, (byte) 0);
+            HASH_SCRATCH.set(testHash);
+            FlightRecorderEvents.commit(event, function, params, length, outcome);
+        }
+    }
+
+    /**
+     * Validates the given cleartext password on the {@linkplain HashingExecutors#getDefault() shared hashing executor}
+     * @param password the cleartext password to validate; it is copied, so the caller may clear it once this returns
+     * @return a future completed with the result of {@link #validate(char[])}
+     */
+    public CompletableFuture<Boolean> validateAsync(char[] password) {
+        return validateAsync(password, HashingExecutors.getDefault());
+    }
+
+    /**
+     * Validates the given cleartext password on the given executor
+     * @param password the cleartext password to validate; it is copied, so the caller may clear it once this returns
+     * @param executor the executor running the protection function
+     * @return a future completed with the result of {@link #validate(char[])}, or exceptionally if the validation fails
+     * or the executor rejects it
+     */
+    public CompletableFuture<Boolean> validateAsync(char[] password, Executor executor) {
+        return supplyAsync(password, this::validate, executor);
+    }
+
+    /**
+     * Validates a batch of passwords in parallel on a shared pool with one worker per processor. The most expensive
+     * hashes run first, and memory-hard hashes only run together while their memory fits in the
+     * {@linkplain MemoryAdmissionController#getGlobal() installed controller}, or when there is none, in a budget of half
+     * the heap shared by every batch.
+     * @param phcs the PHC objects to validate against
+     * @param passwords the cleartext password for each PHC, in the same order
+     * @return the result of {@link #validate(char[])} for each PHC, in input order
+     * @throws IllegalArgumentException if the lists differ in size
+     */
+    public static boolean[] validateAll(List<? extends PHC<?>> phcs, List<char[]> passwords) {
+        return validateAll(phcs, passwords, Batch.defaultPool());
+    }
+
+    /**
+     * Validates a batch of passwords in parallel on the given pool, as {@link #validateAll(List, List)} does
+     * @param phcs the PHC objects to validate against
+     * @param passwords the cleartext password for each PHC, in the same order
+     * @param pool the pool running the hashes
+     * @return the result of {@link #validate(char[])} for each PHC, in input order
+     * @throws IllegalArgumentException if the lists differ in size
+     */
+    public static boolean[] validateAll(List<? extends PHC<?>> phcs, List<char[]> passwords, ForkJoinPool pool) {
+        if (phcs.size() != passwords.size()) {
+            throw new IllegalArgumentException("Each PHC requires exactly one password");
+        }
+        var items = phcs.toArray(new PHC<?>[0]);
+        var cleartexts = passwords.toArray(new char[0][]);
+        var results = new boolean[items.length];
+        Batch.run(items.length, i -> items[i].estimateWork(), i -> items[i].estimateMemory(),
+                i -> results[i] = items[i].validate(cleartexts[i]), pool);
+        return results;
+    }
+
+    /**
+     * Estimates the work of validating a password against this PHC
+     * @return the estimated work, as reported by {@link PHCFunction#estimateWork(Map)}
+     */
+    long estimateWork() {
+        return function.estimateWork(params);
+    }
+
+    /**
+     * Estimates the memory needed to validate a password against this PHC
+     * @return the estimated memory in bytes
+     */
+    long estimateMemory() {
+        return function.estimateMemory(params);
+    }
+
+    /**
+     * Protects a new password, reporting it to the flight recorder
+     * @param function the protection function
+     * @param params the parameters of the function
+     * @param salt the cryptographic salt
+     * @param password the cleartext password
+     * @param length the output length
+     * @param <T> the type of the function
+     * @return the protected password
+     */
+    private static <T extends PHCFunction<T>> byte[] protect(T function, Map<PHCFunction.Param<T, ?>, Object> params,
+                                                             byte[] salt, char[] password, int length) {
+        var event = FlightRecorderEvents.begin(FlightRecorderEvents.PROTECT);
+        var outcome = FlightRecorderEvents.FAILED;
+        try {
+            var result = new byte[Math.max(length, 0)];
+            hash(function, params, salt, CharBuffer.wrap(password), null, 0, 0, result, length);
+            outcome = FlightRecorderEvents.PROTECTED;
+            return result;
+        } finally {
+            FlightRecorderEvents.commit(event, function, params, length, outcome);
+        }
+    }
+
+    /**
+     * Runs the protection function, reserving its memory from the
+     * {@linkplain MemoryAdmissionController#getGlobal() installed admission controller} if there is one, and reports it to
+     * the {@linkplain PHCMetrics#getGlobal() installed metrics}
+     * @param function the protection function
+     * @param params the parameters of the function
+     * @param salt the cryptographic salt
+     * @param chars the cleartext password characters, or {@code null} when the password is given as bytes
+     * @param bytes the array holding the UTF-8 encoded password when {@code chars} is {@code null}
+     * @param off the offset of the password bytes
+     * @param len the length of the password bytes
+     * @param out the array receiving the protected password at its start
+     * @param length the output length
+     * @param <T> the type of the function
+     */
+    private static <T extends PHCFunction<T>> void hash(T function, Map<PHCFunction.Param<T, ?>, Object> params,
+                                                        byte[] salt, CharBuffer chars, byte[] bytes, int off, int len,
+                                                        byte[] out, int length) {
+        var metrics = PHCMetrics.getGlobal();
+        var controller = MemoryAdmissionController.getGlobal();
+        if (controller.isPresent()) {
+            MemoryAdmissionController.Permit permit;
+            metrics.queued();
+            try {
+                permit = controller.get().acquire(function.estimateMemory(params));
+            } finally {
+                metrics.dequeued();
+            }
+            try {
+                timedHash(metrics, function, params, salt, chars, bytes, off, len, out, length);
+            } finally {
+                permit.close();
+            }
+            return;
+        }
+        timedHash(metrics, function, params, salt, chars, bytes, off, len, out, length);
+    }
+
+    private static <T extends PHCFunction<T>> void timedHash(PHCMetrics metrics, T function,
+                                                             Map<PHCFunction.Param<T, ?>, Object> params, byte[] salt,
+                                                             CharBuffer chars, byte[] bytes, int off, int len,
+                                                             byte[] out, int length) {
+        if (metrics == GlobalMetrics.NOOP) {
+            run(function, params, salt, chars, bytes, off, len, out, length);
+            return;
+        }
+        metrics.hashStarted(function, params);
+        var start = System.nanoTime();
+        try {
+            run(function, params, salt, chars, bytes, off, len, out, length);
+        } finally {
+            metrics.record(PHCMetrics.Phase.HASH, function, params, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Calls the form of the protection function that matches how the password is given
+     */
+    private static <T extends PHCFunction<T>> void run(T function, Map<PHCFunction.Param<T, ?>, Object> params,
+                                                       byte[] salt, CharBuffer chars, byte[] bytes, int off, int len,
+                                                       byte[] out, int length) {
+        if (chars != null) {
+            function.protectPassword(params, salt, chars, out, 0, length);
+        } else {
+            function.protectPassword(params, salt, bytes, off, len, out, 0, length);
+        }
+    }
+
+    /**
+     * Runs an operation on a copy of the password on the given executor, clearing the copy once the task runs
+     * @param password the cleartext password
+     * @param operation the operation needing the password
+     * @param executor the executor running the operation
+     * @param <R> the type of the result
+     * @return the future result
+     */
+    private static <R> CompletableFuture<R> supplyAsync(char[] password, Function<char[], R> operation,
+                                                        Executor executor) {
+        return supplyOwned(Arrays.copyOf(password, password.length), operation, executor);
+    }
+
+    /**
+     * Runs an operation on a password this method takes ownership of, clearing it once the task runs. The task
+     * is a plain {@code Runnable} rather than {@link CompletableFuture#supplyAsync}, whose task skips its supplier when
+     * the future was cancelled first; this one always clears the copy and signals {@link PHCMetrics#dequeued()}, and
+     * only skips the operation. The copy is not cleared from a completion callback, since a cancelled operation may
+     * still be hashing it.
+     * @param copy the copy of the cleartext password, cleared by this method
+     * @param operation the operation needing the password
+     * @param executor the executor running the operation
+     * @param <R> the type of the result
+     * @return the future result
+     */
+    static <R> CompletableFuture<R> supplyOwned(char[] copy, Function<char[], R> operation, Executor executor) {
+        var metrics = PHCMetrics.getGlobal();
+        var future = new CompletableFuture<R>();
+        metrics.queued();
+        try {
+            executor.execute(() -> {
+                try {
+                    metrics.dequeued();
+                    if (!future.isDone()) {
+                        future.complete(operation.apply(copy));
+                    }
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                } finally {
+                    Arrays.fill(copy, '\0');
+                }
+            });
+            return future;
+        } catch (RuntimeException e) {
+            metrics.dequeued();
+            Arrays.fill(copy, '\0');
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Compares this PHC with another by content. Two PHCs are equal when they have the same function, parameter values,
+     * salt and protected password; the protected passwords are compared in constant time.
+     * @param o the object to compare with
+     * @return whether the objects are equal
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PHC)) return false;
+        var other = (PHC<?>) o;
+        return hasSameParameters(other)
+                && Arrays.equals(salt, other.salt)
+                && MessageDigest.isEqual(protectedPassword, other.protectedPassword);
+    }
+
+    /**
+     * Determines whether another PHC uses the same function with the same parameter values
+     * @param other the other PHC
+     * @return whether the function and parameters match
+     */
+    boolean hasSameParameters(PHC<?> other) {
+        return function.equals(other.function) && SLOTS.hasSameValues(params, other.params);
+    }
+
+    /**
+     * The length of the salt, without copying it
+     * @return the salt length, or -1 if there is no salt
+     */
+    int getSaltLength() {
+        return salt == null ? -1 : salt.length;
+    }
+
+    /**
+     * The length of the protected password, without copying it
+     * @return the protected password length, or -1 if there is none
+     */
+    int getHashLength() {
+        return protectedPassword == null ? -1 : protectedPassword.length;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * parametersHashCode() + Arrays.hashCode(salt);
+    }
+
+    /**
+     * Encodes this object in a compact binary form: a version byte, a function byte, the parameters as varints in
+     * priority order, and the length-prefixed salt and protected password. It holds exactly what the PHC string holds,
+     * so converting between the two forms is lossless, and it needs no Base64 or parameter names.
+     * @return the encoded object
+     */
+    public byte[] encode() {
+        var bytes = new byte[getEncodedLength()];
+        encode(ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+
+    /**
+     * Writes the compact binary form of {@link #encode()} at the buffer's position and advances the position past it
+     * @param buffer the buffer receiving the encoded object
+     * @throws java.nio.BufferOverflowException if the buffer has fewer than {@link #getEncodedLength()} bytes
+     * remaining; nothing is written
+     */
+    public void encode(ByteBuffer buffer) {
+        PHCBinaryCodec.encode(function, params, salt, protectedPassword, buffer);
+    }
+
+    /**
+     * The number of bytes in the compact binary form of this object
+     * @return the encoded length
+     */
+    public int getEncodedLength() {
+        return PHCBinaryCodec.encodedLength(function, params, salt, protectedPassword);
     }
 
     /**
-     * Produces the text representation of this PHC according to the PHC format specification
+     * Computes a hash code of the function and parameter values, consistent with {@link #hasSameParameters(PHC)}
+     * @return the hash code
+     */
+    int parametersHashCode() {
+        return 31 * function.hashCode() + SLOTS.valuesHashCode(params);
+    }
+
+    /**
+     * Produces the text representation of this PHC according to the PHC format specification. The text is built once
+     * and then returned for every later call.
      * @return the PHC-formatted text
      */
     @Override
     public String toString() {
-        var encoder = Base64.getEncoder().withoutPadding();
-        var b = new StringBuilder();
-        b.append('$').append(function.getId());
-
-        var first = true;
-        for (var entry : params.entrySet()) {
-            var key = entry.getKey();
-            var value = key.validate(entry.getValue());
-            if (key.getName() != null) {
-                if (first) {
-                    b.append('$');
-                    first = false;
-                } else {
-                    b.append(',');
-                }
-                if (value instanceof byte[]) {
-                    value = encoder.encodeToString((byte[])value);
-                }
-                b.append(key.getName()).append('=').append(value);
+        var result = text;
+        if (result == null) {
+            var metrics = PHCMetrics.getGlobal();
+            var start = GlobalMetrics.start(metrics);
+            var chars = new char[getFormattedLength()];
+            format(chars);
+            result = new String(chars);
+            text = result;
+            recordFormat(metrics, start);
+        }
+        return result;
+    }
+
+    /**
+     * Appends the text representation of this PHC, as produced by {@link #toString()}, without building a string
+     * @param out the destination of the text
+     * @throws IOException if the destination fails
+     */
+    public void writeTo(Appendable out) throws IOException {
+        var result = text;
+        if (result != null) {
+            out.append(result);
+            return;
+        }
+        var metrics = PHCMetrics.getGlobal();
+        var start = GlobalMetrics.start(metrics);
+        var chars = scratch(getFormattedLength());
+        var length = format(chars);
+        recordFormat(metrics, start);
+        if (out instanceof StringBuilder) {
+            ((StringBuilder) out).append(chars, 0, length);
+        } else if (out instanceof Writer) {
+            ((Writer) out).write(chars, 0, length);
+        } else {
+            for (int i = 0; i < length; i++) {
+                out.append(chars[i]);
+            }
+        }
+    }
+
+    /**
+     * Writes the text representation of this PHC, as produced by {@link #toString()}, as ASCII bytes at the buffer's
+     * position and advances the position past it
+     * @param buffer the buffer receiving the text
+     * @throws java.nio.BufferOverflowException if the buffer has fewer than {@link #getFormattedLength()} bytes
+     * remaining; nothing is written
+     */
+    public void writeTo(ByteBuffer buffer) {
+        var length = getFormattedLength();
+        if (buffer.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        var result = text;
+        if (result != null) {
+            for (int i = 0; i < length; i++) {
+                buffer.put((byte) result.charAt(i));
             }
+            return;
+        }
+        var metrics = PHCMetrics.getGlobal();
+        var start = GlobalMetrics.start(metrics);
+        var chars = scratch(length);
+        format(chars);
+        recordFormat(metrics, start);
+        for (int i = 0; i < length; i++) {
+            buffer.put((byte) chars[i]);
+        }
+    }
+
+    /**
+     * Reports the time spent formatting this PHC to the installed metrics
+     * @param metrics the installed metrics when formatting began
+     * @param start the time formatting began, from {@link GlobalMetrics#start(PHCMetrics)}
+     */
+    private void recordFormat(PHCMetrics metrics, long start) {
+        if (metrics != GlobalMetrics.NOOP) {
+            metrics.record(PHCMetrics.Phase.FORMAT, function, params, System.nanoTime() - start);
         }
+    }
+
+    /**
+     * The number of characters in the text representation of this PHC
+     * @return the formatted length
+     */
+    public int getFormattedLength() {
+        var result = text;
+        if (result != null) {
+            return result.length();
+        }
+        var length = parametersLength();
         if (salt != null) {
-            b.append('$').append(encoder.encodeToString(salt));
+            length += 1 + Base64Unpadded.encodedLength(salt.length);
             if (protectedPassword != null) {
-                b.append('$').append(encoder.encodeToString(protectedPassword));
+                length += 1 + Base64Unpadded.encodedLength(protectedPassword.length);
             }
         }
-        return b.toString();
+        return length;
+    }
+
+    /**
+     * Produces the text representation of the function and parameters only, without the salt and protected password
+     * @return the identifier and parameter segments of the PHC string
+     */
+    String parametersToString() {
+        var chars = new char[parametersLength()];
+        formatParameters(chars);
+        return new String(chars);
+    }
+
+    /**
+     * Produces the identifier and parameter segments of a PHC string for the given function and parameter values
+     * @param function the function
+     * @param params the parameter values of the function
+     * @return the text, as {@link #parametersToString()} produces it
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static String parametersToString(PHCFunction<?> function, Map<?, ?> params) {
+        return new PHC(function, params, null, null).parametersToString();
+    }
+
+    /**
+     * Formats the text representation of this PHC
+     * @param out the array receiving the text, at least {@link #getFormattedLength()} long
+     * @return the number of characters written
+     */
+    private int format(char[] out) {
+        var pos = formatParameters(out);
+        if (salt != null) {
+            out[pos++] = '$';
+            pos = Base64Unpadded.encode(salt, out, pos);
+            if (protectedPassword != null) {
+                out[pos++] = '$';
+                pos = Base64Unpadded.encode(protectedPassword, out, pos);
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Computes the length of the identifier and parameter segments. Values were validated when this object was made,
+     * so they are not validated again here.
+     * @return the number of characters
+     */
+    private int parametersLength() {
+        var length = 1 + function.getId().length();
+        for (int slot = 0; slot < SLOTS.getSlotCount(params); slot++) {
+            var name = SLOTS.getSlotParam(params, slot).getName();
+            if (SLOTS.isSlotSet(params, slot) && name != null) {
+                length += 2 + name.length() + valueLength(slot);
+            }
+        }
+        return length;
+    }
+
+    private int formatParameters(char[] out) {
+        out[0] = '$';
+        var pos = put(function.getId(), out, 1);
+        var separator = '$';
+        for (int slot = 0; slot < SLOTS.getSlotCount(params); slot++) {
+            var name = SLOTS.getSlotParam(params, slot).getName();
+            if (SLOTS.isSlotSet(params, slot) && name != null) {
+                out[pos++] = separator;
+                separator = ',';
+                pos = put(name, out, pos);
+                out[pos++] = '=';
+                pos = putValue(slot, out, pos);
+            }
+        }
+        return pos;
+    }
+
+    private int valueLength(int slot) {
+        if (SLOTS.isIntSlot(params, slot)) {
+            var v = (long) SLOTS.getSlotInt(params, slot);
+            return v < 0 ? 1 + digits(-v) : digits(v);
+        }
+        var value = SLOTS.getSlotValue(params, slot);
+        if (value instanceof byte[]) {
+            return Base64Unpadded.encodedLength(((byte[]) value).length);
+        }
+        return value.toString().length();
+    }
+
+    private int putValue(int slot, char[] out, int pos) {
+        if (SLOTS.isIntSlot(params, slot)) {
+            var v = (long) SLOTS.getSlotInt(params, slot);
+            if (v < 0) {
+                out[pos++] = '-';
+                v = -v;
+            }
+            var end = pos + digits(v);
+            for (int i = end - 1; i >= pos; i--) {
+                out[i] = (char) ('0' + v % 10);
+                v /= 10;
+            }
+            return end;
+        }
+        var value = SLOTS.getSlotValue(params, slot);
+        if (value instanceof byte[]) {
+            return Base64Unpadded.encode((byte[]) value, out, pos);
+        }
+        return put(value.toString(), out, pos);
+    }
+
+    private static int digits(long v) {
+        var digits = 1;
+        for (; v >= 10; v /= 10) {
+            digits++;
+        }
+        return digits;
+    }
+
+    private static int put(String s, char[] out, int pos) {
+        s.getChars(0, s.length(), out, pos);
+        return pos + s.length();
+    }
+
+    /**
+     * Provides the current thread's formatting array, grown to the given length when needed
+     * @param length the required length
+     * @return the array
+     */
+    private static char[] scratch(int length) {
+        var chars = SCRATCH.get();
+        if (chars.length < length) {
+            chars = new char[Math.max(length, 2 * chars.length)];
+            SCRATCH.set(chars);
+        }
+        return chars;
+    }
+
+    /**
+     * Copies an optional array
+     * @param array the array, may be {@code null}
+     * @return a copy of the array, or {@code null}
+     */
+    private static byte[] copyOf(byte[] array) {
+        return (array == null) ? null : Arrays.copyOf(array, array.length);
     }
 
     /**
@@ -310,19 +953,25 @@ public final class PHC<T extends PHCFunction<T>> {
         /**
          * The supplied parameters with values in priority order
          */
-        private NavigableMap<PHCFunction.Param<T, ?>, Object> params = new TreeMap<>();
+        private Map<PHCFunction.Param<T, ?>, Object> params;
 
         /**
          * The cryptographic salt
          */
         private byte[] salt;
 
+        /**
+         * The source of random salts
+         */
+        private SaltGenerator saltGenerator = SaltGenerator.getDefault();
+
         /**
          * Creates a new builder with the given function
          * @param function the PHC function
          */
         private Builder(T function) {
             this.function = function;
+            this.params = SLOTS.empty(function);
         }
 
         /**
@@ -332,9 +981,12 @@ public final class PHC<T extends PHCFunction<T>> {
          * @param value the value to set for the parameter
          * @param <V> the type of the value as described by the parameter
          * @return this builder object
+         * @throws IllegalArgumentException if the value is missing or invalid for the parameter
          */
         public <V> Builder<T> withParam(PHCFunction.Param<T, V> param, V value) {
-            this.params.put(param, value);
+            var values = new HashMap<PHCFunction.Param<T, ?>, Object>(params);
+            values.put(param, value);
+            this.params = SLOTS.valuesOf(function, values);
             return this;
         }
 
@@ -348,6 +1000,17 @@ public final class PHC<T extends PHCFunction<T>> {
             return this;
         }
 
+        /**
+         * Sets the source of the salts generated by {@link #withRandomSalt()} and {@link #withRandomSalt(int)}. The
+         * default is {@link SaltGenerator#getDefault()}.
+         * @param saltGenerator the salt generator
+         * @return this builder object
+         */
+        public Builder<T> withSaltGenerator(SaltGenerator saltGenerator) {
+            this.saltGenerator = Objects.requireNonNull(saltGenerator);
+            return this;
+        }
+
         /**
          * Randomly generates and saves a cryptographic salt with the default length as defined by the given function
          * @return this builder object
@@ -361,8 +1024,7 @@ public final class PHC<T extends PHCFunction<T>> {
          * @return this builder object
          */
         public Builder<T> withRandomSalt(int sizeInBytes) {
-            this.salt = new byte[sizeInBytes];
-            new SecureRandom().nextBytes(salt);
+            this.salt = saltGenerator.generate(sizeInBytes);
             return this;
         }
 
@@ -371,7 +1033,7 @@ public final class PHC<T extends PHCFunction<T>> {
          * @return a new PHC object
          */
         public PHC<T> build() {
-            return new PHC<>(function, params, salt, null);
+            return new PHC<>(function, params, copyOf(salt), null);
         }
 
         /**
@@ -396,10 +1058,89 @@ public final class PHC<T extends PHCFunction<T>> {
             }
 
             password = Arrays.copyOf(password, password.length);
-            var hash = function.protectPassword(params, salt, password, hashLength);
+            var hash = PHC.protect(function, params, salt, password, hashLength);
             Arrays.fill(password, '\0');
 
-            return new PHC<>(function, params, salt, hash);
+            return new PHC<>(function, params, copyOf(salt), hash);
+        }
+
+        /**
+         * Protects a batch of passwords in parallel on a shared pool with one worker per processor, using the default
+         * hash length of the function. Every password gets a new salt from the salt generator, as long as the salt of
+         * this builder or the default salt length of the function.
+         * @param passwords the cleartext passwords to protect
+         * @return the new PHC objects, in input order
+         */
+        public List<PHC<T>> protectAll(List<char[]> passwords) {
+            return protectAll(passwords, function.getDefaultHashLength(), Batch.defaultPool());
+        }
+
+        /**
+         * Protects a batch of passwords in parallel on the given pool, as {@link #protectAll(List)} does
+         * @param passwords the cleartext passwords to protect
+         * @param hashLength the length of the protected passwords
+         * @param pool the pool running the hashes
+         * @return the new PHC objects, in input order
+         */
+        public List<PHC<T>> protectAll(List<char[]> passwords, int hashLength, ForkJoinPool pool) {
+            var cleartexts = passwords.toArray(new char[0][]);
+            var snapshot = params;
+            var saltLength = salt == null ? function.getDefaultSaltLength() : salt.length;
+            var generator = saltGenerator;
+            var work = function.estimateWork(snapshot);
+            var memory = function.estimateMemory(snapshot);
+            @SuppressWarnings("unchecked")
+            var results = (PHC<T>[]) new PHC<?>[cleartexts.length];
+            Batch.run(cleartexts.length, i -> work, i -> memory, i -> {
+                var newSalt = generator.generate(saltLength);
+                var password = Arrays.copyOf(cleartexts[i], cleartexts[i].length);
+                try {
+                    results[i] = new PHC<>(function, snapshot, newSalt,
+                            PHC.protect(function, snapshot, newSalt, password, hashLength));
+                } finally {
+                    Arrays.fill(password, '\0');
+                }
+            }, pool);
+            return List.of(results);
+        }
+
+        /**
+         * Protects the given password on the {@linkplain HashingExecutors#getDefault() shared hashing executor}, with
+         * the default hash length of the function
+         * @param password the cleartext password to protect; it is copied, so the caller may clear it once this returns
+         * @return a future completed with the new PHC object
+         */
+        public CompletableFuture<PHC<T>> protectAsync(char[] password) {
+            return protectAsync(password, function.getDefaultHashLength(), HashingExecutors.getDefault());
+        }
+
+        /**
+         * Protects the given password on the given executor, with the default hash length of the function
+         * @param password the cleartext password to protect; it is copied, so the caller may clear it once this returns
+         * @param executor the executor running the protection function
+         * @return a future completed with the new PHC object
+         */
+        public CompletableFuture<PHC<T>> protectAsync(char[] password, Executor executor) {
+            return protectAsync(password, function.getDefaultHashLength(), executor);
+        }
+
+        /**
+         * Protects the given password on the given executor. The state of this builder is captured when this method is
+         * called, so later changes to the builder do not affect the result.
+         * @param password the cleartext password to protect; it is copied, so the caller may clear it once this returns
+         * @param hashLength the length of the protected password
+         * @param executor the executor running the protection function
+         * @return a future completed with the new PHC object, or exceptionally if the protection fails, the salt is
+         * missing, or the executor rejects the task
+         */
+        public CompletableFuture<PHC<T>> protectAsync(char[] password, int hashLength, Executor executor) {
+            if (salt == null) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Salt is required"));
+            }
+            var snapshot = new Builder<>(function);
+            snapshot.params = params;
+            snapshot.salt = salt;
+            return supplyAsync(password, p -> snapshot.protect(p, hashLength), executor);
         }
     }
 }
@@ -0,0 +1,351 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.omahaprogrammer.crypto;
+
+import com.omahaprogrammer.crypto.function.*;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * The compact binary form of a PHC object. The layout is
+ * <pre>
+ *     version function count (tag value)* salt hash
+ * </pre>
+ * where the version and function are single bytes, and the count, tags and lengths are unsigned LEB128 varints. A tag
+ * is the index of the parameter in {@link PHCFunction#getParams()}, and tags appear in increasing order, so every object
+ * has exactly one encoding. Integer values are zigzag varints, enum values are varint ordinals and byte arrays are a
+ * varint length followed by the bytes. The salt and hash are each a varint holding the length plus one, or zero when
+ * absent, followed by the bytes. The function bytes, the parameter order and the enum order are part of the format:
+ * new functions, parameters and enum constants must only ever be appended.
+ */
+final class PHCBinaryCodec {
+    /**
+     * The version written in the first byte
+     */
+    static final int VERSION = 1;
+
+    static final String UNSUPPORTED_VERSION = "Unsupported binary PHC version";
+    static final String UNKNOWN_FUNCTION = "Unknown function";
+    static final String TRUNCATED = "Truncated binary PHC";
+    static final String MALFORMED = "Malformed binary PHC";
+    static final String INVALID_PARAMETER = "Invalid parameter value";
+
+    /**
+     * The functions by their byte in the encoding, less one
+     */
+    private static final PHCFunction<?>[] FUNCTIONS = {
+            Argon2i.getInstance(),
+            Argon2d.getInstance(),
+            Argon2id.getInstance(),
+            PBKDF2.getInstance(),
+            BCrypt.getInstance(),
+            SCrypt.getInstance()
+    };
+
+    /**
+     * The parameters of each function in {@link #FUNCTIONS}, indexed by tag
+     */
+    private static final ParamCodec[][] PARAMS = new ParamCodec[FUNCTIONS.length][];
+
+    static {
+        for (int f = 0; f < FUNCTIONS.length; f++) {
+            var params = FUNCTIONS[f].getParams();
+            PARAMS[f] = new ParamCodec[params.size()];
+            for (int t = 0; t < params.size(); t++) {
+                PARAMS[f][t] = new ParamCodec(params.get(t));
+            }
+        }
+    }
+
+    private PHCBinaryCodec() {
+    }
+
+    /**
+     * Computes the length of the encoding
+     * @param function the function
+     * @param params the parameters
+     * @param salt the salt, or {@code null}
+     * @param hash the protected password, or {@code null}
+     * @return the number of bytes {@link #encode} writes
+     */
+    static int encodedLength(PHCFunction<?> function, Map<?, ?> params, byte[] salt, byte[] hash) {
+        var codecs = PARAMS[functionIndex(function)];
+        var length = 2 + varintLength(params.size());
+        for (int tag = 0; tag < codecs.length; tag++) {
+            if (PHC.SLOTS.isSlotSet(params, tag)) {
+                length += varintLength(tag) + (PHC.SLOTS.isIntSlot(params, tag)
+                        ? varintLength(zigzag(PHC.SLOTS.getSlotInt(params, tag)))
+                        : codecs[tag].valueLength(PHC.SLOTS.getSlotValue(params, tag)));
+            }
+        }
+        return length + arrayLength(salt) + arrayLength(hash);
+    }
+
+    /**
+     * Writes the encoding at the buffer's position and advances the position past it
+     * @param function the function
+     * @param params the parameters
+     * @param salt the salt, or {@code null}
+     * @param hash the protected password, or {@code null}
+     * @param out the buffer
+     * @throws BufferOverflowException if the buffer does not have room for the encoding; nothing is written
+     */
+    static void encode(PHCFunction<?> function, Map<?, ?> params, byte[] salt, byte[] hash, ByteBuffer out) {
+        if (out.remaining() < encodedLength(function, params, salt, hash)) {
+            throw new BufferOverflowException();
+        }
+        var f = functionIndex(function);
+        var codecs = PARAMS[f];
+        out.put((byte) VERSION);
+        out.put((byte) (f + 1));
+        putVarint(out, params.size());
+        for (int tag = 0; tag < codecs.length; tag++) {
+            if (PHC.SLOTS.isSlotSet(params, tag)) {
+                putVarint(out, tag);
+                if (PHC.SLOTS.isIntSlot(params, tag)) {
+                    putVarint(out, zigzag(PHC.SLOTS.getSlotInt(params, tag)));
+                } else {
+                    codecs[tag].put(out, PHC.SLOTS.getSlotValue(params, tag));
+                }
+            }
+        }
+        putArray(out, salt);
+        putArray(out, hash);
+    }
+
+    /**
+     * Reads an encoding starting at the buffer's position. On success the position is advanced past the encoding; on
+     * failure it is left unchanged.
+     * @param in the buffer
+     * @return the decoded object
+     * @throws IllegalArgumentException if the bytes are not a valid encoding
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static PHC<?> decode(ByteBuffer in) {
+        var reader = new Reader(in);
+        if (reader.readByte() != VERSION) {
+            throw new IllegalArgumentException(UNSUPPORTED_VERSION);
+        }
+        var f = reader.readByte() - 1;
+        if (f < 0 || f >= FUNCTIONS.length) {
+            throw new IllegalArgumentException(UNKNOWN_FUNCTION);
+        }
+        var codecs = PARAMS[f];
+        var count = reader.readVarint();
+        if (count > codecs.length) {
+            throw new IllegalArgumentException(MALFORMED);
+        }
+        var params = new PHCFunction.Param<?, ?>[count];
+        var values = new Object[count];
+        var previous = -1;
+        for (int i = 0; i < count; i++) {
+            var tag = reader.readVarint();
+            if (tag <= previous || tag >= codecs.length) {
+                throw new IllegalArgumentException(MALFORMED);
+            }
+            previous = tag;
+            var codec = codecs[tag];
+            params[i] = codec.param;
+            values[i] = codec.read(reader);
+        }
+        Map<PHCFunction.Param<?, ?>, Object> decoded;
+        try {
+            decoded = PHC.SLOTS.valuesOf((PHCFunction) FUNCTIONS[f], params, values, count);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(INVALID_PARAMETER, e);
+        }
+        var salt = reader.readArray();
+        var hash = reader.readArray();
+        if (salt == null && hash != null) {
+            throw new IllegalArgumentException(MALFORMED);
+        }
+        in.position(reader.pos);
+        return new PHC(FUNCTIONS[f], decoded, salt, hash);
+    }
+
+    private static int functionIndex(PHCFunction<?> function) {
+        for (int f = 0; f < FUNCTIONS.length; f++) {
+            if (FUNCTIONS[f] == function) {
+                return f;
+            }
+        }
+        throw new IllegalArgumentException(UNKNOWN_FUNCTION);
+    }
+
+    static int varintLength(int value) {
+        var length = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int arrayLength(byte[] array) {
+        return array == null ? 1 : varintLength(array.length + 1) + array.length;
+    }
+
+    private static void putArray(ByteBuffer out, byte[] array) {
+        if (array == null) {
+            out.put((byte) 0);
+        } else {
+            putVarint(out, array.length + 1);
+            out.put(array);
+        }
+    }
+
+    /**
+     * Reads fields with absolute gets, so the buffer is only touched once the whole encoding has been read
+     */
+    private static final class Reader {
+        private final ByteBuffer in;
+        private final int limit;
+        private int pos;
+
+        Reader(ByteBuffer in) {
+            this.in = in;
+            this.limit = in.limit();
+            this.pos = in.position();
+        }
+
+        int readByte() {
+            if (pos == limit) {
+                throw new IllegalArgumentException(TRUNCATED);
+            }
+            return in.get(pos++) & 0xff;
+        }
+
+        /**
+         * Reads a varint whose value fits in a non-negative {@code int}, as used for counts, tags and lengths
+         * @return the value
+         */
+        int readVarint() {
+            var value = readVarintBits();
+            if (value < 0) {
+                throw new IllegalArgumentException(MALFORMED);
+            }
+            return value;
+        }
+
+        /**
+         * Reads a varint of at most five bytes holding any 32 bits
+         * @return the bits
+         */
+        int readVarintBits() {
+            var value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                var b = readByte();
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    // reject bits beyond 32 and redundant trailing zero groups, so each value has one encoding
+                    if ((shift == 28 && b > 0x0f) || (shift > 0 && b == 0)) {
+                        throw new IllegalArgumentException(MALFORMED);
+                    }
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException(MALFORMED);
+        }
+
+        byte[] readBytes(int length) {
+            if (length > limit - pos) {
+                throw new IllegalArgumentException(TRUNCATED);
+            }
+            var bytes = new byte[length];
+            if (in.hasArray()) {
+                System.arraycopy(in.array(), in.arrayOffset() + pos, bytes, 0, length);
+            } else {
+                in.duplicate().position(pos).get(bytes);
+            }
+            pos += length;
+            return bytes;
+        }
+
+        byte[] readArray() {
+            var length = readVarint();
+            return length == 0 ? null : readBytes(length - 1);
+        }
+    }
+
+    /**
+     * Reads the values of one parameter according to its value class, and writes those not stored as integers
+     */
+    private static final class ParamCodec {
+        private final PHCFunction.Param<?, ?> param;
+
+        /**
+         * The constants of an enum parameter by ordinal, or {@code null} for other parameters
+         */
+        private final Object[] constants;
+
+        ParamCodec(PHCFunction.Param<?, ?> param) {
+            var valueClass = param.getValueClass();
+            if (!valueClass.equals(Integer.class) && !valueClass.equals(byte[].class) && !valueClass.isEnum()) {
+                throw new IllegalStateException("No binary encoding for " + valueClass.getName());
+            }
+            this.param = param;
+            this.constants = valueClass.getEnumConstants();
+        }
+
+        int valueLength(Object value) {
+            if (value instanceof byte[]) {
+                var bytes = (byte[]) value;
+                return varintLength(bytes.length) + bytes.length;
+            }
+            return varintLength(((Enum<?>) value).ordinal());
+        }
+
+        void put(ByteBuffer out, Object value) {
+            if (value instanceof byte[]) {
+                var bytes = (byte[]) value;
+                putVarint(out, bytes.length);
+                out.put(bytes);
+            } else {
+                putVarint(out, ((Enum<?>) value).ordinal());
+            }
+        }
+
+        Object read(Reader reader) {
+            if (constants != null) {
+                var ordinal = reader.readVarint();
+                if (ordinal >= constants.length) {
+                    throw new IllegalArgumentException(INVALID_PARAMETER);
+                }
+                return constants[ordinal];
+            }
+            if (param.getValueClass().equals(byte[].class)) {
+                return reader.readBytes(reader.readVarint());
+            }
+            var zigzag = reader.readVarintBits();
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto;
+
+import com.omahaprogrammer.crypto.function.PHCFunction;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded cache of parsed PHC objects keyed by their string form, for callers that parse the same stored strings over
+ * and over. {@link PHC} objects are immutable, so a cached instance can be shared freely. The cache is split into
+ * segments chosen by the hash of the string, each a least-recently-used map behind its own lock, so concurrent callers
+ * rarely contend. Strings that fail to parse are not cached.
+ */
+public final class PHCCache {
+    private final Segment[] segments;
+    private final int segmentMask;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private PHCCache(Builder builder) {
+        var count = Integer.highestOneBit(Math.min(builder.segments, builder.maxEntries));
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            // the first maxEntries % count segments take one more entry, so the total is exactly maxEntries
+            segments[i] = new Segment(builder.maxEntries / count + (i < builder.maxEntries % count ? 1 : 0));
+        }
+        this.segmentMask = count - 1;
+    }
+
+    /**
+     * Creates a new builder for a cache
+     * @return the builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Provides the parsed form of a PHC string, parsing it only if it is not cached
+     * @param phcString the PHC-formatted string
+     * @param <T> the type of the function
+     * @return the PHC object
+     * @throws IllegalArgumentException if the string is not a valid PHC string
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends PHCFunction<T>> PHC<T> parse(String phcString) {
+        var segment = segmentFor(phcString);
+        var phc = segment.get(phcString);
+        if (phc != null) {
+            hits.increment();
+            return (PHC<T>) phc;
+        }
+        misses.increment();
+        PHC<T> parsed = PHC.parse(phcString);
+        segment.put(phcString, parsed);
+        return parsed;
+    }
+
+    /**
+     * Removes the cached object for a string, as needed when the stored string is replaced
+     * @param phcString the PHC-formatted string
+     */
+    public void invalidate(String phcString) {
+        segmentFor(phcString).remove(phcString);
+    }
+
+    /**
+     * Removes every cached object
+     */
+    public void invalidateAll() {
+        for (var segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * The number of cached objects
+     * @return the number of entries
+     */
+    public int size() {
+        var size = 0;
+        for (var segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * The number of parses answered from the cache
+     * @return the hit count
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * The number of strings that had to be parsed
+     * @return the miss count
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * The number of objects dropped because their segment was full
+     * @return the eviction count
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    private Segment segmentFor(String key) {
+        var h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & segmentMask];
+    }
+
+    /**
+     * A least-recently-used map guarded by its own lock
+     */
+    private final class Segment {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LinkedHashMap<String, PHC<?>> map;
+
+        Segment(int maxEntries) {
+            this.map = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PHC<?>> eldest) {
+                    if (size() > maxEntries) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        PHC<?> get(String key) {
+            lock.lock();
+            try {
+                return map.get(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void put(String key, PHC<?> phc) {
+            lock.lock();
+            try {
+                map.put(key, phc);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void remove(String key) {
+            lock.lock();
+            try {
+                map.remove(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                map.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return map.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * This class configures a new {@link PHCCache}
+     */
+    public static final class Builder {
+        private int maxEntries = 10_000;
+        private int segments = 16;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the largest number of cached objects. The default is 10,000.
+         * @param maxEntries the largest number of entries
+         * @return this builder object
+         */
+        public Builder withMaxEntries(int maxEntries) {
+            if (maxEntries <= 0) {
+                throw new IllegalArgumentException("maxEntries must be positive");
+            }
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        /**
+         * Sets the number of independently locked segments, rounded down to a power of two. Each segment holds an equal
+         * share of the entries and evicts on its own. The default is 16.
+         * @param segments the number of segments
+         * @return this builder object
+         */
+        public Builder withSegments(int segments) {
+            if (segments <= 0) {
+                throw new IllegalArgumentException("segments must be positive");
+            }
+            this.segments = segments;
+            return this;
+        }
+
+        /**
+         * Creates the cache
+         * @return the new cache
+         */
+        public PHCCache build() {
+            return new PHCCache(this);
+        }
+    }
+}
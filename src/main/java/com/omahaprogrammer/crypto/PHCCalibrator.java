@@ -0,0 +1,383 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto;
+
+import com.omahaprogrammer.crypto.function.*;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Chooses parameters for a function by timing it on the current machine. Each function has one parameter that scales
+ * its work, and the others are fixed from the memory ceiling and the number of cores: the iteration count of PBKDF2,
+ * the cost of bcrypt, the block size {@code r} of scrypt with {@code N} at its largest accepted value, and the iteration
+ * count of Argon2 with the memory at the ceiling and one lane per core. When a single Argon2 pass at the ceiling is
+ * already too slow, the memory size is searched instead. The search grows the parameter until the median latency
+ * exceeds the target and then bisects, so the result is the most expensive setting found within the target. Every
+ * measurement is kept as the cost curve of the result.
+ */
+public final class PHCCalibrator {
+    private static final char[] PASSWORD = "calibration password".toCharArray();
+
+    /**
+     * The largest value {@link SCrypt#N} accepts
+     */
+    private static final int SCRYPT_N = 16;
+
+    private final long targetNanos;
+    private final long memoryLimit;
+    private final int parallelism;
+    private final int samples;
+
+    private PHCCalibrator(Builder builder) {
+        this.targetNanos = builder.targetNanos;
+        this.memoryLimit = builder.memoryLimit;
+        this.parallelism = builder.parallelism;
+        this.samples = builder.samples;
+    }
+
+    /**
+     * Creates a new builder for a calibrator
+     * @return the builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Chooses the iteration count of PBKDF2 with HMAC-SHA256
+     * @param function the function
+     * @return the chosen parameters and the cost curve
+     */
+    public Result<PBKDF2> calibrate(PBKDF2 function) {
+        return search(function, c -> params(PBKDF2.ALG, PBKDF2.Algorithm.HMAC_SHA256, PBKDF2.C, c),
+                1000, Integer.MAX_VALUE, c -> c * 2);
+    }
+
+    /**
+     * Chooses the cost of bcrypt
+     * @param function the function
+     * @return the chosen parameters and the cost curve
+     */
+    public Result<BCrypt> calibrate(BCrypt function) {
+        return search(function, c -> params(BCrypt.C, c), 4, 31, c -> c + 1);
+    }
+
+    /**
+     * Chooses the block size of scrypt, with the largest accepted cost factor and no parallelization
+     * @param function the function
+     * @return the chosen parameters and the cost curve
+     */
+    public Result<SCrypt> calibrate(SCrypt function) {
+        var maxR = (int) Math.min(Integer.MAX_VALUE / 1024, Math.max(1, memoryLimit / (128L * (SCRYPT_N + 3))));
+        return search(function, r -> params(SCrypt.N, SCRYPT_N, SCrypt.R, r, SCrypt.P, 1), 1, maxR, r -> r * 2);
+    }
+
+    /**
+     * Chooses the iteration count, or failing that the memory size, of Argon2id
+     * @param function the function
+     * @return the chosen parameters and the cost curve
+     */
+    public Result<Argon2id> calibrate(Argon2id function) {
+        return argon2(function, Argon2id.M, Argon2id.T, Argon2id.P);
+    }
+
+    /**
+     * Chooses the iteration count, or failing that the memory size, of Argon2i
+     * @param function the function
+     * @return the chosen parameters and the cost curve
+     */
+    public Result<Argon2i> calibrate(Argon2i function) {
+        return argon2(function, Argon2i.M, Argon2i.T, Argon2i.P);
+    }
+
+    /**
+     * Chooses the iteration count, or failing that the memory size, of Argon2d
+     * @param function the function
+     * @return the chosen parameters and the cost curve
+     */
+    public Result<Argon2d> calibrate(Argon2d function) {
+        return argon2(function, Argon2d.M, Argon2d.T, Argon2d.P);
+    }
+
+    private <T extends PHCFunction<T>> Result<T> argon2(T function, PHCFunction.Param<T, Integer> m,
+                                                       PHCFunction.Param<T, Integer> t,
+                                                       PHCFunction.Param<T, Integer> p) {
+        var maxMemory = (int) Math.min(Integer.MAX_VALUE / 128, memoryLimit / 1024);
+        var lanes = Math.max(1, Math.min(Math.min(parallelism, 255), maxMemory / 8));
+        var minMemory = 8 * lanes;
+        var byIterations = search(function, i -> params(m, Math.max(minMemory, maxMemory), t, i, p, lanes),
+                1, Integer.MAX_VALUE, i -> i * 2);
+        if (byIterations.latencyNanos <= targetNanos || maxMemory <= minMemory) {
+            return byIterations;
+        }
+        var byMemory = search(function, k -> params(m, k, t, 1, p, lanes), minMemory, maxMemory, k -> k * 2);
+        var curve = new ArrayList<>(byIterations.curve);
+        curve.addAll(byMemory.curve);
+        return new Result<>(function, byMemory.params, byMemory.latencyNanos, curve);
+    }
+
+    /**
+     * Finds the largest value of a parameter whose median latency is within the target
+     * @param function the function
+     * @param paramsFor the parameters for a value
+     * @param start the smallest value, used even if it exceeds the target
+     * @param max the largest value
+     * @param grow the next value to try while the latency is within the target
+     * @param <T> the type of the function
+     * @return the parameters of the chosen value and every measurement
+     */
+    private <T extends PHCFunction<T>> Result<T> search(T function,
+                                                       IntFunction<Map<PHCFunction.Param<T, ?>, Object>> paramsFor,
+                                                       int start, int max, IntUnaryOperator grow) {
+        var measured = new TreeMap<Integer, Sample<T>>();
+        IntFunction<Sample<T>> measure = value -> measured.computeIfAbsent(value,
+                v -> measure(function, paramsFor.apply(v)));
+
+        var lo = start;
+        var hi = -1;
+        if (measure.apply(start).latencyNanos <= targetNanos) {
+            while (lo < max) {
+                var next = (int) Math.min(max, Math.max(lo + 1L, grow.applyAsInt(lo)));
+                if (measure.apply(next).latencyNanos <= targetNanos) {
+                    lo = next;
+                } else {
+                    hi = next;
+                    break;
+                }
+            }
+            while (hi - lo > Math.max(1, lo / 32)) {
+                var mid = lo + (hi - lo) / 2;
+                if (measure.apply(mid).latencyNanos <= targetNanos) {
+                    lo = mid;
+                } else {
+                    hi = mid;
+                }
+            }
+        }
+        var chosen = measured.get(lo);
+        return new Result<>(function, chosen.params, chosen.latencyNanos, new ArrayList<>(measured.values()));
+    }
+
+    /**
+     * Measures the median latency of protecting a password, after one warm-up run
+     */
+    private <T extends PHCFunction<T>> Sample<T> measure(T function, Map<PHCFunction.Param<T, ?>, Object> params) {
+        var builder = builder(function, params).withRandomSalt();
+        builder.protect(PASSWORD);
+        var times = new long[samples];
+        for (int i = 0; i < samples; i++) {
+            var start = System.nanoTime();
+            builder.protect(PASSWORD);
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        return new Sample<>(params, times[samples / 2], function.estimateMemory(params));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends PHCFunction<T>> PHC.Builder<T> builder(T function,
+                                                                     Map<PHCFunction.Param<T, ?>, Object> params) {
+        var builder = PHC.builder(function);
+        for (var entry : params.entrySet()) {
+            builder.withParam((PHCFunction.Param<T, Object>) entry.getKey(), entry.getValue());
+        }
+        return builder;
+    }
+
+    private static <T extends PHCFunction<T>> Map<PHCFunction.Param<T, ?>, Object> params(Object... pairs) {
+        var params = new TreeMap<PHCFunction.Param<T, ?>, Object>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            @SuppressWarnings("unchecked")
+            var param = (PHCFunction.Param<T, ?>) pairs[i];
+            params.put(param, pairs[i + 1]);
+        }
+        return Collections.unmodifiableMap(params);
+    }
+
+    /**
+     * One measurement of the cost curve
+     * @param <T> the type of the function
+     */
+    public static final class Sample<T extends PHCFunction<T>> {
+        private final Map<PHCFunction.Param<T, ?>, Object> params;
+        private final long latencyNanos;
+        private final long memory;
+
+        private Sample(Map<PHCFunction.Param<T, ?>, Object> params, long latencyNanos, long memory) {
+            this.params = params;
+            this.latencyNanos = latencyNanos;
+            this.memory = memory;
+        }
+
+        /**
+         * The parameters measured
+         * @return the parameters
+         */
+        public Map<PHCFunction.Param<T, ?>, Object> getParams() {
+            return params;
+        }
+
+        /**
+         * The median time to protect a password with the parameters
+         * @return the latency
+         */
+        public Duration getLatency() {
+            return Duration.ofNanos(latencyNanos);
+        }
+
+        /**
+         * The estimated memory of one hash with the parameters
+         * @return the memory in bytes
+         */
+        public long getMemory() {
+            return memory;
+        }
+
+        @Override
+        public String toString() {
+            return params + ": " + getLatency().toNanos() / 1_000_000.0 + " ms, " + memory + " B";
+        }
+    }
+
+    /**
+     * The parameters chosen for a function and the measurements that led to them
+     * @param <T> the type of the function
+     */
+    public static final class Result<T extends PHCFunction<T>> {
+        private final T function;
+        private final Map<PHCFunction.Param<T, ?>, Object> params;
+        private final long latencyNanos;
+        private final List<Sample<T>> curve;
+
+        private Result(T function, Map<PHCFunction.Param<T, ?>, Object> params, long latencyNanos,
+                       List<Sample<T>> curve) {
+            this.function = function;
+            this.params = params;
+            this.latencyNanos = latencyNanos;
+            this.curve = Collections.unmodifiableList(curve);
+        }
+
+        /**
+         * The chosen parameters
+         * @return the parameters
+         */
+        public Map<PHCFunction.Param<T, ?>, Object> getParams() {
+            return params;
+        }
+
+        /**
+         * Creates a builder with the chosen parameters; a salt still has to be added
+         * @return a new builder
+         */
+        public PHC.Builder<T> getBuilder() {
+            return builder(function, params);
+        }
+
+        /**
+         * The median time measured for the chosen parameters
+         * @return the latency
+         */
+        public Duration getLatency() {
+            return Duration.ofNanos(latencyNanos);
+        }
+
+        /**
+         * Every measurement taken, ordered by the searched parameter; Argon2 lists its iteration search before its
+         * memory search
+         * @return the cost curve
+         */
+        public List<Sample<T>> getCurve() {
+            return curve;
+        }
+    }
+
+    /**
+     * This class configures a new {@link PHCCalibrator}
+     */
+    public static final class Builder {
+        private long targetNanos = Duration.ofMillis(250).toNanos();
+        private long memoryLimit = 64L << 20;
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        private int samples = 5;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the median latency the chosen parameters should not exceed. The default is 250 milliseconds.
+         * @param latency the target latency
+         * @return this builder object
+         */
+        public Builder withTargetLatency(Duration latency) {
+            if (latency.isNegative() || latency.isZero()) {
+                throw new IllegalArgumentException("latency must be positive");
+            }
+            this.targetNanos = latency.toNanos();
+            return this;
+        }
+
+        /**
+         * Sets the memory one hash may use. The default is 64 MiB.
+         * @param bytes the memory ceiling in bytes
+         * @return this builder object
+         */
+        public Builder withMemoryLimit(long bytes) {
+            if (bytes < 8192) {
+                throw new IllegalArgumentException("memory limit must be at least 8 KiB");
+            }
+            this.memoryLimit = bytes;
+            return this;
+        }
+
+        /**
+         * Sets the number of cores one hash may use, which is the number of Argon2 lanes. The default is the number of
+         * available processors.
+         * @param cores the number of cores
+         * @return this builder object
+         */
+        public Builder withParallelism(int cores) {
+            if (cores < 1) {
+                throw new IllegalArgumentException("cores must be positive");
+            }
+            this.parallelism = cores;
+            return this;
+        }
+
+        /**
+         * Sets the number of timed runs per measurement, whose median is the latency. The default is 5.
+         * @param samples the number of runs
+         * @return this builder object
+         */
+        public Builder withSamples(int samples) {
+            if (samples < 1) {
+                throw new IllegalArgumentException("samples must be positive");
+            }
+            this.samples = samples;
+            return this;
+        }
+
+        /**
+         * Creates the calibrator
+         * @return the new calibrator
+         */
+        public PHCCalibrator build() {
+            return new PHCCalibrator(this);
+        }
+    }
+}
@@ -0,0 +1,505 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.omahaprogrammer.crypto;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Audits a file of stored PHC strings, one per line, as found in a credential store export. The file is memory-mapped
+ * and split into chunks that are scanned in parallel; each chunk owns the lines that start inside it and reads past its
+ * end to finish its last line. Lines are parsed straight from the mapped bytes through a reusable character view, so
+ * no string is built per line. The scan counts the functions and parameter sets in use, and lists the lines that do
+ * not parse and, given a {@link PHCPolicy}, the hashes that should be rehashed. Lines end with {@code \n} or
+ * {@code \r\n}, and blank lines are counted but otherwise ignored.
+ */
+public final class PHCCorpusScanner {
+    /**
+     * The reason given for hashes that the policy wants rehashed
+     */
+    static final String NEEDS_REHASH = "Needs rehash";
+
+    private final PHCPolicy policy;
+    private final int chunkSize;
+    private final int maxFindings;
+    private final ForkJoinPool pool;
+
+    private PHCCorpusScanner(Builder builder) {
+        this.policy = builder.policy;
+        this.chunkSize = builder.chunkSize;
+        this.maxFindings = builder.maxFindings;
+        this.pool = builder.pool;
+    }
+
+    /**
+     * Creates a new builder for a scanner
+     * @return the builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Scans the file
+     * @param file the file of PHC strings
+     * @return the statistics of the file
+     * @throws IOException if the file cannot be read
+     */
+    public Report scan(Path file) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var size = channel.size();
+            var chunkCount = (int) ((size + chunkSize - 1) / chunkSize);
+            var tasks = new ArrayList<ForkJoinTask<Chunk>>(chunkCount);
+            for (int c = 0; c < chunkCount; c++) {
+                var start = (long) c * chunkSize;
+                var end = Math.min(size, start + chunkSize);
+                tasks.add(pool.submit(() -> scanChunk(channel, start, end, size)));
+            }
+            var report = new Report();
+            try {
+                for (var task : tasks) {
+                    report.merge(task.join(), maxFindings);
+                }
+            } catch (UncheckedIOException e) {
+                for (var task : tasks) {
+                    task.cancel(false);
+                }
+                throw e.getCause();
+            }
+            return report;
+        }
+    }
+
+    /**
+     * Scans the lines starting in the range {@code [start, end)} of the file
+     * @param channel the file
+     * @param start the offset of the chunk
+     * @param end the offset after the chunk
+     * @param size the size of the file
+     * @return the statistics of the chunk
+     */
+    private Chunk scanChunk(FileChannel channel, long start, long end, long size) {
+        // map one byte before the chunk to tell whether a line starts at its first byte, and enough after it to finish
+        // any line short enough to be valid; longer lines are rejected for their length alone
+        var base = start == 0 ? 0 : start - 1;
+        var mapEnd = Math.min(size, end + PHC.MAX_LENGTH + 2);
+        ByteBuffer buffer;
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, base, mapEnd - base);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        var limit = (int) (mapEnd - base);
+        var chunkEnd = (int) (end - base);
+        var pos = 0;
+        if (start != 0) {
+            var first = indexOf(buffer, 0, limit);
+            pos = first < 0 ? limit : first + 1;
+        }
+
+        var chunk = new Chunk();
+        var view = new AsciiView(buffer);
+        while (pos < chunkEnd) {
+            var eol = indexOf(buffer, pos, limit);
+            var next = eol < 0 ? limit : eol + 1;
+            var lineEnd = eol < 0 ? limit : eol;
+            if (lineEnd > pos && buffer.get(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            scanLine(chunk, view.reset(pos, lineEnd), base + pos);
+            chunk.lines++;
+            pos = next;
+        }
+        return chunk;
+    }
+
+    private void scanLine(Chunk chunk, AsciiView line, long offset) {
+        if (line.length() == 0) {
+            chunk.blank++;
+            return;
+        }
+        var parser = new PHCParser(line);
+        var phc = parser.parse();
+        if (phc == null) {
+            chunk.rejected++;
+            chunk.rejectReasons.merge(parser.getError(), 1L, Long::sum);
+            if (chunk.rejects.size() < maxFindings) {
+                chunk.rejects.add(new Finding(chunk.lines, offset, parser.getError()));
+            }
+            return;
+        }
+        chunk.valid++;
+        chunk.functions.merge(phc.getFunction().getId(), 1L, Long::sum);
+        chunk.parameterSets.merge(new ParameterSet(phc), 1L, Long::sum);
+        if (policy != null && policy.needsRehash(phc)) {
+            chunk.weak++;
+            if (chunk.weakHashes.size() < maxFindings) {
+                chunk.weakHashes.add(new Finding(chunk.lines, offset, NEEDS_REHASH));
+            }
+        }
+    }
+
+    private static int indexOf(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A character view of a range of mapped bytes, one character per byte. Bytes outside ASCII become characters the
+     * parser rejects, so no decoding is needed.
+     */
+    private static final class AsciiView implements CharSequence {
+        private final ByteBuffer buffer;
+        private int start;
+        private int end;
+
+        AsciiView(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        AsciiView reset(int start, int end) {
+            this.start = start;
+            this.end = end;
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buffer.get(start + index) & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            var chars = new char[to - from];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = charAt(from + i);
+            }
+            return new String(chars);
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, length()).toString();
+        }
+    }
+
+    /**
+     * Groups PHC objects by function and parameter values, ignoring the salt and hash
+     */
+    private static final class ParameterSet {
+        private final PHC<?> phc;
+        private final int hash;
+
+        ParameterSet(PHC<?> phc) {
+            this.phc = phc;
+            this.hash = phc.parametersHashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ParameterSet && phc.hasSameParameters(((ParameterSet) o).phc);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * The statistics of one chunk, with line numbers counted from the chunk's first line
+     */
+    private static final class Chunk {
+        long lines;
+        long blank;
+        long valid;
+        long rejected;
+        long weak;
+        final Map<String, Long> functions = new HashMap<>();
+        final Map<ParameterSet, Long> parameterSets = new HashMap<>();
+        final Map<String, Long> rejectReasons = new HashMap<>();
+        final List<Finding> rejects = new ArrayList<>();
+        final List<Finding> weakHashes = new ArrayList<>();
+    }
+
+    /**
+     * A line singled out by the scan
+     */
+    public static final class Finding {
+        private final long line;
+        private final long offset;
+        private final String reason;
+
+        private Finding(long line, long offset, String reason) {
+            this.line = line;
+            this.offset = offset;
+            this.reason = reason;
+        }
+
+        /**
+         * The line number, counted from 1
+         * @return the line number
+         */
+        public long getLine() {
+            return line;
+        }
+
+        /**
+         * The offset of the start of the line in the file
+         * @return the byte offset
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * Why the line was singled out
+         * @return the reason
+         */
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return line + ":" + offset + ": " + reason;
+        }
+    }
+
+    /**
+     * The statistics of a scanned file
+     */
+    public static final class Report {
+        private long lines;
+        private long blank;
+        private long valid;
+        private long rejected;
+        private long weak;
+        private final Map<String, Long> functions = new TreeMap<>();
+        private final Map<ParameterSet, Long> parameterSets = new HashMap<>();
+        private final Map<String, Long> rejectReasons = new TreeMap<>();
+        private final List<Finding> rejects = new ArrayList<>();
+        private final List<Finding> weakHashes = new ArrayList<>();
+
+        private Report() {
+        }
+
+        /**
+         * Adds the statistics of the next chunk, numbering its lines after those already merged
+         * @param chunk the chunk
+         * @param maxFindings the largest number of rejects and weak hashes to keep
+         */
+        private void merge(Chunk chunk, int maxFindings) {
+            chunk.functions.forEach((k, v) -> functions.merge(k, v, Long::sum));
+            chunk.parameterSets.forEach((k, v) -> parameterSets.merge(k, v, Long::sum));
+            chunk.rejectReasons.forEach((k, v) -> rejectReasons.merge(k, v, Long::sum));
+            addFindings(rejects, chunk.rejects, maxFindings);
+            addFindings(weakHashes, chunk.weakHashes, maxFindings);
+            lines += chunk.lines;
+            blank += chunk.blank;
+            valid += chunk.valid;
+            rejected += chunk.rejected;
+            weak += chunk.weak;
+        }
+
+        private void addFindings(List<Finding> target, List<Finding> source, int maxFindings) {
+            for (var finding : source) {
+                if (target.size() == maxFindings) {
+                    return;
+                }
+                target.add(new Finding(lines + finding.line + 1, finding.offset, finding.reason));
+            }
+        }
+
+        /**
+         * The number of lines in the file
+         * @return the line count
+         */
+        public long getLines() {
+            return lines;
+        }
+
+        /**
+         * The number of empty lines
+         * @return the blank line count
+         */
+        public long getBlank() {
+            return blank;
+        }
+
+        /**
+         * The number of lines holding a valid PHC string
+         * @return the valid line count
+         */
+        public long getValid() {
+            return valid;
+        }
+
+        /**
+         * The number of lines that could not be parsed
+         * @return the rejected line count
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        /**
+         * The number of valid hashes that the policy wants rehashed; always 0 without a policy
+         * @return the weak hash count
+         */
+        public long getWeak() {
+            return weak;
+        }
+
+        /**
+         * The number of valid hashes of each function
+         * @return the counts keyed by function identifier
+         */
+        public Map<String, Long> getFunctionHistogram() {
+            return Collections.unmodifiableMap(functions);
+        }
+
+        /**
+         * The number of valid hashes of each combination of function and parameter values
+         * @return the counts keyed by the PHC string without salt and hash, such as {@code $argon2id$m=19456,t=2,p=1}
+         */
+        public Map<String, Long> getParameterSetHistogram() {
+            var histogram = new TreeMap<String, Long>();
+            parameterSets.forEach((k, v) -> histogram.put(k.phc.parametersToString(), v));
+            return Collections.unmodifiableMap(histogram);
+        }
+
+        /**
+         * The number of rejected lines for each reason
+         * @return the counts keyed by reason
+         */
+        public Map<String, Long> getRejectReasons() {
+            return Collections.unmodifiableMap(rejectReasons);
+        }
+
+        /**
+         * The first rejected lines, in file order, up to the scanner's limit
+         * @return the rejected lines
+         */
+        public List<Finding> getRejects() {
+            return Collections.unmodifiableList(rejects);
+        }
+
+        /**
+         * The first hashes that the policy wants rehashed, in file order, up to the scanner's limit
+         * @return the weak hashes
+         */
+        public List<Finding> getWeakHashes() {
+            return Collections.unmodifiableList(weakHashes);
+        }
+    }
+
+    /**
+     * This class configures a new {@link PHCCorpusScanner}
+     */
+    public static final class Builder {
+        private PHCPolicy policy;
+        private int chunkSize = 8 << 20;
+        private int maxFindings = 1000;
+        private ForkJoinPool pool = Batch.defaultPool();
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the policy that decides which hashes are weak. Without a policy no hash is reported as weak.
+         * @param policy the policy
+         * @return this builder object
+         */
+        public Builder withPolicy(PHCPolicy policy) {
+            if (policy == null) {
+                throw new IllegalArgumentException("policy is null");
+            }
+            this.policy = policy;
+            return this;
+        }
+
+        /**
+         * Sets the number of bytes each parallel task scans. The default is 8 MiB.
+         * @param chunkSize the chunk size in bytes
+         * @return this builder object
+         */
+        public Builder withChunkSize(int chunkSize) {
+            if (chunkSize <= 0) {
+                throw new IllegalArgumentException("chunkSize must be positive");
+            }
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * Sets the largest number of rejected lines and of weak hashes listed in the report; all of them are still
+         * counted. The default is 1,000.
+         * @param maxFindings the largest number of listed lines of each kind
+         * @return this builder object
+         */
+        public Builder withMaxFindings(int maxFindings) {
+            if (maxFindings < 0) {
+                throw new IllegalArgumentException("maxFindings must not be negative");
+            }
+            this.maxFindings = maxFindings;
+            return this;
+        }
+
+        /**
+         * Sets the pool the chunks are scanned on. The default is the pool shared with batch hashing.
+         * @param pool the pool
+         * @return this builder object
+         */
+        public Builder withPool(ForkJoinPool pool) {
+            if (pool == null) {
+                throw new IllegalArgumentException("pool is null");
+            }
+            this.pool = pool;
+            return this;
+        }
+
+        /**
+         * Creates the scanner
+         * @return the new scanner
+         */
+        public PHCCorpusScanner build() {
+            return new PHCCorpusScanner(this);
+        }
+    }
+}
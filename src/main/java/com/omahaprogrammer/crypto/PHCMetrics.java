@@ -0,0 +1,111 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto;
+
+import com.omahaprogrammer.crypto.function.PHCFunction;
+
+import java.util.Map;
+
+/**
+ * Receives timings of the work done through {@link PHC}. Once {@linkplain #setGlobal(PHCMetrics) installed}, an
+ * implementation is told how long every parse, hash, comparison and formatting takes, tagged with the function and
+ * parameter values involved, and when hashes start and asynchronous tasks wait. Until then the {@linkplain #noop() no-op}
+ * implementation is installed and nothing is timed. Every method has an empty default; implementations must be safe for
+ * use by multiple threads and should return quickly, since they run on the hashing threads.
+ */
+public interface PHCMetrics {
+    /**
+     * The kinds of timed work
+     */
+    enum Phase {
+        /**
+         * {@link PHC#parse(String)} and {@link PHC#tryParse(CharSequence)}
+         */
+        PARSE,
+
+        /**
+         * The protection function, whether protecting a new password or validating one
+         */
+        HASH,
+
+        /**
+         * The constant-time comparison of a computed hash with the protected password in {@link PHC#validate(char[])}
+         */
+        COMPARE,
+
+        /**
+         * Formatting a PHC as text; returning the cached text of {@link PHC#toString()} is not timed
+         */
+        FORMAT
+    }
+
+    /**
+     * Records the time taken by one piece of work
+     * @param phase the kind of work
+     * @param function the function involved, or {@code null} for a string that failed to parse
+     * @param params the parameter values involved, or {@code null} for a string that failed to parse
+     * @param nanos the elapsed time in nanoseconds
+     */
+    default void record(Phase phase, PHCFunction<?> function, Map<? extends PHCFunction.Param<?, ?>, ?> params, long nanos) {
+    }
+
+    /**
+     * Signals that the protection function is starting. It is followed by exactly one {@link Phase#HASH} record for the
+     * same hash, even if the function fails, so the difference of the two counts is the number of hashes in flight.
+     * @param function the function
+     * @param params the parameter values
+     */
+    default void hashStarted(PHCFunction<?> function, Map<? extends PHCFunction.Param<?, ?>, ?> params) {
+    }
+
+    /**
+     * Signals that a task is waiting, either for an executor thread in the asynchronous methods or for memory from the
+     * {@linkplain MemoryAdmissionController admission controller}. It is followed by exactly one
+     * {@link #dequeued()}, so the difference of the two counts is the number of tasks waiting.
+     */
+    default void queued() {
+    }
+
+    /**
+     * Signals that a task counted by {@link #queued()} stopped waiting
+     */
+    default void dequeued() {
+    }
+
+    /**
+     * Provides the implementation that ignores everything. While it is installed, {@link PHC} skips reading the clock.
+     * @return the no-op implementation
+     */
+    static PHCMetrics noop() {
+        return GlobalMetrics.NOOP;
+    }
+
+    /**
+     * Installs the implementation receiving the timings of all work done through {@link PHC}
+     * @param metrics the implementation, or {@code null} to restore the no-op implementation
+     */
+    static void setGlobal(PHCMetrics metrics) {
+        GlobalMetrics.current = metrics == null ? GlobalMetrics.NOOP : metrics;
+    }
+
+    /**
+     * Retrieves the implementation receiving the timings of all work done through {@link PHC}
+     * @return the installed implementation, which is the no-op implementation unless another was installed
+     */
+    static PHCMetrics getGlobal() {
+        return GlobalMetrics.current;
+    }
+}
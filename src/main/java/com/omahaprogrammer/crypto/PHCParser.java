@@ -0,0 +1,374 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto;
+
+import com.omahaprogrammer.crypto.function.*;
+
+import java.util.Arrays;
+
+/**
+ * A single-pass scanner for PHC-formatted strings. It accepts the grammar
+ * <pre>
+ *     $id[$param=value(,param=value)*][$salt[$hash]]
+ * </pre>
+ * where the id and parameter names use {@code [a-z0-9-]} and the values, salt and hash use {@code [a-zA-Z0-9/+.-]}.
+ * Values may not be empty, and when a parameter is repeated the last value wins.
+ * Malformed input is reported through {@link #getError()} rather than by throwing. A parser instance parses one string.
+ */
+final class PHCParser {
+    static final String UNPARSEABLE = "Unparseable token";
+    static final String UNKNOWN_FUNCTION = "Unknown function";
+    static final String TOO_LONG = "PHC string exceeds " + PHC.MAX_LENGTH + " characters";
+    static final String INVALID_BASE64 = "Invalid Base64 encoding";
+    static final String INVALID_PARAMETER = "Invalid parameter value";
+
+    /**
+     * The supported functions, searched by identifier during parsing
+     */
+    private static final PHCFunction<?>[] FUNCTIONS = {
+            Argon2i.getInstance(),
+            Argon2d.getInstance(),
+            Argon2id.getInstance(),
+            PBKDF2.getInstance(),
+            BCrypt.getInstance(),
+            SCrypt.getInstance()
+    };
+
+    /**
+     * The text being parsed
+     */
+    private final CharSequence s;
+
+    /**
+     * The index after the last character to parse
+     */
+    private final int end;
+
+    /**
+     * The start and end of every parameter tuple's name and value, four entries per tuple
+     */
+    private int[] tuples = new int[16];
+    private int tupleCount;
+
+    /**
+     * The reason the last parse failed
+     */
+    private String error;
+
+    /**
+     * Creates a parser for the given text
+     * @param s the PHC-formatted text
+     */
+    PHCParser(CharSequence s) {
+        this.s = s;
+        this.end = s.length();
+    }
+
+    /**
+     * The reason parsing failed
+     * @return the error message, or {@code null} if parsing has not failed
+     */
+    String getError() {
+        return error;
+    }
+
+    /**
+     * Parses the text
+     * @return the parsed object, or {@code null} if the text is not a valid PHC string
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    PHC<?> parse() {
+        if (end > PHC.MAX_LENGTH) {
+            return fail(TOO_LONG);
+        }
+        if (end == 0 || s.charAt(0) != '$') {
+            return fail(UNPARSEABLE);
+        }
+        var idEnd = segmentEnd(1);
+        if (!scan(1, idEnd, true)) {
+            return fail(UNPARSEABLE);
+        }
+
+        var pos = idEnd;
+        var paramsStart = -1;
+        var paramsEnd = -1;
+        if (pos < end && indexOf('=', pos + 1, segmentEnd(pos + 1)) >= 0) {
+            paramsStart = pos + 1;
+            paramsEnd = segmentEnd(paramsStart);
+            if (!scanParams(paramsStart, paramsEnd)) {
+                return fail(UNPARSEABLE);
+            }
+            pos = paramsEnd;
+        }
+        var saltStart = -1;
+        var saltEnd = -1;
+        var hashStart = -1;
+        if (pos < end) {
+            saltStart = pos + 1;
+            saltEnd = segmentEnd(saltStart);
+            if (!scan(saltStart, saltEnd, false)) {
+                return fail(UNPARSEABLE);
+            }
+            pos = saltEnd;
+            if (pos < end) {
+                hashStart = pos + 1;
+                if (segmentEnd(hashStart) != end || !scan(hashStart, end, false)) {
+                    return fail(UNPARSEABLE);
+                }
+            }
+        }
+
+        var function = findFunction(1, idEnd);
+        if (function == null) {
+            return fail(UNKNOWN_FUNCTION);
+        }
+        byte[] salt = null;
+        byte[] hash = null;
+        if (saltStart >= 0) {
+            salt = Base64Unpadded.decode(s, saltStart, saltEnd);
+            if (salt == null) {
+                return fail(INVALID_BASE64);
+            }
+        }
+        if (hashStart >= 0) {
+            hash = Base64Unpadded.decode(s, hashStart, end);
+            if (hash == null) {
+                return fail(INVALID_BASE64);
+            }
+        }
+
+        var params = new PHCFunction.Param<?, ?>[tupleCount];
+        var values = new Object[tupleCount];
+        var count = 0;
+        for (int t = 0; t < tupleCount; t++) {
+            var nameStart = tuples[4 * t];
+            var nameEnd = tuples[4 * t + 1];
+            if (isOverridden(t, nameStart, nameEnd)) {
+                continue;
+            }
+            var param = function.getParam(s.subSequence(nameStart, nameEnd).toString());
+            if (param.isPresent()) {
+                var p = (PHCFunction.Param) param.get();
+                var value = convert(p, tuples[4 * t + 2], tuples[4 * t + 3]);
+                if (value == null) {
+                    return fail(INVALID_PARAMETER);
+                }
+                params[count] = p;
+                values[count++] = value;
+            }
+        }
+        try {
+            return new PHC(function, PHC.SLOTS.valuesOf((PHCFunction) function, params, values, count), salt, hash);
+        } catch (IllegalArgumentException e) {
+            return fail(INVALID_PARAMETER);
+        }
+    }
+
+    /**
+     * Records the failure
+     * @param message the reason for the failure
+     * @return {@code null}
+     */
+    private PHC<?> fail(String message) {
+        error = message;
+        return null;
+    }
+
+    /**
+     * Finds the end of the segment starting at the given index
+     * @param start the index of the first character in the segment
+     * @return the index of the next {@code $}, or the end of the text
+     */
+    private int segmentEnd(int start) {
+        var i = indexOf('$', start, end);
+        return i < 0 ? end : i;
+    }
+
+    private int indexOf(char c, int start, int stop) {
+        for (int i = start; i < stop; i++) {
+            if (s.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks that every character in the range is allowed
+     * @param start the first index
+     * @param stop the index after the last character
+     * @param name {@code true} to check against the identifier characters, {@code false} for the value characters
+     * @return whether the range is valid
+     */
+    private boolean scan(int start, int stop, boolean name) {
+        for (int i = start; i < stop; i++) {
+            if (!(name ? isNameChar(s.charAt(i)) : isValueChar(s.charAt(i)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks the parameter segment and records the position of every tuple
+     * @param start the index of the first character of the segment
+     * @param stop the index after the segment
+     * @return whether the segment is valid
+     */
+    private boolean scanParams(int start, int stop) {
+        var i = start;
+        while (true) {
+            var nameStart = i;
+            while (i < stop && isNameChar(s.charAt(i))) {
+                i++;
+            }
+            if (i == stop || s.charAt(i) != '=') {
+                return false;
+            }
+            var nameEnd = i++;
+            var valueStart = i;
+            while (i < stop && isValueChar(s.charAt(i))) {
+                i++;
+            }
+            if (i == valueStart) {
+                return false;
+            }
+            addTuple(nameStart, nameEnd, valueStart, i);
+            if (i == stop) {
+                return true;
+            }
+            if (s.charAt(i++) != ',') {
+                return false;
+            }
+        }
+    }
+
+    private void addTuple(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+        if (4 * tupleCount == tuples.length) {
+            tuples = Arrays.copyOf(tuples, 2 * tuples.length);
+        }
+        tuples[4 * tupleCount] = nameStart;
+        tuples[4 * tupleCount + 1] = nameEnd;
+        tuples[4 * tupleCount + 2] = valueStart;
+        tuples[4 * tupleCount + 3] = valueEnd;
+        tupleCount++;
+    }
+
+    /**
+     * Determines whether a later tuple sets the same parameter; the last value given for a parameter wins
+     * @param t the tuple index
+     * @param nameStart the start of the tuple's name
+     * @param nameEnd the end of the tuple's name
+     * @return whether a later tuple repeats the name
+     */
+    private boolean isOverridden(int t, int nameStart, int nameEnd) {
+        for (int u = t + 1; u < tupleCount; u++) {
+            if (regionEquals(nameStart, nameEnd, tuples[4 * u], tuples[4 * u + 1])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean regionEquals(int aStart, int aEnd, int bStart, int bEnd) {
+        if (aEnd - aStart != bEnd - bStart) {
+            return false;
+        }
+        for (int i = 0; i < aEnd - aStart; i++) {
+            if (s.charAt(aStart + i) != s.charAt(bStart + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the function with the given identifier
+     * @param start the start of the identifier
+     * @param stop the end of the identifier
+     * @return the function, or {@code null} if it is not supported
+     */
+    private PHCFunction<?> findFunction(int start, int stop) {
+        for (var function : FUNCTIONS) {
+            var id = function.getId();
+            if (id.length() == stop - start) {
+                var matches = true;
+                for (int i = 0; matches && i < id.length(); i++) {
+                    matches = id.charAt(i) == s.charAt(start + i);
+                }
+                if (matches) {
+                    return function;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Converts the text of a parameter value into the type the parameter expects. Integers and byte arrays are
+     * converted here; anything else is handed to the parameter as a string.
+     * @param param the parameter
+     * @param start the start of the value
+     * @param stop the end of the value
+     * @return the converted value, or {@code null} if the text cannot be converted
+     */
+    private Object convert(PHCFunction.Param<?, ?> param, int start, int stop) {
+        var valueClass = param.getValueClass();
+        if (valueClass.equals(Integer.class)) {
+            return parseInt(start, stop);
+        }
+        if (valueClass.equals(byte[].class)) {
+            return Base64Unpadded.decode(s, start, stop);
+        }
+        return s.subSequence(start, stop).toString();
+    }
+
+    /**
+     * Parses a signed decimal integer with the same rules as {@link Integer#valueOf(String)}
+     * @param start the start of the number
+     * @param stop the end of the number
+     * @return the integer, or {@code null} if the text is not a number in the range of {@code int}
+     */
+    private Integer parseInt(int start, int stop) {
+        var i = start;
+        var negative = false;
+        if (i < stop && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+            negative = s.charAt(i++) == '-';
+        }
+        if (i == stop) {
+            return null;
+        }
+        var limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+        var result = 0;
+        for (; i < stop; i++) {
+            var digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || result < (limit + digit) / 10) {
+                return null;
+            }
+            result = result * 10 - digit;
+        }
+        return negative ? result : -result;
+    }
+
+    private static boolean isNameChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-';
+    }
+
+    private static boolean isValueChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '/' || c == '+' || c == '.' || c == '-';
+    }
+}
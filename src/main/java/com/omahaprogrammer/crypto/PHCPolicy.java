@@ -0,0 +1,184 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto;
+
+import com.omahaprogrammer.crypto.function.PHCFunction;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Declares the function and parameters that stored passwords should be protected with, and moves them there as users
+ * log in. The targets are templates built with {@link PHC.Builder#build()}, chosen by the function of the stored PHC,
+ * with an optional default for every other function. A stored PHC needs rehashing when its function or parameters
+ * differ from its target, when its salt is shorter than a salt given in the target, or when its protected password is
+ * shorter than the target's, which is the function's default length when the target has none. Checking costs no
+ * hashing; rehashing happens only after the password has been validated, since that is the only time the cleartext is
+ * known to be right.
+ */
+public final class PHCPolicy {
+    private final Map<PHCFunction<?>, PHC<?>> targets;
+    private final PHC<?> defaultTarget;
+    private final SaltGenerator saltGenerator;
+
+    private PHCPolicy(Builder builder) {
+        this.targets = Map.copyOf(builder.targets);
+        this.defaultTarget = builder.defaultTarget;
+        this.saltGenerator = builder.saltGenerator;
+    }
+
+    /**
+     * Creates a new builder for a policy
+     * @return the builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Finds the target for a stored PHC
+     * @param phc the stored PHC
+     * @return the template the PHC should match, if the policy covers its function
+     */
+    public Optional<PHC<?>> getTarget(PHC<?> phc) {
+        return Optional.ofNullable(targets.getOrDefault(phc.getFunction(), defaultTarget));
+    }
+
+    /**
+     * Determines whether a stored PHC should be replaced, without running any protection function
+     * @param phc the stored PHC
+     * @return {@code true} if the PHC does not match its target
+     */
+    public boolean needsRehash(PHC<?> phc) {
+        var target = targets.getOrDefault(phc.getFunction(), defaultTarget);
+        return target != null && (!target.hasSameParameters(phc)
+                || phc.getSaltLength() < target.getSaltLength()
+                || phc.getHashLength() < target.hashLength());
+    }
+
+    /**
+     * Validates the password and, if it is correct and the PHC does not match its target, protects it again with the
+     * target's function and parameters and a new salt
+     * @param phc the stored PHC
+     * @param password the cleartext password
+     * @return whether the password is valid, and the replacement PHC if one was made
+     */
+    public Result validateAndRehash(PHC<?> phc, char[] password) {
+        if (!phc.validate(password)) {
+            return Result.INVALID;
+        }
+        if (!needsRehash(phc)) {
+            return Result.VALID;
+        }
+        var target = targets.getOrDefault(phc.getFunction(), defaultTarget);
+        return new Result(true, target.protectNewPassword(saltGenerator, password));
+    }
+
+    /**
+     * The outcome of {@link #validateAndRehash(PHC, char[])}
+     */
+    public static final class Result {
+        private static final Result INVALID = new Result(false, null);
+        private static final Result VALID = new Result(true, null);
+
+        private final boolean valid;
+        private final PHC<?> replacement;
+
+        private Result(boolean valid, PHC<?> replacement) {
+            this.valid = valid;
+            this.replacement = replacement;
+        }
+
+        /**
+         * Whether the password matched the stored PHC
+         * @return {@code true} if the password is valid
+         */
+        public boolean isValid() {
+            return valid;
+        }
+
+        /**
+         * The PHC that should replace the stored one
+         * @return the replacement, present only if the password is valid and the stored PHC missed its target
+         */
+        public Optional<PHC<?>> getReplacement() {
+            return Optional.ofNullable(replacement);
+        }
+    }
+
+    /**
+     * This class configures a new {@link PHCPolicy}
+     */
+    public static final class Builder {
+        private final Map<PHCFunction<?>, PHC<?>> targets = new HashMap<>();
+        private PHC<?> defaultTarget;
+        private SaltGenerator saltGenerator = SaltGenerator.getDefault();
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the target for passwords stored with the given function. The target may use a different function, which
+         * migrates those passwords to it.
+         * @param function the function of the stored passwords
+         * @param target the template for their replacements, typically from {@link PHC.Builder#build()}
+         * @return this builder object
+         */
+        public Builder withTarget(PHCFunction<?> function, PHC<?> target) {
+            targets.put(Objects.requireNonNull(function), Objects.requireNonNull(target));
+            return this;
+        }
+
+        /**
+         * Sets the target for passwords stored with its own function
+         * @param target the template, typically from {@link PHC.Builder#build()}
+         * @return this builder object
+         */
+        public Builder withTarget(PHC<?> target) {
+            return withTarget(target.getFunction(), target);
+        }
+
+        /**
+         * Sets the target for passwords stored with any function without a target of its own
+         * @param target the template, typically from {@link PHC.Builder#build()}
+         * @return this builder object
+         */
+        public Builder withDefaultTarget(PHC<?> target) {
+            this.defaultTarget = Objects.requireNonNull(target);
+            return this;
+        }
+
+        /**
+         * Sets the source of the salts of replacement PHCs. The default is {@link SaltGenerator#getDefault()}.
+         * @param saltGenerator the salt generator
+         * @return this builder object
+         */
+        public Builder withSaltGenerator(SaltGenerator saltGenerator) {
+            this.saltGenerator = Objects.requireNonNull(saltGenerator);
+            return this;
+        }
+
+        /**
+         * Creates the policy
+         * @return the new policy
+         */
+        public PHCPolicy build() {
+            return new PHCPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto;
+
+import java.security.SecureRandom;
+
+/**
+ * A source of cryptographic salts. Implementations must be safe for use by multiple threads.
+ */
+public interface SaltGenerator {
+    /**
+     * Fills the given array with random bytes
+     * @param salt the array to fill
+     */
+    void nextBytes(byte[] salt);
+
+    /**
+     * Generates a new salt
+     * @param sizeInBytes the length of the salt
+     * @return the new salt
+     */
+    default byte[] generate(int sizeInBytes) {
+        var salt = new byte[sizeInBytes];
+        nextBytes(salt);
+        return salt;
+    }
+
+    /**
+     * Provides the shared generator used when no other generator is supplied. It is a {@link DrbgSaltGenerator} with
+     * the default settings.
+     * @return the shared generator
+     */
+    static SaltGenerator getDefault() {
+        return DrbgSaltGenerator.DEFAULT;
+    }
+
+    /**
+     * Adapts a {@code SecureRandom} into a salt generator. Every thread will share the given instance.
+     * @param random the random number generator
+     * @return the salt generator
+     */
+    static SaltGenerator of(SecureRandom random) {
+        return random::nextBytes;
+    }
+}
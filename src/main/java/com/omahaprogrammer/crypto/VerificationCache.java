@@ -0,0 +1,299 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A bounded cache of recent validation results, so that a client retrying the same credential within a short time does
+ * not run the protection function again. Successful and failed results are both cached. Entries are keyed by an
+ * HMAC-SHA256 tag over the PHC string and the password under a random key generated for each cache, so the cache holds
+ * neither the cleartext nor anything an attacker could test guesses against without that key. Entries expire after a
+ * fixed time, and the least recently used entry is dropped when the cache is full.
+ */
+public final class VerificationCache {
+    private static final int TAG_LENGTH = 32;
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+
+    /**
+     * The HMAC instances of each thread, keyed with this cache's key
+     */
+    private final ThreadLocal<HMac> macs;
+
+    /**
+     * The cached results in access order, guarded by their own monitor
+     */
+    private final LinkedHashMap<Tag, Result> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private VerificationCache(Builder builder) {
+        this.maxEntries = builder.maxEntries;
+        this.ttlNanos = builder.ttlNanos;
+        this.clock = builder.clock;
+        var key = SaltGenerator.getDefault().generate(TAG_LENGTH);
+        this.macs = ThreadLocal.withInitial(() -> {
+            var mac = new HMac(new SHA256Digest());
+            mac.init(new KeyParameter(key));
+            return mac;
+        });
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Tag, Result> eldest) {
+                if (size() > VerificationCache.this.maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Creates a new builder for a cache
+     * @return the builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Validates the password against the PHC, answering from the cache when the same pair was validated recently
+     * @param phc the PHC to validate against
+     * @param password the cleartext password
+     * @return the result of {@link PHC#validate(char[])}
+     */
+    public boolean validate(PHC<?> phc, char[] password) {
+        var phcTag = phcTag(phc);
+        var key = credentialTag(phcTag, password);
+        var now = clock.getAsLong();
+        synchronized (entries) {
+            var entry = entries.get(key);
+            if (entry != null) {
+                if (now - entry.expiresAt < 0) {
+                    hits.increment();
+                    return entry.valid;
+                }
+                entries.remove(key);
+            }
+        }
+        misses.increment();
+        var valid = phc.validate(password);
+        synchronized (entries) {
+            purgeExpired(now);
+            entries.put(key, new Result(phcTag, valid, now + ttlNanos));
+        }
+        return valid;
+    }
+
+    /**
+     * Removes every cached result for the PHC, as needed when the PHC is replaced
+     * @param phc the PHC
+     */
+    public void invalidate(PHC<?> phc) {
+        var phcTag = phcTag(phc);
+        synchronized (entries) {
+            entries.values().removeIf(entry -> entry.phcTag.equals(phcTag));
+        }
+    }
+
+    /**
+     * Removes every cached result
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * The number of cached results, including expired ones not yet removed
+     * @return the number of entries
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * The number of validations answered from the cache
+     * @return the hit count
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * The number of validations that ran the protection function
+     * @return the miss count
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * The number of results dropped because the cache was full
+     * @return the eviction count
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Drops expired entries from the least recently used end, stopping at the first live one
+     * @param now the current time
+     */
+    private void purgeExpired(long now) {
+        var iterator = entries.values().iterator();
+        while (iterator.hasNext() && now - iterator.next().expiresAt >= 0) {
+            iterator.remove();
+        }
+    }
+
+    private Tag phcTag(PHC<?> phc) {
+        var mac = macs.get();
+        var text = phc.toString();
+        for (int i = 0; i < text.length(); i++) {
+            mac.update((byte) text.charAt(i));
+        }
+        return finish(mac);
+    }
+
+    private Tag credentialTag(Tag phcTag, char[] password) {
+        var mac = macs.get();
+        mac.update(phcTag.bytes, 0, TAG_LENGTH);
+        for (var c : password) {
+            mac.update((byte) (c >> 8));
+            mac.update((byte) c);
+        }
+        return finish(mac);
+    }
+
+    private static Tag finish(HMac mac) {
+        var tag = new byte[TAG_LENGTH];
+        mac.doFinal(tag, 0);
+        return new Tag(tag);
+    }
+
+    /**
+     * An HMAC tag, compared by content
+     */
+    private static final class Tag {
+        private final byte[] bytes;
+        private final int hash;
+
+        Tag(byte[] bytes) {
+            this.bytes = bytes;
+            this.hash = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Tag && Arrays.equals(bytes, ((Tag) o).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * A cached result and the PHC it belongs to
+     */
+    private static final class Result {
+        final Tag phcTag;
+        final boolean valid;
+        final long expiresAt;
+
+        Result(Tag phcTag, boolean valid, long expiresAt) {
+            this.phcTag = phcTag;
+            this.valid = valid;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * This class configures a new {@link VerificationCache}
+     */
+    public static final class Builder {
+        private int maxEntries = 10_000;
+        private long ttlNanos = Duration.ofSeconds(30).toNanos();
+        private LongSupplier clock = System::nanoTime;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the largest number of cached results. The default is 10,000.
+         * @param maxEntries the largest number of entries
+         * @return this builder object
+         */
+        public Builder withMaxEntries(int maxEntries) {
+            if (maxEntries <= 0) {
+                throw new IllegalArgumentException("maxEntries must be positive");
+            }
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        /**
+         * Sets how long a result stays cached. The default is thirty seconds.
+         * @param ttl the time to live
+         * @return this builder object
+         */
+        public Builder withTtl(Duration ttl) {
+            if (ttl.isNegative() || ttl.isZero()) {
+                throw new IllegalArgumentException("ttl must be positive");
+            }
+            this.ttlNanos = ttl.toNanos();
+            return this;
+        }
+
+        /**
+         * Sets the source of the current time in nanoseconds, for tests
+         * @param clock the clock
+         * @return this builder object
+         */
+        Builder withClock(LongSupplier clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * Creates the cache
+         * @return the new cache
+         */
+        public VerificationCache build() {
+            return new VerificationCache(this);
+        }
+    }
+}
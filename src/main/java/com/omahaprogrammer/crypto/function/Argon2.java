@@ -15,13 +15,13 @@
 
 package com.omahaprogrammer.crypto.function;
 
-import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
-import org.bouncycastle.crypto.params.Argon2Parameters;
+import org.bouncycastle.util.Strings;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
 
 abstract class Argon2<T extends Argon2<T>> extends PHCFunction<T> {
     private static final Map<String, Param<?, ?>> params = new HashMap<>();
@@ -40,6 +40,16 @@ abstract class Argon2<T extends Argon2<T>> extends PHCFunction<T> {
         return Optional.ofNullable((Param<T, V>)params.get(string));
     }
 
+    @Override
+    public List<Param<T, ?>> getParams() {
+        return List.of(
+                MemorySizeParam.<T>getInstance(),
+                IterationsParam.<T>getInstance(),
+                ParallelismParam.<T>getInstance(),
+                KeyIdParam.<T>getInstance(),
+                DataParam.<T>getInstance());
+    }
+
     @Override
     public int getDefaultSaltLength() {
         return DEFAULT_SALT_LENGTH;
@@ -52,25 +62,56 @@ abstract class Argon2<T extends Argon2<T>> extends PHCFunction<T> {
 
     @Override
     public byte[] protectPassword(Map<Param<T, ?>, ?> params, byte[] salt, char[] password, int length) {
-        if (!params.keySet().containsAll(Set.of(
-                MemorySizeParam.getInstance(),
-                IterationsParam.getInstance(),
-                ParallelismParam.getInstance()))) {
+        byte[] hash = new byte[length];
+        var pwdBytes = Strings.toUTF8ByteArray(password);
+        try {
+            protectPassword(params, salt, pwdBytes, 0, pwdBytes.length, hash, 0, length);
+        } finally {
+            Arrays.fill(pwdBytes, (byte) 0);
+        }
+        return hash;
+    }
+
+    @Override
+    public void protectPassword(Map<Param<T, ?>, ?> params, byte[] salt,
+                                byte[] password, int passwordOff, int passwordLength,
+                                byte[] out, int outOff, int length) {
+        if (!params.containsKey(MemorySizeParam.getInstance())
+                || !params.containsKey(IterationsParam.getInstance())
+                || !params.containsKey(ParallelismParam.getInstance())) {
             throw new IllegalArgumentException("Required parameters are missing");
         }
-        byte[] hash = new byte[length];
+        var engine = new Argon2Engine(type,
+                MemorySizeParam.getInstance().getInt(params, 0),
+                IterationsParam.getInstance().getInt(params, 0),
+                ParallelismParam.getInstance().getInt(params, 0),
+                Argon2Backend.blockFunction());
+        engine.generate(password, passwordOff, passwordLength, salt,
+                KeyIdParam.getInstance().getValue(params),
+                DataParam.getInstance().getValue(params),
+                out, outOff, length);
+    }
 
-        var gen = new Argon2BytesGenerator();
-        gen.init(new Argon2Parameters.Builder(type)
-                .withMemoryAsKB(MemorySizeParam.getInstance().getValue(params))
-                .withIterations(IterationsParam.getInstance().getValue(params))
-                .withParallelism(ParallelismParam.getInstance().getValue(params))
-                .withAdditional(DataParam.getInstance().getValue(params))
-                .withSecret(KeyIdParam.getInstance().getValue(params))
-                .withSalt(salt)
-                .build());
-        gen.generateBytes(password, hash);
-        return hash;
+    @Override
+    public long estimateMemory(Map<Param<T, ?>, ?> params) {
+        // every value is at least 1, so 0 marks a missing parameter
+        var memorySize = MemorySizeParam.getInstance().getInt(params, 0);
+        var lanes = ParallelismParam.getInstance().getInt(params, 0);
+        if (memorySize == 0 || lanes == 0) {
+            return 0;
+        }
+        return Argon2Engine.memoryBytes(memorySize, lanes);
+    }
+
+    @Override
+    public long estimateWork(Map<Param<T, ?>, ?> params) {
+        var memorySize = MemorySizeParam.getInstance().getInt(params, 0);
+        var iterations = IterationsParam.getInstance().getInt(params, 0);
+        var lanes = ParallelismParam.getInstance().getInt(params, 0);
+        if (memorySize == 0 || iterations == 0 || lanes == 0) {
+            return 0;
+        }
+        return Argon2Engine.memoryBlocks(memorySize, lanes) * 1024L * iterations;
     }
 
     /**
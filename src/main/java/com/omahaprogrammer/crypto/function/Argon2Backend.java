@@ -0,0 +1,93 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto.function;
+
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * The implementations of the Argon2 compression function used by {@link Argon2i}, {@link Argon2d} and
+ * {@link Argon2id}. Every backend produces the same hashes; they differ only in speed. The default is read from the
+ * {@code com.omahaprogrammer.crypto.argon2.backend} system property ({@code scalar} or {@code vector}) and is
+ * {@link #SCALAR} when the property is absent or not recognized.
+ */
+public enum Argon2Backend {
+    /**
+     * The portable implementation, available on every JVM
+     */
+    SCALAR,
+
+    /**
+     * An implementation on the incubating Vector API. It requires Java 17 or later with the
+     * {@code jdk.incubator.vector} module added, for example with {@code --add-modules jdk.incubator.vector}; where it
+     * is not available, the scalar implementation is used instead.
+     */
+    VECTOR;
+
+    /**
+     * The system property selecting the default backend
+     */
+    static final String BACKEND_PROPERTY = "com.omahaprogrammer.crypto.argon2.backend";
+
+    private static volatile Argon2Backend defaultBackend = fromProperty(System.getProperty(BACKEND_PROPERTY));
+
+    /**
+     * Determines whether this backend can run on the current JVM
+     * @return whether hashes computed with this backend use it rather than falling back to {@link #SCALAR}
+     */
+    public boolean isAvailable() {
+        return this == SCALAR || Argon2BlockFunction.vector() != null;
+    }
+
+    /**
+     * Provides the backend used for new Argon2 hashes
+     * @return the selected backend, which may not be available
+     */
+    public static Argon2Backend getDefault() {
+        return defaultBackend;
+    }
+
+    /**
+     * Selects the backend used for new Argon2 hashes
+     * @param backend the backend
+     */
+    public static void setDefault(Argon2Backend backend) {
+        defaultBackend = Objects.requireNonNull(backend);
+    }
+
+    /**
+     * Provides the compression function of the selected backend
+     * @return the compression function, falling back to the scalar one when the selected backend is unavailable
+     */
+    static Argon2BlockFunction blockFunction() {
+        if (defaultBackend == VECTOR) {
+            var vector = Argon2BlockFunction.vector();
+            if (vector != null) {
+                return vector;
+            }
+        }
+        return Argon2BlockFunction.SCALAR;
+    }
+
+    /**
+     * Interprets the value of the system property
+     * @param value the property value, or {@code null}
+     * @return the backend it names, or {@link #SCALAR}
+     */
+    static Argon2Backend fromProperty(String value) {
+        return value != null && value.trim().toLowerCase(Locale.ROOT).equals("vector") ? VECTOR : SCALAR;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto.function;
+
+import java.util.Arrays;
+
+/**
+ * The Argon2 compression function G over blocks of 128 {@code long}s. It computes {@code R = X ^ Y}, applies the
+ * BlaMka permutation to the rows and columns of {@code R} giving {@code Z}, and stores {@code R ^ Z} into the
+ * destination, optionally XORed with its old contents. Every output word depends only on the input words at the same
+ * index, so the destination may be one of the inputs.
+ * <p>
+ * {@link #SCALAR} is the portable implementation. On a JVM with the {@code jdk.incubator.vector} module, the
+ * multi-release jar also holds an implementation on the Vector API, which {@link #vector()} loads; it is checked
+ * against the scalar implementation before it is used.
+ */
+abstract class Argon2BlockFunction {
+    static final int QWORDS_IN_BLOCK = 128;
+
+    /**
+     * The class of the Vector API implementation, which is only compiled for Java 17 and later
+     */
+    private static final String VECTOR_CLASS = "com.omahaprogrammer.crypto.function.VectorArgon2BlockFunction";
+
+    /**
+     * The portable implementation
+     */
+    static final Argon2BlockFunction SCALAR = new Scalar();
+
+    /**
+     * Computes G
+     * @param x the array holding X
+     * @param xOff the offset of X
+     * @param y the array holding Y
+     * @param yOff the offset of Y
+     * @param dst the array receiving the result
+     * @param dstOff the offset of the result
+     * @param withXor whether to XOR the result into the destination rather than overwrite it
+     * @param scratch working space whose first block is overwritten
+     */
+    abstract void fill(long[] x, int xOff, long[] y, int yOff, long[] dst, int dstOff, boolean withXor, long[] scratch);
+
+    /**
+     * Provides the Vector API implementation
+     * @return the implementation, or {@code null} if the JVM cannot run it
+     */
+    static Argon2BlockFunction vector() {
+        return VectorHolder.INSTANCE;
+    }
+
+    /**
+     * Checks an implementation against the scalar one on a fixed block, in both the overwriting and XORing forms
+     * @param candidate the implementation
+     * @return whether it produced the same results
+     */
+    static boolean matchesScalar(Argon2BlockFunction candidate) {
+        var input = new long[2 * QWORDS_IN_BLOCK];
+        var seed = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < input.length; i++) {
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            input[i] = seed;
+        }
+        var expected = Arrays.copyOf(input, input.length);
+        var actual = Arrays.copyOf(input, input.length);
+        var scratch = new long[QWORDS_IN_BLOCK];
+        for (var withXor : new boolean[]{false, true}) {
+            SCALAR.fill(expected, 0, expected, QWORDS_IN_BLOCK, expected, QWORDS_IN_BLOCK, withXor, scratch);
+            candidate.fill(actual, 0, actual, QWORDS_IN_BLOCK, actual, QWORDS_IN_BLOCK, withXor, scratch);
+        }
+        return Arrays.equals(expected, actual);
+    }
+
+    /**
+     * Loads the Vector API implementation on first use
+     */
+    private static final class VectorHolder {
+        private static final Argon2BlockFunction INSTANCE = load();
+
+        private static Argon2BlockFunction load() {
+            try {
+                var candidate = (Argon2BlockFunction) Class.forName(VECTOR_CLASS).getDeclaredConstructor()
+                        .newInstance();
+                return matchesScalar(candidate) ? candidate : null;
+            } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+                // the class is missing on this release, or jdk.incubator.vector was not added to the module graph
+                return null;
+            }
+        }
+    }
+
+    /**
+     * The portable implementation. The permutation is written against the array with constant offsets rather than
+     * sixteen locals: once {@code roundFunction} and {@code mix} are inlined, C2 keeps the words in registers anyway,
+     * whereas a single method holding the whole permutation in locals is too large to inline and measured slower.
+     */
+    private static final class Scalar extends Argon2BlockFunction {
+        @Override
+        void fill(long[] x, int xOff, long[] y, int yOff, long[] dst, int dstOff, boolean withXor, long[] scratch) {
+            for (int i = 0; i < QWORDS_IN_BLOCK; i++) {
+                scratch[i] = x[xOff + i] ^ y[yOff + i];
+            }
+            for (int i = 0; i < 8; i++) {
+                roundFunction(scratch, 16 * i,
+                        0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15);
+            }
+            for (int i = 0; i < 8; i++) {
+                roundFunction(scratch, 2 * i,
+                        0, 1, 16, 17, 32, 33, 48, 49, 64, 65, 80, 81, 96, 97, 112, 113);
+            }
+            if (withXor) {
+                for (int i = 0; i < QWORDS_IN_BLOCK; i++) {
+                    dst[dstOff + i] ^= x[xOff + i] ^ y[yOff + i] ^ scratch[i];
+                }
+            } else {
+                for (int i = 0; i < QWORDS_IN_BLOCK; i++) {
+                    dst[dstOff + i] = x[xOff + i] ^ y[yOff + i] ^ scratch[i];
+                }
+            }
+        }
+
+        private static void roundFunction(long[] v, int base,
+                                          int v0, int v1, int v2, int v3, int v4, int v5, int v6, int v7,
+                                          int v8, int v9, int v10, int v11, int v12, int v13, int v14, int v15) {
+            mix(v, base + v0, base + v4, base + v8, base + v12);
+            mix(v, base + v1, base + v5, base + v9, base + v13);
+            mix(v, base + v2, base + v6, base + v10, base + v14);
+            mix(v, base + v3, base + v7, base + v11, base + v15);
+            mix(v, base + v0, base + v5, base + v10, base + v15);
+            mix(v, base + v1, base + v6, base + v11, base + v12);
+            mix(v, base + v2, base + v7, base + v8, base + v13);
+            mix(v, base + v3, base + v4, base + v9, base + v14);
+        }
+
+        private static void mix(long[] v, int a, int b, int c, int d) {
+            v[a] = blaMka(v[a], v[b]);
+            v[d] = Long.rotateRight(v[d] ^ v[a], 32);
+            v[c] = blaMka(v[c], v[d]);
+            v[b] = Long.rotateRight(v[b] ^ v[c], 24);
+            v[a] = blaMka(v[a], v[b]);
+            v[d] = Long.rotateRight(v[d] ^ v[a], 16);
+            v[c] = blaMka(v[c], v[d]);
+            v[b] = Long.rotateRight(v[b] ^ v[c], 63);
+        }
+
+        /**
+         * The BlaMka addition: {@code x + y + 2 * lo(x) * lo(y)}
+         */
+        private static long blaMka(long x, long y) {
+            return x + y + 2 * ((x & 0xFFFFFFFFL) * (y & 0xFFFFFFFFL));
+        }
+    }
+}
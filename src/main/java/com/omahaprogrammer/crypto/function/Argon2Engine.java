@@ -0,0 +1,432 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto.function;
+
+import org.bouncycastle.util.Pack;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * An Argon2 (version 1.3) engine that fills the lanes of each slice concurrently on the {@link KdfPool}. The lanes of a
+ * slice only reference blocks finished in earlier slices, so the slice boundary is the only synchronization point and
+ * the output is identical to the sequential algorithm. The memory is a single {@code long[]} holding every block, taken
+ * from and wiped back into the {@link LongArrayPool}.
+ */
+final class Argon2Engine {
+    private static final int BLOCK_SIZE = 1024;
+    private static final int QWORDS_IN_BLOCK = Argon2BlockFunction.QWORDS_IN_BLOCK;
+    private static final int PREHASH_DIGEST_LENGTH = 64;
+    private static final int PREHASH_SEED_LENGTH = 72;
+    private static final int SYNC_POINTS = 4;
+    private static final int VERSION = 0x13;
+    private static final int MIN_OUTLEN = 4;
+
+    /**
+     * The largest number of blocks a single {@code long[]} can hold
+     */
+    private static final int MAX_MEMORY_BLOCKS = (Integer.MAX_VALUE - 8) / QWORDS_IN_BLOCK;
+
+    /**
+     * The smallest segment worth handing to another thread; shorter segments finish faster than the pool can start them
+     */
+    private static final int MIN_PARALLEL_SEGMENT_LENGTH = 32;
+
+    /**
+     * The BLAKE2b digest of the current thread, for H0 and H'
+     */
+    private static final ThreadLocal<Blake2b> BLAKE = ThreadLocal.withInitial(Blake2b::new);
+
+    /**
+     * The Argon2 variant: 0 for Argon2d, 1 for Argon2i, 2 for Argon2id
+     */
+    private final int type;
+
+    /**
+     * The requested memory size in KiB, as hashed into H0
+     */
+    private final int memorySize;
+    private final int iterations;
+    private final int lanes;
+    private final int segmentLength;
+    private final int laneLength;
+    private final int memoryBlocks;
+
+    /**
+     * The implementation of the compression function
+     */
+    private final Argon2BlockFunction blockFunction;
+
+    /**
+     * The block matrix, lane after lane
+     */
+    private long[] memory;
+
+    /**
+     * Creates a new engine. The memory size is rounded the same way as the reference implementation.
+     * @param type the Argon2 variant
+     * @param memorySize the memory size in KiB
+     * @param iterations the number of passes over the memory
+     * @param lanes the degree of parallelism
+     */
+    Argon2Engine(int type, int memorySize, int iterations, int lanes) {
+        this(type, memorySize, iterations, lanes, Argon2BlockFunction.SCALAR);
+    }
+
+    /**
+     * Creates a new engine with the given implementation of the compression function
+     * @param type the Argon2 variant
+     * @param memorySize the memory size in KiB
+     * @param iterations the number of passes over the memory
+     * @param lanes the degree of parallelism
+     * @param blockFunction the compression function
+     */
+    Argon2Engine(int type, int memorySize, int iterations, int lanes, Argon2BlockFunction blockFunction) {
+        if (lanes < 1) {
+            throw new IllegalArgumentException("lanes must be at least 1, got " + lanes);
+        } else if (memorySize < 2 * lanes) {
+            throw new IllegalArgumentException("memory must be at least 2 * lanes = " + (2 * lanes) + " KiB, got "
+                    + memorySize);
+        } else if (iterations < 1) {
+            throw new IllegalArgumentException("iterations must be at least 1, got " + iterations);
+        }
+        this.type = type;
+        this.blockFunction = blockFunction;
+        this.memorySize = memorySize;
+        this.iterations = iterations;
+        this.lanes = lanes;
+
+        if (Math.max(memorySize, 2 * SYNC_POINTS * lanes) > MAX_MEMORY_BLOCKS) {
+            throw new IllegalArgumentException("memory must not exceed " + MAX_MEMORY_BLOCKS + " KiB");
+        }
+        this.memoryBlocks = memoryBlocks(memorySize, lanes);
+        this.laneLength = memoryBlocks / lanes;
+        this.segmentLength = laneLength / SYNC_POINTS;
+    }
+
+    /**
+     * Rounds the memory size the same way as the reference implementation: at least two blocks per segment, and a
+     * whole number of segments in every lane
+     * @param memorySize the memory size in KiB
+     * @param lanes the degree of parallelism, at least 1
+     * @return the number of blocks
+     */
+    static int memoryBlocks(int memorySize, int lanes) {
+        var blocks = Math.max(memorySize, 2 * SYNC_POINTS * lanes);
+        return blocks - blocks % (SYNC_POINTS * lanes);
+    }
+
+    /**
+     * Computes the memory an engine uses, including the per-lane scratch blocks and the rounding to a pool size class
+     * @param memorySize the memory size in KiB
+     * @param lanes the degree of parallelism, at least 1
+     * @return the number of bytes
+     */
+    static long memoryBytes(int memorySize, int lanes) {
+        var blocks = memoryBlocks(memorySize, lanes);
+        var scratch = (long) lanes * Scratch.SIZE * Long.BYTES;
+        if (blocks > MAX_MEMORY_BLOCKS) {
+            return (long) blocks * BLOCK_SIZE + scratch;
+        }
+        return (long) LongArrayPool.classSize(blocks * QWORDS_IN_BLOCK) * Long.BYTES + scratch;
+    }
+
+    /**
+     * Computes the Argon2 hash
+     * @param password the password bytes
+     * @param salt the salt
+     * @param secret the optional secret key, may be {@code null}
+     * @param additional the optional associated data, may be {@code null}
+     * @param out the array receiving the hash; its length is the output length
+     */
+    void generate(byte[] password, byte[] salt, byte[] secret, byte[] additional, byte[] out) {
+        generate(password, 0, password.length, salt, secret, additional, out, 0, out.length);
+    }
+
+    /**
+     * Computes the Argon2 hash of a range of bytes into a range of an array
+     * @param password the array holding the password bytes
+     * @param passwordOff the offset of the password
+     * @param passwordLength the length of the password
+     * @param salt the salt
+     * @param secret the optional secret key, may be {@code null}
+     * @param additional the optional associated data, may be {@code null}
+     * @param out the array receiving the hash
+     * @param outOff the offset of the hash in {@code out}
+     * @param outLength the output length
+     */
+    void generate(byte[] password, int passwordOff, int passwordLength, byte[] salt, byte[] secret,
+                  byte[] additional, byte[] out, int outOff, int outLength) {
+        if (outLength < MIN_OUTLEN) {
+            throw new IllegalArgumentException("output length must be at least " + MIN_OUTLEN + " bytes, got "
+                    + outLength);
+        }
+        memory = LongArrayPool.shared().acquire(memoryBlocks * QWORDS_IN_BLOCK);
+        try {
+            var h0 = initialHash(password, passwordOff, passwordLength, salt, secret, additional, outLength);
+            fillFirstBlocks(h0);
+            Arrays.fill(h0, (byte) 0);
+            fillMemoryBlocks();
+            digest(out, outOff, outLength);
+        } finally {
+            LongArrayPool.shared().release(memory, memoryBlocks * QWORDS_IN_BLOCK);
+            memory = null;
+        }
+    }
+
+    /**
+     * Runs every pass, synchronizing the lanes at each slice boundary
+     */
+    private void fillMemoryBlocks() {
+        var parallel = lanes > 1 && segmentLength >= MIN_PARALLEL_SEGMENT_LENGTH && KdfPool.isParallel();
+        var scratch = new long[lanes][];
+        for (int lane = 0; lane < lanes; lane++) {
+            scratch[lane] = new long[Scratch.SIZE];
+        }
+        var tasks = parallel ? new ForkJoinTask<?>[lanes] : null;
+        for (int pass = 0; pass < iterations; pass++) {
+            for (int slice = 0; slice < SYNC_POINTS; slice++) {
+                if (parallel) {
+                    for (int lane = 1; lane < lanes; lane++) {
+                        var p = pass;
+                        var s = slice;
+                        var l = lane;
+                        tasks[lane] = KdfPool.get().submit(() -> fillSegment(p, l, s, scratch[l]));
+                    }
+                    fillSegment(pass, 0, slice, scratch[0]);
+                    for (int lane = 1; lane < lanes; lane++) {
+                        tasks[lane].join();
+                    }
+                } else {
+                    for (int lane = 0; lane < lanes; lane++) {
+                        fillSegment(pass, lane, slice, scratch[lane]);
+                    }
+                }
+            }
+        }
+        for (var s : scratch) {
+            Arrays.fill(s, 0L);
+        }
+    }
+
+    /**
+     * Fills one segment of one lane
+     * @param pass the current pass
+     * @param lane the lane
+     * @param slice the slice within the pass
+     * @param scratch the lane's working space
+     */
+    private void fillSegment(int pass, int lane, int slice, long[] scratch) {
+        var dataIndependent = type == 1 || (type == 2 && pass == 0 && slice < SYNC_POINTS / 2);
+        var startingIndex = (pass == 0 && slice == 0) ? 2 : 0;
+        var currentOffset = lane * laneLength + slice * segmentLength + startingIndex;
+        var prevOffset = (currentOffset % laneLength == 0) ? currentOffset + laneLength - 1 : currentOffset - 1;
+
+        if (dataIndependent) {
+            Arrays.fill(scratch, Scratch.ZERO, Scratch.SIZE, 0L);
+            scratch[Scratch.INPUT] = pass;
+            scratch[Scratch.INPUT + 1] = lane;
+            scratch[Scratch.INPUT + 2] = slice;
+            scratch[Scratch.INPUT + 3] = memoryBlocks;
+            scratch[Scratch.INPUT + 4] = iterations;
+            scratch[Scratch.INPUT + 5] = type;
+            if (pass == 0 && slice == 0) {
+                nextAddresses(scratch);
+            }
+        }
+
+        for (int index = startingIndex; index < segmentLength; index++, currentOffset++, prevOffset++) {
+            if (currentOffset % laneLength == 1) {
+                prevOffset = currentOffset - 1;
+            }
+            long pseudoRandom;
+            if (dataIndependent) {
+                if (index % QWORDS_IN_BLOCK == 0) {
+                    nextAddresses(scratch);
+                }
+                pseudoRandom = scratch[Scratch.ADDRESS + index % QWORDS_IN_BLOCK];
+            } else {
+                pseudoRandom = memory[prevOffset * QWORDS_IN_BLOCK];
+            }
+            var refLane = (pass == 0 && slice == 0) ? lane : (int) ((pseudoRandom >>> 32) % lanes);
+            var refColumn = referenceColumn(pass, slice, index, pseudoRandom, refLane == lane);
+            blockFunction.fill(memory, prevOffset * QWORDS_IN_BLOCK,
+                    memory, (laneLength * refLane + refColumn) * QWORDS_IN_BLOCK,
+                    memory, currentOffset * QWORDS_IN_BLOCK,
+                    pass != 0, scratch);
+        }
+    }
+
+    /**
+     * Maps the pseudo-random value onto the reference area, which covers the finished blocks of the lane
+     * @param pass the current pass
+     * @param slice the slice within the pass
+     * @param index the index of the block within the segment
+     * @param pseudoRandom the pseudo-random value for the block
+     * @param sameLane whether the reference block is taken from the current lane
+     * @return the column of the reference block
+     */
+    private int referenceColumn(int pass, int slice, int index, long pseudoRandom, boolean sameLane) {
+        int referenceAreaSize;
+        int startPosition;
+        if (pass == 0) {
+            startPosition = 0;
+            if (sameLane) {
+                referenceAreaSize = slice * segmentLength + index - 1;
+            } else {
+                referenceAreaSize = slice * segmentLength + ((index == 0) ? -1 : 0);
+            }
+        } else {
+            startPosition = ((slice + 1) * segmentLength) % laneLength;
+            if (sameLane) {
+                referenceAreaSize = laneLength - segmentLength + index - 1;
+            } else {
+                referenceAreaSize = laneLength - segmentLength + ((index == 0) ? -1 : 0);
+            }
+        }
+        var relativePosition = pseudoRandom & 0xFFFFFFFFL;
+        relativePosition = (relativePosition * relativePosition) >>> 32;
+        relativePosition = referenceAreaSize - 1 - ((referenceAreaSize * relativePosition) >>> 32);
+        return (int) ((startPosition + relativePosition) % laneLength);
+    }
+
+    /**
+     * Produces the next block of addresses for data-independent addressing
+     * @param scratch the lane's working space holding the zero, input and address blocks
+     */
+    private void nextAddresses(long[] scratch) {
+        scratch[Scratch.INPUT + 6]++;
+        blockFunction.fill(scratch, Scratch.ZERO, scratch, Scratch.INPUT, scratch, Scratch.ADDRESS, false, scratch);
+        blockFunction.fill(scratch, Scratch.ZERO, scratch, Scratch.ADDRESS, scratch, Scratch.ADDRESS, false, scratch);
+    }
+
+    /**
+     * Computes H0 over the parameters and inputs
+     * @return the 64-byte pre-hash
+     */
+    private byte[] initialHash(byte[] password, int passwordOff, int passwordLength, byte[] salt, byte[] secret,
+                               byte[] additional, int outputLength) {
+        var blake = BLAKE.get();
+        blake.reset(PREHASH_DIGEST_LENGTH);
+        blake.updateInt(lanes);
+        blake.updateInt(outputLength);
+        blake.updateInt(memorySize);
+        blake.updateInt(iterations);
+        blake.updateInt(VERSION);
+        blake.updateInt(type);
+        blake.updateInt(passwordLength);
+        blake.update(password, passwordOff, passwordLength);
+        addByteString(blake, salt);
+        addByteString(blake, secret);
+        addByteString(blake, additional);
+        var h0 = new byte[PREHASH_SEED_LENGTH];
+        blake.doFinal(h0, 0);
+        return h0;
+    }
+
+    /**
+     * Derives the first two blocks of every lane from H0
+     * @param h0 the pre-hash, with room for the block and lane indexes
+     */
+    private void fillFirstBlocks(byte[] h0) {
+        var block = new byte[BLOCK_SIZE];
+        for (int lane = 0; lane < lanes; lane++) {
+            Pack.intToLittleEndian(lane, h0, PREHASH_DIGEST_LENGTH + 4);
+            for (int i = 0; i < 2; i++) {
+                Pack.intToLittleEndian(i, h0, PREHASH_DIGEST_LENGTH);
+                hash(h0, block, 0, BLOCK_SIZE);
+                Pack.littleEndianToLong(block, 0, memory, (lane * laneLength + i) * QWORDS_IN_BLOCK, QWORDS_IN_BLOCK);
+            }
+        }
+        Arrays.fill(block, (byte) 0);
+    }
+
+    /**
+     * XORs the last block of every lane and hashes the result into the output
+     * @param out the array receiving the hash
+     */
+    private void digest(byte[] out, int outOff, int outLength) {
+        var finalBlock = Arrays.copyOfRange(memory, (laneLength - 1) * QWORDS_IN_BLOCK, laneLength * QWORDS_IN_BLOCK);
+        for (int lane = 1; lane < lanes; lane++) {
+            var last = (lane * laneLength + laneLength - 1) * QWORDS_IN_BLOCK;
+            for (int i = 0; i < QWORDS_IN_BLOCK; i++) {
+                finalBlock[i] ^= memory[last + i];
+            }
+        }
+        var finalBytes = new byte[BLOCK_SIZE];
+        Pack.longToLittleEndian(finalBlock, finalBytes, 0);
+        hash(finalBytes, out, outOff, outLength);
+        Arrays.fill(finalBlock, 0L);
+        Arrays.fill(finalBytes, (byte) 0);
+    }
+
+    /**
+     * The variable-length hash function H'
+     * @param input the input
+     * @param out the array receiving the hash
+     * @param outOff the offset of the hash in {@code out}
+     * @param outputLength the output length
+     */
+    private static void hash(byte[] input, byte[] out, int outOff, int outputLength) {
+        var blake = BLAKE.get();
+        if (outputLength <= Blake2b.MAX_DIGEST_LENGTH) {
+            blake.reset(outputLength);
+            blake.updateInt(outputLength);
+            blake.update(input, 0, input.length);
+            blake.doFinal(out, outOff);
+        } else {
+            var buffer = new byte[Blake2b.MAX_DIGEST_LENGTH];
+            blake.reset(Blake2b.MAX_DIGEST_LENGTH);
+            blake.updateInt(outputLength);
+            blake.update(input, 0, input.length);
+            blake.doFinal(buffer, 0);
+            System.arraycopy(buffer, 0, out, outOff, 32);
+            var r = ((outputLength + 31) / 32) - 2;
+            var position = outOff + 32;
+            for (int i = 2; i <= r; i++, position += 32) {
+                blake.reset(Blake2b.MAX_DIGEST_LENGTH);
+                blake.update(buffer, 0, buffer.length);
+                blake.doFinal(buffer, 0);
+                System.arraycopy(buffer, 0, out, position, 32);
+            }
+            blake.reset(outputLength - 32 * r);
+            blake.update(buffer, 0, buffer.length);
+            blake.doFinal(out, position);
+            Arrays.fill(buffer, (byte) 0);
+        }
+    }
+
+    private static void addByteString(Blake2b digest, byte[] octets) {
+        if (octets == null) {
+            digest.updateInt(0);
+        } else {
+            digest.updateInt(octets.length);
+            digest.update(octets, 0, octets.length);
+        }
+    }
+
+    /**
+     * The layout of a lane's working space: the block the compression function works in, followed by the zero, input
+     * and address blocks used for data-independent addressing
+     */
+    private static final class Scratch {
+        static final int Z = 0;
+        static final int ZERO = Z + QWORDS_IN_BLOCK;
+        static final int INPUT = ZERO + QWORDS_IN_BLOCK;
+        static final int ADDRESS = INPUT + QWORDS_IN_BLOCK;
+        static final int SIZE = ADDRESS + QWORDS_IN_BLOCK;
+    }
+}
@@ -15,7 +15,7 @@
 
 package com.omahaprogrammer.crypto.function;
 
-import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
@@ -44,8 +44,34 @@ public class BCrypt  extends PHCFunction<BCrypt> {
         return Optional.empty();
     }
 
+    @Override
+    public List<Param<BCrypt, ?>> getParams() {
+        return List.of(C);
+    }
+
     @Override
     public byte[] protectPassword(Map<Param<BCrypt, ?>, ?> params, byte[] salt, char[] password, int length) {
+        checkArguments(params, salt, length);
+        var hash = new byte[length];
+        BCryptEngine.generate(password, salt, C.getInt(params, 0), hash, 0);
+        return hash;
+    }
+
+    @Override
+    public void protectPassword(Map<Param<BCrypt, ?>, ?> params, byte[] salt,
+                                byte[] password, int passwordOff, int passwordLength,
+                                byte[] out, int outOff, int length) {
+        checkArguments(params, salt, length);
+        BCryptEngine.generate(password, passwordOff, passwordLength, salt, C.getInt(params, 0), out, outOff);
+    }
+
+    /**
+     * Checks the arguments shared by both forms of the password
+     * @param params the parameters of the function
+     * @param salt the cryptographic salt
+     * @param length the output length
+     */
+    private void checkArguments(Map<Param<BCrypt, ?>, ?> params, byte[] salt, int length) {
         if (!params.containsKey(C)) {
             throw new IllegalArgumentException("Required parameters missing");
         }
@@ -55,12 +81,23 @@ public class BCrypt  extends PHCFunction<BCrypt> {
         if (length != getDefaultHashLength()) {
             throw new IllegalArgumentException("length must be " + getDefaultHashLength() + " bytes long");
         }
-        var pwdbytes = org.bouncycastle.crypto.generators.BCrypt.passwordToByteArray(password);
-        try {
-            return org.bouncycastle.crypto.generators.BCrypt.generate(pwdbytes, salt, C.getValue(params));
-        } finally {
-            Arrays.fill(pwdbytes, (byte) 0);
+    }
+
+    @Override
+    public long estimateMemory(Map<Param<BCrypt, ?>, ?> params) {
+        // four 256-entry S-boxes and an 18-entry P-array of 32-bit words, whatever the cost
+        return (4 * 256 + 18) * Integer.BYTES;
+    }
+
+    @Override
+    public long estimateWork(Map<Param<BCrypt, ?>, ?> params) {
+        // the cost is at least 4, so 0 marks a missing parameter
+        var cost = C.getInt(params, 0);
+        if (cost == 0) {
+            return 0;
         }
+        // each of the 2^cost rounds expands the key twice, encrypting the whole state each time
+        return (1L << cost) * 2 * estimateMemory(params);
     }
 
     @Override
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto.function;
+
+import java.util.Arrays;
+
+/**
+ * A BLAKE2b digest (RFC 7693) without a key, whose output length is chosen on every {@link #reset(int)} so that one
+ * instance can serve all of Argon2's H0 and H' computations. The compression function keeps its working vector in
+ * locals, and nothing is allocated after construction. The state is wiped when a digest is finished.
+ */
+final class Blake2b {
+    static final int MAX_DIGEST_LENGTH = 64;
+    private static final int BLOCK_BYTES = 128;
+    private static final int ROUNDS = 12;
+
+    private static final long[] IV = {
+            0x6a09e667f3bcc908L, 0xbb67ae8584caa73bL, 0x3c6ef372fe94f82bL, 0xa54ff53a5f1d36f1L,
+            0x510e527fade682d1L, 0x9b05688c2b3e6c1fL, 0x1f83d9abfb41bd6bL, 0x5be0cd19137e2179L
+    };
+
+    /**
+     * The message word schedule of every round; the last two rounds repeat the first two
+     */
+    private static final byte[][] SIGMA = {
+            {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15},
+            {14, 10, 4, 8, 9, 15, 13, 6, 1, 12, 0, 2, 11, 7, 5, 3},
+            {11, 8, 12, 0, 5, 2, 15, 13, 10, 14, 3, 6, 7, 1, 9, 4},
+            {7, 9, 3, 1, 13, 12, 11, 14, 2, 6, 5, 10, 4, 0, 15, 8},
+            {9, 0, 5, 7, 2, 4, 10, 15, 14, 1, 11, 12, 6, 8, 3, 13},
+            {2, 12, 6, 10, 0, 11, 8, 3, 4, 13, 7, 5, 15, 14, 1, 9},
+            {12, 5, 1, 15, 14, 13, 4, 10, 0, 7, 6, 3, 9, 2, 8, 11},
+            {13, 11, 7, 14, 12, 1, 3, 9, 5, 0, 15, 4, 8, 6, 2, 10},
+            {6, 15, 14, 9, 11, 3, 0, 8, 12, 2, 13, 7, 1, 4, 10, 5},
+            {10, 2, 8, 4, 7, 6, 1, 5, 15, 11, 9, 14, 3, 12, 13, 0},
+            {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15},
+            {14, 10, 4, 8, 9, 15, 13, 6, 1, 12, 0, 2, 11, 7, 5, 3}
+    };
+
+    private final long[] h = new long[8];
+    private final long[] m = new long[16];
+    private final byte[] buffer = new byte[BLOCK_BYTES];
+    private int bufferLength;
+
+    /**
+     * The number of bytes compressed so far; the high word of the RFC's 128-bit counter is always zero here
+     */
+    private long counter;
+    private int digestLength;
+
+    /**
+     * Creates a digest producing 64 bytes
+     */
+    Blake2b() {
+        reset(MAX_DIGEST_LENGTH);
+    }
+
+    /**
+     * Starts a new digest
+     * @param digestLength the output length in bytes, from 1 to 64
+     */
+    void reset(int digestLength) {
+        if (digestLength < 1 || digestLength > MAX_DIGEST_LENGTH) {
+            throw new IllegalArgumentException("digest length must be between 1 and " + MAX_DIGEST_LENGTH);
+        }
+        this.digestLength = digestLength;
+        System.arraycopy(IV, 0, h, 0, 8);
+        h[0] ^= 0x01010000L ^ digestLength;
+        bufferLength = 0;
+        counter = 0;
+    }
+
+    /**
+     * The output length of the current digest
+     * @return the number of bytes {@link #doFinal(byte[], int)} writes
+     */
+    int getDigestLength() {
+        return digestLength;
+    }
+
+    void update(byte b) {
+        if (bufferLength == BLOCK_BYTES) {
+            counter += BLOCK_BYTES;
+            compress(false);
+            bufferLength = 0;
+        }
+        buffer[bufferLength++] = b;
+    }
+
+    /**
+     * Adds a 32-bit integer in little-endian order, as Argon2 encodes its lengths and parameters
+     * @param n the integer
+     */
+    void updateInt(int n) {
+        update((byte) n);
+        update((byte) (n >>> 8));
+        update((byte) (n >>> 16));
+        update((byte) (n >>> 24));
+    }
+
+    void update(byte[] in, int off, int len) {
+        while (len > 0) {
+            if (bufferLength == BLOCK_BYTES) {
+                // the last block is only compressed by doFinal, which marks it as final
+                counter += BLOCK_BYTES;
+                compress(false);
+                bufferLength = 0;
+            }
+            var n = Math.min(len, BLOCK_BYTES - bufferLength);
+            System.arraycopy(in, off, buffer, bufferLength, n);
+            bufferLength += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Finishes the digest, writes it and wipes the state. The digest must be {@linkplain #reset(int) reset} before
+     * it is used again.
+     * @param out the array receiving {@link #getDigestLength()} bytes
+     * @param off the offset of the digest in {@code out}
+     */
+    void doFinal(byte[] out, int off) {
+        counter += bufferLength;
+        Arrays.fill(buffer, bufferLength, BLOCK_BYTES, (byte) 0);
+        compress(true);
+        for (int i = 0; i < digestLength; i++) {
+            out[off + i] = (byte) (h[i >>> 3] >>> (8 * (i & 7)));
+        }
+        Arrays.fill(h, 0L);
+        Arrays.fill(m, 0L);
+        Arrays.fill(buffer, (byte) 0);
+        bufferLength = 0;
+    }
+
+    private void compress(boolean last) {
+        for (int i = 0; i < 16; i++) {
+            m[i] = littleEndianToLong(buffer, 8 * i);
+        }
+        long v0 = h[0], v1 = h[1], v2 = h[2], v3 = h[3], v4 = h[4], v5 = h[5], v6 = h[6], v7 = h[7];
+        long v8 = IV[0], v9 = IV[1], v10 = IV[2], v11 = IV[3];
+        long v12 = IV[4] ^ counter, v13 = IV[5], v14 = last ? ~IV[6] : IV[6], v15 = IV[7];
+        for (int round = 0; round < ROUNDS; round++) {
+            var s = SIGMA[round];
+            v0 = v0 + v4 + m[s[0]];
+            v12 = Long.rotateRight(v12 ^ v0, 32);
+            v8 = v8 + v12;
+            v4 = Long.rotateRight(v4 ^ v8, 24);
+            v0 = v0 + v4 + m[s[1]];
+            v12 = Long.rotateRight(v12 ^ v0, 16);
+            v8 = v8 + v12;
+            v4 = Long.rotateRight(v4 ^ v8, 63);
+            v1 = v1 + v5 + m[s[2]];
+            v13 = Long.rotateRight(v13 ^ v1, 32);
+            v9 = v9 + v13;
+            v5 = Long.rotateRight(v5 ^ v9, 24);
+            v1 = v1 + v5 + m[s[3]];
+            v13 = Long.rotateRight(v13 ^ v1, 16);
+            v9 = v9 + v13;
+            v5 = Long.rotateRight(v5 ^ v9, 63);
+            v2 = v2 + v6 + m[s[4]];
+            v14 = Long.rotateRight(v14 ^ v2, 32);
+            v10 = v10 + v14;
+            v6 = Long.rotateRight(v6 ^ v10, 24);
+            v2 = v2 + v6 + m[s[5]];
+            v14 = Long.rotateRight(v14 ^ v2, 16);
+            v10 = v10 + v14;
+            v6 = Long.rotateRight(v6 ^ v10, 63);
+            v3 = v3 + v7 + m[s[6]];
+            v15 = Long.rotateRight(v15 ^ v3, 32);
+            v11 = v11 + v15;
+            v7 = Long.rotateRight(v7 ^ v11, 24);
+            v3 = v3 + v7 + m[s[7]];
+            v15 = Long.rotateRight(v15 ^ v3, 16);
+            v11 = v11 + v15;
+            v7 = Long.rotateRight(v7 ^ v11, 63);
+            v0 = v0 + v5 + m[s[8]];
+            v15 = Long.rotateRight(v15 ^ v0, 32);
+            v10 = v10 + v15;
+            v5 = Long.rotateRight(v5 ^ v10, 24);
+            v0 = v0 + v5 + m[s[9]];
+            v15 = Long.rotateRight(v15 ^ v0, 16);
+            v10 = v10 + v15;
+            v5 = Long.rotateRight(v5 ^ v10, 63);
+            v1 = v1 + v6 + m[s[10]];
+            v12 = Long.rotateRight(v12 ^ v1, 32);
+            v11 = v11 + v12;
+            v6 = Long.rotateRight(v6 ^ v11, 24);
+            v1 = v1 + v6 + m[s[11]];
+            v12 = Long.rotateRight(v12 ^ v1, 16);
+            v11 = v11 + v12;
+            v6 = Long.rotateRight(v6 ^ v11, 63);
+            v2 = v2 + v7 + m[s[12]];
+            v13 = Long.rotateRight(v13 ^ v2, 32);
+            v8 = v8 + v13;
+            v7 = Long.rotateRight(v7 ^ v8, 24);
+            v2 = v2 + v7 + m[s[13]];
+            v13 = Long.rotateRight(v13 ^ v2, 16);
+            v8 = v8 + v13;
+            v7 = Long.rotateRight(v7 ^ v8, 63);
+            v3 = v3 + v4 + m[s[14]];
+            v14 = Long.rotateRight(v14 ^ v3, 32);
+            v9 = v9 + v14;
+            v4 = Long.rotateRight(v4 ^ v9, 24);
+            v3 = v3 + v4 + m[s[15]];
+            v14 = Long.rotateRight(v14 ^ v3, 16);
+            v9 = v9 + v14;
+            v4 = Long.rotateRight(v4 ^ v9, 63);
+        }
+        h[0] ^= v0 ^ v8;
+        h[1] ^= v1 ^ v9;
+        h[2] ^= v2 ^ v10;
+        h[3] ^= v3 ^ v11;
+        h[4] ^= v4 ^ v12;
+        h[5] ^= v5 ^ v13;
+        h[6] ^= v6 ^ v14;
+        h[7] ^= v7 ^ v15;
+    }
+
+    private static long littleEndianToLong(byte[] bytes, int off) {
+        return (bytes[off] & 0xffL)
+                | (bytes[off + 1] & 0xffL) << 8
+                | (bytes[off + 2] & 0xffL) << 16
+                | (bytes[off + 3] & 0xffL) << 24
+                | (bytes[off + 4] & 0xffL) << 32
+                | (bytes[off + 5] & 0xffL) << 40
+                | (bytes[off + 6] & 0xffL) << 48
+                | (bytes[off + 7] & 0xffL) << 56;
+    }
+}
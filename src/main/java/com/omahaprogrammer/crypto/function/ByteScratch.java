@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.omahaprogrammer.crypto.function;
+
+import java.util.Arrays;
+
+/**
+ * A per-thread byte array that grows to the largest length requested of it. A thread takes the array out while using
+ * it, so a nested request on the same thread gets a fresh array rather than one that is still in use.
+ */
+final class ByteScratch {
+    private final ThreadLocal<byte[]> slot = new ThreadLocal<>();
+
+    /**
+     * Takes this thread's array, growing it if it is shorter than the requested length
+     * @param length the number of bytes needed
+     * @return an array of at least {@code length} bytes
+     */
+    byte[] take(int length) {
+        var buffer = slot.get();
+        if (buffer == null || buffer.length < length) {
+            return new byte[Math.max(length, 64)];
+        }
+        slot.set(null);
+        return buffer;
+    }
+
+    /**
+     * Wipes the used part of an array and gives it back to this thread
+     * @param buffer the array returned by {@link #take(int)}
+     * @param used the number of leading bytes that were written
+     */
+    void release(byte[] buffer, int used) {
+        Arrays.fill(buffer, 0, used, (byte) 0);
+        slot.set(buffer);
+    }
+}
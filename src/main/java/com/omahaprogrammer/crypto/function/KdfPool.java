@@ -0,0 +1,85 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto.function;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * The shared, bounded pool on which the functions compute their independent lanes concurrently. The pool is sized to
+ * the available processors unless the {@code com.omahaprogrammer.crypto.kdf.parallelism} system property says
+ * otherwise; values outside the range a {@code ForkJoinPool} accepts are clamped to it. Its worker threads are daemon
+ * threads, so the pool never keeps the JVM alive.
+ */
+final class KdfPool {
+    /**
+     * The system property overriding the number of worker threads
+     */
+    static final String PARALLELISM_PROPERTY = "com.omahaprogrammer.crypto.kdf.parallelism";
+
+    /**
+     * The largest parallelism a {@code ForkJoinPool} accepts
+     */
+    static final int MAX_PARALLELISM = 0x7fff;
+
+    /**
+     * The shared pool
+     */
+    private static final ForkJoinPool POOL = new ForkJoinPool(
+            clampParallelism(Integer.getInteger(PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors())),
+            KdfPool::newThread, null, false);
+
+    private KdfPool() {
+    }
+
+    /**
+     * Provides the shared pool
+     * @return the shared pool
+     */
+    static ForkJoinPool get() {
+        return POOL;
+    }
+
+    /**
+     * Determines whether running lanes on the pool can save any wall-clock time
+     * @return {@code true} if the pool has more than one worker
+     */
+    static boolean isParallel() {
+        return POOL.getParallelism() > 1;
+    }
+
+    /**
+     * Clamps a requested number of worker threads to the range a {@code ForkJoinPool} accepts, so that a bad system
+     * property cannot leave the functions without a pool
+     * @param requested the requested number of workers
+     * @return the number of workers, from 1 to {@link #MAX_PARALLELISM}
+     */
+    static int clampParallelism(int requested) {
+        return Math.max(1, Math.min(requested, MAX_PARALLELISM));
+    }
+
+    /**
+     * Creates a named daemon worker thread for the pool
+     * @param pool the pool owning the worker
+     * @return the new worker
+     */
+    private static ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+        var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("phc-kdf-" + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
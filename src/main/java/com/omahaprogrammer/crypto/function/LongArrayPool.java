@@ -0,0 +1,238 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto.function;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * A pool of {@code long[]} work areas for the memory-hard functions, so that repeated hashes with the same cost reuse
+ * the same arrays instead of allocating and discarding them. Requested lengths are rounded up to a size class: a power
+ * of two or one of the three quarter steps above it, which bounds the waste to a quarter of the request. Arrays are
+ * wiped when they are returned, so every array handed out is all zero. The pool keeps at most a fixed number of bytes
+ * and drops arrays that have been idle for too long; both limits are read from system properties. Idle arrays are
+ * swept on acquire and release, and a daemon thread sweeps the shared pool as well, so that arrays are dropped even
+ * once hashing stops.
+ */
+final class LongArrayPool {
+    /**
+     * The system property with the largest number of bytes the shared pool retains
+     */
+    static final String MAX_RETAINED_PROPERTY = "com.omahaprogrammer.crypto.kdf.pool.maxRetainedBytes";
+
+    /**
+     * The system property with the number of seconds an array may stay unused in the shared pool
+     */
+    static final String IDLE_SECONDS_PROPERTY = "com.omahaprogrammer.crypto.kdf.pool.idleSeconds";
+
+    /**
+     * The smallest size class, the length of eight Argon2 blocks
+     */
+    static final int MIN_CLASS_SIZE = 1024;
+
+    /**
+     * The largest array length the VM reliably supports
+     */
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+    /**
+     * The default number of bytes the shared pool retains: a sixteenth of the maximum heap, at most 256 MiB
+     */
+    private static final long DEFAULT_MAX_RETAINED = Math.min(Runtime.getRuntime().maxMemory() / 16, 256L << 20);
+
+    /**
+     * The shortest interval between background sweeps
+     */
+    private static final long MIN_SWEEP_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * The shared pool, retaining {@link #DEFAULT_MAX_RETAINED} bytes and one minute of idleness by default
+     */
+    private static final LongArrayPool SHARED = new LongArrayPool(
+            Long.getLong(MAX_RETAINED_PROPERTY, DEFAULT_MAX_RETAINED),
+            TimeUnit.SECONDS.toNanos(Long.getLong(IDLE_SECONDS_PROPERTY, 60)),
+            System::nanoTime);
+
+    static {
+        var sweeper = Executors.newSingleThreadScheduledExecutor(task -> {
+            var thread = new Thread(task, "phc-pool-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        SHARED.scheduleSweeps(sweeper);
+    }
+
+    private final long maxRetainedBytes;
+    private final long idleNanos;
+    private final LongSupplier clock;
+
+    /**
+     * The idle arrays of each size class, most recently returned first
+     */
+    private final ConcurrentHashMap<Integer, ConcurrentLinkedDeque<Entry>> classes = new ConcurrentHashMap<>();
+
+    /**
+     * The number of bytes held by idle arrays
+     */
+    private final AtomicLong retainedBytes = new AtomicLong();
+
+    /**
+     * The time of the last sweep for idle arrays
+     */
+    private final AtomicLong lastSweep;
+
+    /**
+     * Creates a new pool
+     * @param maxRetainedBytes the largest number of bytes held by idle arrays
+     * @param idleNanos how long an array may stay unused before it is dropped
+     * @param clock the source of the current time in nanoseconds
+     */
+    LongArrayPool(long maxRetainedBytes, long idleNanos, LongSupplier clock) {
+        this.maxRetainedBytes = maxRetainedBytes;
+        this.idleNanos = idleNanos;
+        this.clock = clock;
+        this.lastSweep = new AtomicLong(clock.getAsLong());
+    }
+
+    /**
+     * Provides the pool shared by the functions
+     * @return the shared pool
+     */
+    static LongArrayPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Rounds a length up to its size class
+     * @param length the requested length, at least 1
+     * @return the length of the arrays handed out for the request
+     */
+    static int classSize(int length) {
+        if (length <= MIN_CLASS_SIZE) {
+            return MIN_CLASS_SIZE;
+        }
+        var power = Integer.highestOneBit(length - 1);
+        var step = power / 4;
+        var size = power + ((long) length - power + step - 1) / step * step;
+        return (int) Math.min(size, MAX_ARRAY_LENGTH);
+    }
+
+    /**
+     * Takes an all-zero array from the pool, or allocates one
+     * @param length the required length
+     * @return an array of at least the required length
+     */
+    long[] acquire(int length) {
+        var size = classSize(length);
+        var now = clock.getAsLong();
+        sweep(now);
+        var idle = classes.get(size);
+        var entry = idle == null ? null : idle.pollFirst();
+        if (entry == null) {
+            return new long[size];
+        }
+        retainedBytes.addAndGet(-bytes(size));
+        return entry.array;
+    }
+
+    /**
+     * Wipes an array and returns it to the pool. Arrays that would exceed the retained limit are dropped.
+     * @param array an array obtained from {@link #acquire(int)}
+     * @param used the number of leading elements that may be non-zero
+     */
+    void release(long[] array, int used) {
+        Arrays.fill(array, 0, used, 0L);
+        var size = array.length;
+        if (retainedBytes.addAndGet(bytes(size)) > maxRetainedBytes) {
+            retainedBytes.addAndGet(-bytes(size));
+            return;
+        }
+        var now = clock.getAsLong();
+        classes.computeIfAbsent(size, s -> new ConcurrentLinkedDeque<>()).offerFirst(new Entry(array, now));
+        sweep(now);
+    }
+
+    /**
+     * The number of bytes held by idle arrays
+     * @return the retained bytes
+     */
+    long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    /**
+     * Sweeps this pool on the given executor every quarter of the idle time, so that idle arrays are dropped even when
+     * nothing is acquired or released any more
+     * @param executor the executor running the sweeps
+     * @return the scheduled sweeps, which may be cancelled
+     */
+    ScheduledFuture<?> scheduleSweeps(ScheduledExecutorService executor) {
+        var period = Math.max(idleNanos / 4, MIN_SWEEP_NANOS);
+        return executor.scheduleWithFixedDelay(() -> evictIdle(clock.getAsLong()), period, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Drops the arrays that have been idle for too long. Sweeps run at most once per quarter of the idle time, on
+     * whichever thread first notices one is due.
+     * @param now the current time
+     */
+    private void sweep(long now) {
+        var last = lastSweep.get();
+        if (now - last < idleNanos / 4 || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+        evictIdle(now);
+    }
+
+    /**
+     * Drops the arrays that have been idle for at least the idle time
+     * @param now the current time
+     */
+    private void evictIdle(long now) {
+        for (var idle : classes.values()) {
+            Entry oldest;
+            while ((oldest = idle.peekLast()) != null && now - oldest.returnedAt >= idleNanos) {
+                if (idle.removeLastOccurrence(oldest)) {
+                    retainedBytes.addAndGet(-bytes(oldest.array.length));
+                }
+            }
+        }
+    }
+
+    private static long bytes(int length) {
+        return (long) length * Long.BYTES;
+    }
+
+    /**
+     * An idle array and the time it was returned
+     */
+    private static final class Entry {
+        final long[] array;
+        final long returnedAt;
+
+        Entry(long[] array, long returnedAt) {
+            this.array = array;
+            this.returnedAt = returnedAt;
+        }
+    }
+}
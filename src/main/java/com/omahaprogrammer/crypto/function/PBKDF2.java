@@ -15,16 +15,13 @@
 
 package com.omahaprogrammer.crypto.function;
 
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.crypto.PBEParametersGenerator;
 
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.PBEKeySpec;
-import java.security.NoSuchAlgorithmException;
-import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
 
 public class PBKDF2 extends PHCFunction<PBKDF2> {
     /**
@@ -69,6 +66,11 @@ public class PBKDF2 extends PHCFunction<PBKDF2> {
         return Optional.ofNullable((Param<PBKDF2, V>)params.get(string));
     }
 
+    @Override
+    public List<Param<PBKDF2, ?>> getParams() {
+        return List.of(ALG, C);
+    }
+
     @Override
     public int getDefaultSaltLength() {
         return DEFAULT_SALT_LENGTH;
@@ -79,48 +81,81 @@ public class PBKDF2 extends PHCFunction<PBKDF2> {
         return DEFAULT_HASH_LENGTH;
     }
 
+    @Override
+    public long estimateWork(Map<Param<PBKDF2, ?>, ?> params) {
+        var alg = ALG.getValue(params);
+        // the iteration count is at least 1, so 0 marks a missing parameter
+        var iterations = C.getInt(params, 0);
+        if (alg == null || iterations == 0) {
+            return 0;
+        }
+        // every iteration runs the digest over an inner and an outer block
+        return 2L * iterations * alg.getBlockSize();
+    }
+
     @Override
     public byte[] protectPassword(Map<Param<PBKDF2, ?>, ?> params, byte[] salt, char[] password, int length) {
-        if (!params.keySet().containsAll(Set.of(ALG, C))) {
+        var hash = new byte[Math.max(length, 0)];
+        var pwdBytes = PBEParametersGenerator.PKCS5PasswordToUTF8Bytes(password);
+        try {
+            protectPassword(params, salt, pwdBytes, 0, pwdBytes.length, hash, 0, length);
+        } finally {
+            Arrays.fill(pwdBytes, (byte) 0);
+        }
+        return hash;
+    }
+
+    @Override
+    public void protectPassword(Map<Param<PBKDF2, ?>, ?> params, byte[] salt,
+                                byte[] password, int passwordOff, int passwordLength,
+                                byte[] out, int outOff, int length) {
+        if (!params.containsKey(ALG) || !params.containsKey(C)) {
             throw new IllegalArgumentException("Required parameters missing");
         }
-        var alg = ALG.getValue(params);
-        var iterations = C.getValue(params);
-        var spec = new PBEKeySpec(password, salt, iterations, length * 8);
-        try {
-            var fac = SecretKeyFactory.getInstance(String.format("PBKDF2With%s", alg.getLabel()), new BouncyCastleProvider());
-            var hash = fac.generateSecret(spec);
-            spec.clearPassword();
-            return hash.getEncoded();
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
-            throw new IllegalStateException(e);
+        if (passwordLength == 0) {
+            throw new IllegalArgumentException("password empty");
         }
+        if (length <= 0) {
+            throw new IllegalArgumentException("positive key length required: " + length);
+        }
+        Pbkdf2Engine.derive(ALG.getValue(params), password, passwordOff, passwordLength, salt, C.getInt(params, 0),
+                out, outOff, length);
     }
 
     /**
      * This enum describes the supported algorithms used by the PBKDF2 function
      */
     public enum Algorithm {
-        HMAC_SHA1("HmacSHA1"),
-        HMAC_SHA224("HmacSHA224"),
-        HMAC_SHA256("HmacSHA256"),
-        HMAC_SHA384("HmacSHA384"),
-        HMAC_SHA512("HmacSHA512"),
-        HMAC_SHA3_224("HmacSHA3-224"),
-        HMAC_SHA3_256("HmacSHA3-256"),
-        HMAC_SHA3_384("HmacSHA3-384"),
-        HMAC_SHA3_512("HmacSHA3-512");
+        HMAC_SHA1("HmacSHA1", 64),
+        HMAC_SHA224("HmacSHA224", 64),
+        HMAC_SHA256("HmacSHA256", 64),
+        HMAC_SHA384("HmacSHA384", 128),
+        HMAC_SHA512("HmacSHA512", 128),
+        HMAC_SHA3_224("HmacSHA3-224", 144),
+        HMAC_SHA3_256("HmacSHA3-256", 136),
+        HMAC_SHA3_384("HmacSHA3-384", 104),
+        HMAC_SHA3_512("HmacSHA3-512", 72);
 
         private final String label;
 
-        Algorithm(String label) {
+        /**
+         * The number of bytes the digest processes at once
+         */
+        private final int blockSize;
+
+        Algorithm(String label, int blockSize) {
             this.label = label;
+            this.blockSize = blockSize;
         }
 
         public String getLabel() {
             return label;
         }
 
+        int getBlockSize() {
+            return blockSize;
+        }
+
         @Override
         public String toString() {
             return label;
@@ -15,6 +15,9 @@
 
 package com.omahaprogrammer.crypto.function;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.util.*;
 
 /**
@@ -27,6 +30,18 @@ public abstract class PHCFunction<T extends PHCFunction<T>> {
      */
     private final String id;
 
+    /**
+     * The slots of this function's parameters, created on first use. Racing threads create equal layouts, and the
+     * layout's fields are final, so the field needs no synchronization.
+     */
+    private ParamLayout<T> layout;
+
+    /**
+     * The per-thread arrays holding encoded passwords and outputs on their way into a buffer
+     */
+    private static final ByteScratch PASSWORD_SCRATCH = new ByteScratch();
+    private static final ByteScratch OUTPUT_SCRATCH = new ByteScratch();
+
     /**
      * Creates a new function object
      * @param id the function identifier
@@ -51,6 +66,25 @@ public abstract class PHCFunction<T extends PHCFunction<T>> {
      */
     public abstract <V> Optional<Param<T,V>> getParam(String paramId);
 
+    /**
+     * Lists every parameter this function accepts
+     * @return the parameters in priority order
+     */
+    public abstract List<Param<T, ?>> getParams();
+
+    /**
+     * Provides the slots of this function's parameters
+     * @return the layout
+     */
+    ParamLayout<T> layout() {
+        var result = layout;
+        if (result == null) {
+            result = new ParamLayout<>(getParams());
+            layout = result;
+        }
+        return result;
+    }
+
     /**
      * Protects the given password by applying the function described by this object with the given params and salt,
      * producing an array of {@code length} bytes. This method is intended to be executed by the PHC only.
@@ -62,6 +96,143 @@ public abstract class PHCFunction<T extends PHCFunction<T>> {
      */
     public abstract byte[] protectPassword(Map<Param<T, ?>, ?> params, byte[] salt, char[] password, int length);
 
+    /**
+     * Protects a password given as UTF-8 bytes, writing {@code length} bytes into an existing array. This method is
+     * intended to be executed by the PHC only.
+     * @param params the parameters necessary for this function
+     * @param salt the cryptographic salt
+     * @param password the array holding the UTF-8 encoded cleartext password
+     * @param passwordOff the offset of the password in {@code password}
+     * @param passwordLength the length of the password in bytes
+     * @param out the array receiving the protected password
+     * @param outOff the offset of the protected password in {@code out}
+     * @param length the output length
+     */
+    public abstract void protectPassword(Map<Param<T, ?>, ?> params, byte[] salt,
+                                         byte[] password, int passwordOff, int passwordLength,
+                                         byte[] out, int outOff, int length);
+
+    /**
+     * Protects the remaining characters of a password, writing {@code length} bytes into an existing array. The password
+     * is encoded the same way as by {@link #protectPassword(Map, byte[], char[], int)}, and its position is unchanged.
+     * @param params the parameters necessary for this function
+     * @param salt the cryptographic salt
+     * @param password the cleartext password
+     * @param out the array receiving the protected password
+     * @param outOff the offset of the protected password in {@code out}
+     * @param length the output length
+     */
+    public final void protectPassword(Map<Param<T, ?>, ?> params, byte[] salt, CharBuffer password,
+                                      byte[] out, int outOff, int length) {
+        Objects.checkFromIndexSize(outOff, Math.max(length, 0), out.length);
+        if (Utf8.hasUnpairedSurrogate(password)) {
+            // the functions disagree on how to encode these, so let each one do it the way it always has
+            var chars = new char[password.remaining()];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = password.charAt(i);
+            }
+            try {
+                var hash = protectPassword(params, salt, chars, length);
+                System.arraycopy(hash, 0, out, outOff, length);
+                Arrays.fill(hash, (byte) 0);
+            } finally {
+                Arrays.fill(chars, '\0');
+            }
+            return;
+        }
+        var passwordLength = Utf8.encodedLength(password);
+        var bytes = PASSWORD_SCRATCH.take(passwordLength);
+        try {
+            Utf8.encode(password, bytes, 0);
+            protectPassword(params, salt, bytes, 0, passwordLength, out, outOff, length);
+        } finally {
+            PASSWORD_SCRATCH.release(bytes, passwordLength);
+        }
+    }
+
+    /**
+     * Protects a password given as UTF-8 bytes, putting {@code length} bytes into a buffer at its position and advancing
+     * the position past them
+     * @param params the parameters necessary for this function
+     * @param salt the cryptographic salt
+     * @param password the array holding the UTF-8 encoded cleartext password
+     * @param passwordOff the offset of the password in {@code password}
+     * @param passwordLength the length of the password in bytes
+     * @param out the buffer receiving the protected password
+     * @param length the output length
+     * @throws BufferOverflowException if fewer than {@code length} bytes remain in {@code out}
+     */
+    public final void protectPassword(Map<Param<T, ?>, ?> params, byte[] salt,
+                                      byte[] password, int passwordOff, int passwordLength,
+                                      ByteBuffer out, int length) {
+        if (out.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        if (out.hasArray()) {
+            protectPassword(params, salt, password, passwordOff, passwordLength,
+                    out.array(), out.arrayOffset() + out.position(), length);
+            out.position(out.position() + length);
+            return;
+        }
+        var hash = OUTPUT_SCRATCH.take(length);
+        try {
+            protectPassword(params, salt, password, passwordOff, passwordLength, hash, 0, length);
+            out.put(hash, 0, length);
+        } finally {
+            OUTPUT_SCRATCH.release(hash, Math.max(length, 0));
+        }
+    }
+
+    /**
+     * Protects the remaining characters of a password, putting {@code length} bytes into a buffer at its position and
+     * advancing the position past them. The position of the password is unchanged.
+     * @param params the parameters necessary for this function
+     * @param salt the cryptographic salt
+     * @param password the cleartext password
+     * @param out the buffer receiving the protected password
+     * @param length the output length
+     * @throws BufferOverflowException if fewer than {@code length} bytes remain in {@code out}
+     */
+    public final void protectPassword(Map<Param<T, ?>, ?> params, byte[] salt, CharBuffer password,
+                                      ByteBuffer out, int length) {
+        if (out.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        if (out.hasArray()) {
+            protectPassword(params, salt, password, out.array(), out.arrayOffset() + out.position(), length);
+            out.position(out.position() + length);
+            return;
+        }
+        var hash = OUTPUT_SCRATCH.take(length);
+        try {
+            protectPassword(params, salt, password, hash, 0, length);
+            out.put(hash, 0, length);
+        } finally {
+            OUTPUT_SCRATCH.release(hash, Math.max(length, 0));
+        }
+    }
+
+    /**
+     * Estimates the memory in bytes that {@link #protectPassword(Map, byte[], char[], int)} allocates for the given
+     * parameters. Functions that are not memory-hard report zero, as do incomplete parameters.
+     * @param params the parameters of the function
+     * @return the estimated memory in bytes
+     */
+    public long estimateMemory(Map<Param<T, ?>, ?> params) {
+        return 0;
+    }
+
+    /**
+     * Estimates the work of {@link #protectPassword(Map, byte[], char[], int)} for the given parameters as the
+     * approximate number of bytes its core primitive processes, so that the cost of different functions can be compared.
+     * Incomplete parameters report zero.
+     * @param params the parameters of the function
+     * @return the estimated work
+     */
+    public long estimateWork(Map<Param<T, ?>, ?> params) {
+        return 0;
+    }
+
     /**
      * Supplies the default length in bytes of a cryptographic salt for this function
      * @return the default length in bytes
@@ -134,14 +305,38 @@ public abstract class PHCFunction<T extends PHCFunction<T>> {
         }
 
         /**
-         * Retrieves the value of the parameter from the given map. This provides for typing safety.
+         * Retrieves the value of the parameter from the given map. This provides for typing safety. Values of a
+         * {@link ParamValues} were validated when stored, and their byte arrays are read without copying.
          * @param map the map of parameter-value pairs
          * @return the value associated with this parameter
          */
+        @SuppressWarnings("unchecked")
         V getValue(Map<? extends Param<?, ?>, ?> map) {
+            if (map instanceof ParamValues) {
+                var stored = ((ParamValues<?>) map).getStored(this);
+                if (stored != null) {
+                    return (V) stored;
+                }
+            }
             return validate(map.get(this));
         }
 
+        /**
+         * Retrieves an integer value from the given map, without boxing or validating again when the map is a
+         * {@link ParamValues}
+         * @param map the map of parameter-value pairs
+         * @param defaultValue the result when the map has no value for this parameter
+         * @return the value associated with this parameter, or {@code defaultValue}
+         */
+        @SuppressWarnings("unchecked")
+        int getInt(Map<? extends Param<?, ?>, ?> map, int defaultValue) {
+            if (map instanceof ParamValues) {
+                return ((ParamValues<T>) map).getInt(this, defaultValue);
+            }
+            var value = getValue(map);
+            return value == null ? defaultValue : (Integer) value;
+        }
+
         /**
          * Validates the given object to confirm that it is assignable to this parameter
          * @param obj the desired value to set to the parameter
@@ -192,10 +387,13 @@ public abstract class PHCFunction<T extends PHCFunction<T>> {
 
         @Override
         public int compareTo(Param<T, V> o) {
-            return Comparator.<Param<T, V>>comparingInt(Param::getPriority)
-                    .thenComparing(Param::getName, Comparator.nullsFirst(Comparator.naturalOrder()))
-                    .thenComparing(p -> p.getValueClass().getName())
-                    .compare(this, o);
+            if (priority != o.priority) {
+                return Integer.compare(priority, o.priority);
+            }
+            if (!Objects.equals(name, o.name)) {
+                return name == null ? -1 : o.name == null ? 1 : name.compareTo(o.name);
+            }
+            return valueClass.getName().compareTo(o.valueClass.getName());
         }
 
         /**
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.omahaprogrammer.crypto.function;
+
+import java.lang.invoke.MethodHandles;
+import java.util.Map;
+
+/**
+ * The bridge through which the PHC classes reach the slots of the parameter values they hold. Parameter values are
+ * handed around as read-only {@code Map}s; this class creates them from validated copies of their values and reads them
+ * slot by slot without boxing. It grants nothing the rest of the API does not: values can only be created whole, and
+ * byte arrays are copied on the way in and out. It is not meant for applications, and only classes of the
+ * {@code com.omahaprogrammer.crypto} package can obtain an instance, by proving their identity with their own
+ * {@link MethodHandles.Lookup}.
+ */
+public final class ParamAccess {
+    private static final String PHC_PACKAGE = "com.omahaprogrammer.crypto";
+    private static final ParamAccess INSTANCE = new ParamAccess();
+
+    private ParamAccess() {
+    }
+
+    /**
+     * Provides the bridge to a class of the PHC package
+     * @param lookup the full-privilege lookup of the calling class
+     * @return the bridge
+     * @throws IllegalArgumentException if the lookup does not belong to a class of the PHC package
+     */
+    public static ParamAccess get(MethodHandles.Lookup lookup) {
+        if ((lookup.lookupModes() & MethodHandles.Lookup.PACKAGE) == 0
+                || !lookup.lookupClass().getPackageName().equals(PHC_PACKAGE)) {
+            throw new IllegalArgumentException("Parameter slots are internal to " + PHC_PACKAGE);
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Provides the values of a function with no parameters set
+     * @param function the function
+     * @param <T> the type of the function
+     * @return the empty values
+     */
+    public <T extends PHCFunction<T>> Map<PHCFunction.Param<T, ?>, Object> empty(T function) {
+        return ParamValues.empty(function);
+    }
+
+    /**
+     * Creates the values holding the given parameters
+     * @param function the function owning the parameters
+     * @param params the parameters, in any order; a later duplicate replaces an earlier value
+     * @param values the values of the parameters, which may be strings the parameters convert; byte arrays are copied
+     * @param count the number of parameters
+     * @param <T> the type of the function
+     * @return the new values
+     * @throws IllegalArgumentException if a parameter does not belong to the function, or a value is missing or
+     * invalid for its parameter
+     */
+    public <T extends PHCFunction<T>> Map<PHCFunction.Param<T, ?>, Object> valuesOf(
+            T function, PHCFunction.Param<?, ?>[] params, Object[] values, int count) {
+        return ParamValues.of(function, params, values, count);
+    }
+
+    /**
+     * Converts a map of parameter values into slot-backed values, returning values that already are
+     * @param function the function owning the parameters
+     * @param values the parameter values; byte arrays are copied
+     * @param <T> the type of the function
+     * @return the slot-backed values
+     * @throws IllegalArgumentException if a parameter does not belong to the function, or a value is missing or
+     * invalid for its parameter
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends PHCFunction<T>> Map<PHCFunction.Param<T, ?>, Object> valuesOf(
+            T function, Map<? extends PHCFunction.Param<?, ?>, ?> values) {
+        if (values instanceof ParamValues && ((ParamValues<?>) values).isOf(function)) {
+            return (ParamValues<T>) values;
+        }
+        var params = new PHCFunction.Param<?, ?>[values.size()];
+        var objects = new Object[params.length];
+        var count = 0;
+        for (var entry : values.entrySet()) {
+            params[count] = entry.getKey();
+            objects[count++] = entry.getValue();
+        }
+        return ParamValues.of(function, params, objects, count);
+    }
+
+    /**
+     * Reads an integer parameter without boxing
+     * @param values the slot-backed values
+     * @param param the parameter
+     * @param defaultValue the result when the parameter is not set
+     * @param <T> the type of the function
+     * @return the value, or {@code defaultValue}
+     */
+    public <T extends PHCFunction<T>> int getInt(Map<PHCFunction.Param<T, ?>, Object> values,
+                                                 PHCFunction.Param<T, ?> param, int defaultValue) {
+        return ParamAccess.<T>cast(values).getInt(param, defaultValue);
+    }
+
+    /**
+     * The number of slots, set or not, which is the number of parameters of the function
+     * @param values the slot-backed values
+     * @return the slot count
+     */
+    public int getSlotCount(Map<?, ?> values) {
+        return cast(values).getSlotCount();
+    }
+
+    /**
+     * The parameter owning a slot
+     * @param values the slot-backed values
+     * @param slot the slot
+     * @return the parameter
+     */
+    public PHCFunction.Param<?, ?> getSlotParam(Map<?, ?> values, int slot) {
+        return cast(values).getSlotParam(slot);
+    }
+
+    /**
+     * Determines whether a slot holds a value
+     * @param values the slot-backed values
+     * @param slot the slot
+     * @return whether the parameter of the slot is set
+     */
+    public boolean isSlotSet(Map<?, ?> values, int slot) {
+        return cast(values).isSlotSet(slot);
+    }
+
+    /**
+     * Determines whether a slot holds an integer, as opposed to an enum constant or an object
+     * @param values the slot-backed values
+     * @param slot the slot
+     * @return whether {@link #getSlotInt(Map, int)} returns the value itself
+     */
+    public boolean isIntSlot(Map<?, ?> values, int slot) {
+        return cast(values).isIntSlot(slot);
+    }
+
+    /**
+     * Reads the stored {@code int} of a slot: the value of an integer parameter or the ordinal of an enum constant
+     * @param values the slot-backed values
+     * @param slot the slot
+     * @return the stored value, or 0 for object slots
+     */
+    public int getSlotInt(Map<?, ?> values, int slot) {
+        return cast(values).getSlotInt(slot);
+    }
+
+    /**
+     * Reads the value of a slot. Integers are boxed and byte arrays are copied.
+     * @param values the slot-backed values
+     * @param slot the slot
+     * @return the value, or {@code null} if the slot is not set
+     */
+    public Object getSlotValue(Map<?, ?> values, int slot) {
+        return ParamValues.copy(cast(values).getSlotValue(slot));
+    }
+
+    /**
+     * Compares two sets of slot-backed values, comparing byte arrays by content
+     * @param a the first values
+     * @param b the second values
+     * @return whether both hold the same parameters with the same values
+     */
+    public boolean hasSameValues(Map<?, ?> a, Map<?, ?> b) {
+        return cast(a).hasSameValues(cast(b));
+    }
+
+    /**
+     * Computes a hash code consistent with {@link #hasSameValues(Map, Map)}
+     * @param values the slot-backed values
+     * @return the hash code
+     */
+    public int valuesHashCode(Map<?, ?> values) {
+        return cast(values).valuesHashCode();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends PHCFunction<T>> ParamValues<T> cast(Map<?, ?> values) {
+        return (ParamValues<T>) values;
+    }
+}
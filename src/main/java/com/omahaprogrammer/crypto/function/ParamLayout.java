@@ -0,0 +1,92 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.omahaprogrammer.crypto.function;
+
+import java.util.List;
+
+/**
+ * The slots of a function's parameters. Each parameter owns the slot at its index in {@link PHCFunction#getParams()},
+ * which is its priority less one. Integer and enum parameters are stored as {@code int}, the enum by ordinal; other
+ * values are stored as objects.
+ * @param <T> the type of the function
+ */
+final class ParamLayout<T extends PHCFunction<T>> {
+    /**
+     * The parameters by slot
+     */
+    final PHCFunction.Param<T, ?>[] params;
+
+    /**
+     * Whether the value of each slot is stored as an {@code int}
+     */
+    final boolean[] primitive;
+
+    /**
+     * The constants of each enum parameter by ordinal, or {@code null} for other slots
+     */
+    final Object[][] constants;
+
+    /**
+     * Whether any slot stores an object
+     */
+    final boolean hasObjects;
+
+    /**
+     * The values holding no parameters
+     */
+    final ParamValues<T> empty;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    ParamLayout(List<PHCFunction.Param<T, ?>> list) {
+        if (list.size() > Integer.SIZE) {
+            throw new IllegalStateException("Too many parameters");
+        }
+        this.params = list.toArray(new PHCFunction.Param[0]);
+        this.primitive = new boolean[params.length];
+        this.constants = new Object[params.length][];
+        var objects = false;
+        for (int slot = 0; slot < params.length; slot++) {
+            var valueClass = params[slot].getValueClass();
+            constants[slot] = valueClass.getEnumConstants();
+            primitive[slot] = valueClass.equals(Integer.class) || constants[slot] != null;
+            objects |= !primitive[slot];
+        }
+        this.hasObjects = objects;
+        this.empty = new ParamValues<>(this, 0, new int[params.length], objects ? new Object[params.length] : null);
+    }
+
+    /**
+     * Finds the slot of a parameter
+     * @param key the parameter
+     * @return the slot, or -1 if the parameter does not belong to this layout
+     */
+    int slotOf(Object key) {
+        if (!(key instanceof PHCFunction.Param)) {
+            return -1;
+        }
+        var slot = ((PHCFunction.Param<?, ?>) key).getPriority() - 1;
+        if (slot >= 0 && slot < params.length && params[slot].equals(key)) {
+            return slot;
+        }
+        for (slot = 0; slot < params.length; slot++) {
+            if (params[slot].equals(key)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+}
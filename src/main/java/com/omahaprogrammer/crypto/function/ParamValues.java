@@ -0,0 +1,327 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.omahaprogrammer.crypto.function;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * An immutable set of parameter values for one function, stored in fixed slots in priority order instead of a map of
+ * boxed values. Integer and enum values live in an {@code int} array and are read without boxing; byte arrays live in
+ * an object array that only functions with such parameters have. Every value is validated when it is added.
+ * <p>
+ * This class is a read-only {@code Map} whose iteration follows priority order, so it can be handed to
+ * {@link PHCFunction#protectPassword(Map, byte[], char[], int)} as is. The PHC classes reach the slots through
+ * {@link ParamAccess}; applications set parameters through {@code PHC.Builder}.
+ * </p>
+ * @param <T> the type of the function
+ */
+final class ParamValues<T extends PHCFunction<T>> extends AbstractMap<PHCFunction.Param<T, ?>, Object> {
+    private final ParamLayout<T> layout;
+
+    /**
+     * A bit for every slot holding a value
+     */
+    private final int present;
+
+    private final int[] ints;
+    private final Object[] objects;
+
+    ParamValues(ParamLayout<T> layout, int present, int[] ints, Object[] objects) {
+        this.layout = layout;
+        this.present = present;
+        this.ints = ints;
+        this.objects = objects;
+    }
+
+    /**
+     * Provides the values of a function with no parameters set
+     * @param function the function
+     * @param <T> the type of the function
+     * @return the empty values
+     */
+    static <T extends PHCFunction<T>> ParamValues<T> empty(T function) {
+        return function.layout().empty;
+    }
+
+    /**
+     * Creates the values holding the given parameters
+     * @param function the function
+     * @param params the parameters, in any order; a later duplicate replaces an earlier value
+     * @param values the values of the parameters; byte arrays are copied
+     * @param count the number of parameters
+     * @param <T> the type of the function
+     * @return the new values
+     * @throws IllegalArgumentException if a parameter does not belong to the function, or a value is missing or
+     * invalid for its parameter
+     */
+    static <T extends PHCFunction<T>> ParamValues<T> of(T function, PHCFunction.Param<?, ?>[] params, Object[] values,
+                                                       int count) {
+        var layout = function.layout();
+        var present = 0;
+        var ints = new int[layout.params.length];
+        var objects = layout.hasObjects ? new Object[layout.params.length] : null;
+        for (int i = 0; i < count; i++) {
+            var slot = layout.slotOf(params[i]);
+            if (slot < 0) {
+                throw new IllegalArgumentException("Unknown parameter " + params[i]);
+            }
+            store(layout, slot, values[i], ints, objects);
+            present |= 1 << slot;
+        }
+        return new ParamValues<>(layout, present, ints, objects);
+    }
+
+    /**
+     * Determines whether these values belong to a function
+     * @param function the function
+     * @return whether the values use the slots of the function
+     */
+    boolean isOf(PHCFunction<?> function) {
+        return layout == function.layout();
+    }
+
+    /**
+     * Creates a copy of these values with one parameter set
+     * @param param the parameter
+     * @param value the value; byte arrays are copied
+     * @param <V> the type of the value
+     * @return the new values
+     * @throws IllegalArgumentException if the value is missing or invalid for the parameter
+     */
+    <V> ParamValues<T> with(PHCFunction.Param<T, V> param, V value) {
+        var slot = slot(param);
+        var ints = this.ints.clone();
+        var objects = this.objects == null ? null : this.objects.clone();
+        store(layout, slot, value, ints, objects);
+        return new ParamValues<>(layout, present | 1 << slot, ints, objects);
+    }
+
+    /**
+     * Reads an integer parameter without boxing
+     * @param param the parameter
+     * @param defaultValue the result when the parameter is not set
+     * @return the value, or {@code defaultValue}
+     * @throws IllegalArgumentException if the parameter does not hold integers
+     */
+    int getInt(PHCFunction.Param<T, ?> param, int defaultValue) {
+        var slot = slot(param);
+        if (!isIntSlot(slot)) {
+            throw new IllegalArgumentException(param.getName() + " is not an integer parameter");
+        }
+        return (present & 1 << slot) == 0 ? defaultValue : ints[slot];
+    }
+
+    /**
+     * The number of slots, set or not, which is the number of parameters of the function
+     * @return the slot count
+     */
+    int getSlotCount() {
+        return layout.params.length;
+    }
+
+    /**
+     * The parameter owning a slot
+     * @param slot the slot
+     * @return the parameter
+     */
+    PHCFunction.Param<T, ?> getSlotParam(int slot) {
+        return layout.params[slot];
+    }
+
+    /**
+     * Determines whether a slot holds a value
+     * @param slot the slot
+     * @return whether the parameter of the slot is set
+     */
+    boolean isSlotSet(int slot) {
+        return (present & 1 << slot) != 0;
+    }
+
+    /**
+     * Determines whether a slot holds an integer, as opposed to an enum constant or an object
+     * @param slot the slot
+     * @return whether {@link #getSlotInt(int)} returns the value itself
+     */
+    boolean isIntSlot(int slot) {
+        return layout.primitive[slot] && layout.constants[slot] == null;
+    }
+
+    /**
+     * Reads the stored {@code int} of a slot: the value of an integer parameter or the ordinal of an enum constant
+     * @param slot the slot
+     * @return the stored value, or 0 for object slots
+     */
+    int getSlotInt(int slot) {
+        return ints[slot];
+    }
+
+    /**
+     * Reads the value of a slot. Integers are boxed and byte arrays are not copied, so this is only for the engines
+     * and for readers that copy them; the {@code Map} views hand out copies.
+     * @param slot the slot
+     * @return the value, or {@code null} if the slot is not set
+     */
+    Object getSlotValue(int slot) {
+        if ((present & 1 << slot) == 0) {
+            return null;
+        }
+        if (!layout.primitive[slot]) {
+            return objects[slot];
+        }
+        var constants = layout.constants[slot];
+        return constants == null ? Integer.valueOf(ints[slot]) : constants[ints[slot]];
+    }
+
+    /**
+     * Compares the values with those of another set, comparing byte arrays by content
+     * @param other the other values
+     * @return whether both hold the same parameters with the same values
+     */
+    boolean hasSameValues(ParamValues<?> other) {
+        if (layout != other.layout || present != other.present) {
+            return false;
+        }
+        for (int slot = 0; slot < ints.length; slot++) {
+            if ((present & 1 << slot) != 0 && (layout.primitive[slot]
+                    ? ints[slot] != other.ints[slot]
+                    : !objectEquals(objects[slot], other.objects[slot]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes a hash code consistent with {@link #hasSameValues(ParamValues)}
+     * @return the hash code
+     */
+    int valuesHashCode() {
+        var hash = present;
+        for (int slot = 0; slot < ints.length; slot++) {
+            if ((present & 1 << slot) != 0) {
+                hash = 31 * hash + (layout.primitive[slot] ? ints[slot] : objectHashCode(objects[slot]));
+            }
+        }
+        return hash;
+    }
+
+    @Override
+    public Object get(Object key) {
+        var slot = layout.slotOf(key);
+        return slot < 0 ? null : copy(getSlotValue(slot));
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        var slot = layout.slotOf(key);
+        return slot >= 0 && (present & 1 << slot) != 0;
+    }
+
+    @Override
+    public int size() {
+        return Integer.bitCount(present);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return present == 0;
+    }
+
+    @Override
+    public Set<Entry<PHCFunction.Param<T, ?>, Object>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<PHCFunction.Param<T, ?>, Object>> iterator() {
+                return new Iterator<>() {
+                    private int remaining = present;
+
+                    @Override
+                    public boolean hasNext() {
+                        return remaining != 0;
+                    }
+
+                    @Override
+                    public Entry<PHCFunction.Param<T, ?>, Object> next() {
+                        if (remaining == 0) {
+                            throw new NoSuchElementException();
+                        }
+                        var slot = Integer.numberOfTrailingZeros(remaining);
+                        remaining &= remaining - 1;
+                        return new SimpleImmutableEntry<>(layout.params[slot], copy(getSlotValue(slot)));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return Integer.bitCount(present);
+            }
+        };
+    }
+
+    /**
+     * Reads the value of a parameter as stored, for the engines, which neither modify nor keep byte arrays
+     * @param key the parameter
+     * @return the value, or {@code null} if it is not set
+     */
+    Object getStored(Object key) {
+        var slot = layout.slotOf(key);
+        return slot < 0 ? null : getSlotValue(slot);
+    }
+
+    static Object copy(Object value) {
+        return value instanceof byte[] ? ((byte[]) value).clone() : value;
+    }
+
+    private static boolean objectEquals(Object a, Object b) {
+        return a instanceof byte[] && b instanceof byte[] ? Arrays.equals((byte[]) a, (byte[]) b) : Objects.equals(a, b);
+    }
+
+    private static int objectHashCode(Object value) {
+        return value instanceof byte[] ? Arrays.hashCode((byte[]) value) : Objects.hashCode(value);
+    }
+
+    private int slot(PHCFunction.Param<T, ?> param) {
+        var slot = layout.slotOf(param);
+        if (slot < 0) {
+            throw new IllegalArgumentException("Unknown parameter " + param);
+        }
+        return slot;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static void store(ParamLayout<?> layout, int slot, Object value, int[] ints, Object[] objects) {
+        if (value == null) {
+            throw new IllegalArgumentException("value is null");
+        }
+        var valid = ((PHCFunction.Param) layout.params[slot]).validate(value);
+        if (!layout.primitive[slot]) {
+            objects[slot] = valid instanceof byte[] ? ((byte[]) valid).clone() : valid;
+        } else if (layout.constants[slot] != null) {
+            ints[slot] = ((Enum<?>) valid).ordinal();
+        } else {
+            ints[slot] = (Integer) valid;
+        }
+    }
+}
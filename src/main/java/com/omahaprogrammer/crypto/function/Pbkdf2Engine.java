@@ -0,0 +1,179 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto.function;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.*;
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.util.Memoable;
+
+import java.util.Arrays;
+
+/**
+ * A PBKDF2 (PKCS #5 v2.0) engine on top of per-thread, reusable HMAC instances, one per {@link PBKDF2.Algorithm}.
+ * Every digest used here is {@link Memoable}, so {@link HMac} computes the inner and outer pad states once when it is
+ * keyed with the password and merely restores them afterwards; each iteration is two compression-function runs.
+ */
+final class Pbkdf2Engine {
+    /**
+     * The HMAC instances of the current thread, indexed by algorithm ordinal and created on first use
+     */
+    private static final ThreadLocal<HMac[]> MACS =
+            ThreadLocal.withInitial(() -> new HMac[PBKDF2.Algorithm.values().length]);
+
+    /**
+     * The key used to scrub the password-derived pad states after use
+     */
+    private static final byte[] EMPTY_KEY = new byte[0];
+
+    private Pbkdf2Engine() {
+    }
+
+    /**
+     * Derives a key from the password
+     * @param algorithm the pseudo-random function
+     * @param password the password bytes
+     * @param salt the salt
+     * @param iterations the iteration count, at least 1
+     * @param out the array receiving the derived key
+     * @param outOff the offset of the derived key in {@code out}
+     * @param length the length of the derived key
+     */
+    static void derive(PBKDF2.Algorithm algorithm, byte[] password, byte[] salt, int iterations,
+                       byte[] out, int outOff, int length) {
+        derive(algorithm, password, 0, password.length, salt, iterations, out, outOff, length);
+    }
+
+    /**
+     * Derives a key from a range of password bytes
+     * @param algorithm the pseudo-random function
+     * @param password the array holding the password bytes
+     * @param passwordOff the offset of the password
+     * @param passwordLength the length of the password
+     * @param salt the salt
+     * @param iterations the iteration count, at least 1
+     * @param out the array receiving the derived key
+     * @param outOff the offset of the derived key in {@code out}
+     * @param length the length of the derived key
+     */
+    static void derive(PBKDF2.Algorithm algorithm, byte[] password, int passwordOff, int passwordLength, byte[] salt,
+                       int iterations, byte[] out, int outOff, int length) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("iteration count must be at least 1");
+        }
+        var mac = mac(algorithm);
+        var key = new KeyParameter(password, passwordOff, passwordLength);
+        mac.init(key);
+        Arrays.fill(key.getKey(), (byte) 0);
+
+        var hLen = mac.getMacSize();
+        var u = new byte[hLen];
+        var counter = new byte[4];
+        try {
+            for (int block = 1, pos = 0; pos < length; block++, pos += hLen) {
+                counter[0] = (byte) (block >>> 24);
+                counter[1] = (byte) (block >>> 16);
+                counter[2] = (byte) (block >>> 8);
+                counter[3] = (byte) block;
+                mac.update(salt, 0, salt.length);
+                mac.update(counter, 0, counter.length);
+                mac.doFinal(u, 0);
+                var n = Math.min(hLen, length - pos);
+                System.arraycopy(u, 0, out, outOff + pos, n);
+                for (int i = 1; i < iterations; i++) {
+                    mac.update(u, 0, hLen);
+                    mac.doFinal(u, 0);
+                    for (int j = 0; j < n; j++) {
+                        out[outOff + pos + j] ^= u[j];
+                    }
+                }
+            }
+        } finally {
+            Arrays.fill(u, (byte) 0);
+            mac.init(new KeyParameter(EMPTY_KEY));
+        }
+    }
+
+    /**
+     * Provides the current thread's HMAC instance for the algorithm
+     * @param algorithm the algorithm
+     * @return the HMAC instance
+     */
+    static HMac mac(PBKDF2.Algorithm algorithm) {
+        var macs = MACS.get();
+        var mac = macs[algorithm.ordinal()];
+        if (mac == null) {
+            mac = new HMac(newDigest(algorithm));
+            macs[algorithm.ordinal()] = mac;
+        }
+        return mac;
+    }
+
+    private static Digest newDigest(PBKDF2.Algorithm algorithm) {
+        switch (algorithm) {
+            case HMAC_SHA1:
+                return new SHA1Digest();
+            case HMAC_SHA224:
+                return new SHA224Digest();
+            case HMAC_SHA256:
+                return new SHA256Digest();
+            case HMAC_SHA384:
+                return new SHA384Digest();
+            case HMAC_SHA512:
+                return new SHA512Digest();
+            case HMAC_SHA3_224:
+                return new MemoableSHA3Digest(224);
+            case HMAC_SHA3_256:
+                return new MemoableSHA3Digest(256);
+            case HMAC_SHA3_384:
+                return new MemoableSHA3Digest(384);
+            case HMAC_SHA3_512:
+                return new MemoableSHA3Digest(512);
+            default:
+                throw new IllegalArgumentException("Unknown algorithm " + algorithm);
+        }
+    }
+
+    /**
+     * A SHA-3 digest whose state can be saved and restored, which lets {@link HMac} keep its prepared pad states
+     */
+    private static final class MemoableSHA3Digest extends SHA3Digest implements Memoable {
+        MemoableSHA3Digest(int bitLength) {
+            super(bitLength);
+        }
+
+        MemoableSHA3Digest(MemoableSHA3Digest source) {
+            super(source);
+        }
+
+        @Override
+        public Memoable copy() {
+            return new MemoableSHA3Digest(this);
+        }
+
+        @Override
+        public void reset(Memoable other) {
+            var source = (MemoableSHA3Digest) other;
+            System.arraycopy(source.state, 0, state, 0, state.length);
+            System.arraycopy(source.dataQueue, 0, dataQueue, 0, dataQueue.length);
+            rate = source.rate;
+            bitsInQueue = source.bitsInQueue;
+            fixedOutputLength = source.fixedOutputLength;
+            squeezing = source.squeezing;
+        }
+    }
+}
@@ -15,9 +15,7 @@
 
 package com.omahaprogrammer.crypto.function;
 
-import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 public class SCrypt extends PHCFunction<SCrypt> {
@@ -47,23 +45,56 @@ public class SCrypt extends PHCFunction<SCrypt> {
         return Optional.ofNullable((Param<SCrypt, V>) params.get(paramId));
     }
 
+    @Override
+    public List<Param<SCrypt, ?>> getParams() {
+        return List.of(N, R, P);
+    }
+
     @Override
     public byte[] protectPassword(Map<Param<SCrypt, ?>, ?> params, byte[] salt, char[] password, int length) {
-        if (!params.keySet().containsAll(Set.of(N, R, P))) {
-            throw new IllegalArgumentException("Required parameters missing");
-        }
-        CharBuffer charBuffer = CharBuffer.wrap(password);
-        ByteBuffer byteBuffer = StandardCharsets.UTF_8.encode(charBuffer);
-        byte[] pwdBytes = Arrays.copyOfRange(byteBuffer.array(), byteBuffer.position(), byteBuffer.limit());
-        byteBuffer.clear();
-        while (byteBuffer.hasRemaining()) {
-            byteBuffer.put((byte)0);
-        }
+        var hash = new byte[Math.max(length, 0)];
+        var pwdBytes = Utf8.encode(CharBuffer.wrap(password));
         try {
-            return org.bouncycastle.crypto.generators.SCrypt.generate(pwdBytes, salt, N.getValue(params), R.getValue(params), P.getValue(params), length);
+            protectPassword(params, salt, pwdBytes, 0, pwdBytes.length, hash, 0, length);
         } finally {
             Arrays.fill(pwdBytes, (byte) 0);
         }
+        return hash;
+    }
+
+    @Override
+    public void protectPassword(Map<Param<SCrypt, ?>, ?> params, byte[] salt,
+                                byte[] password, int passwordOff, int passwordLength,
+                                byte[] out, int outOff, int length) {
+        if (!params.containsKey(N) || !params.containsKey(R) || !params.containsKey(P)) {
+            throw new IllegalArgumentException("Required parameters missing");
+        }
+        ScryptEngine.derive(password, passwordOff, passwordLength, salt,
+                N.getInt(params, 0), R.getInt(params, 0), P.getInt(params, 0), out, outOff, length);
+    }
+
+    @Override
+    public long estimateMemory(Map<Param<SCrypt, ?>, ?> params) {
+        // every value is at least 1, so 0 marks a missing parameter
+        var n = N.getInt(params, 0);
+        var r = R.getInt(params, 0);
+        var p = P.getInt(params, 0);
+        if (n == 0 || r == 0 || p == 0) {
+            return 0;
+        }
+        return ScryptEngine.memoryBytes(n, r, p);
+    }
+
+    @Override
+    public long estimateWork(Map<Param<SCrypt, ?>, ?> params) {
+        var n = N.getInt(params, 0);
+        var r = R.getInt(params, 0);
+        var p = P.getInt(params, 0);
+        if (n == 0 || r == 0 || p == 0) {
+            return 0;
+        }
+        // every chain mixes its 128 * r byte block 2 * N times
+        return 2L * n * 128 * r * p;
     }
 
     @Override
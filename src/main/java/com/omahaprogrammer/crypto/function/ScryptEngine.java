@@ -0,0 +1,336 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto.function;
+
+import org.bouncycastle.util.Pack;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * An scrypt (RFC 7914) engine whose working memory is a single {@code long[]} borrowed from the {@link LongArrayPool}
+ * and wiped back into it afterwards. Each {@code long} packs two consecutive little-endian 32-bit words, so the copies
+ * and XORs of whole blocks run on half as many elements while the Salsa20/8 core unpacks them into locals. The area
+ * holds V, then X, then Y, then the 64-byte Salsa20 input T. The {@code p} chains are independent, so when the
+ * {@link KdfPool} has more than one worker they are spread over up to that many workers, each mixing its chains in an
+ * area of its own. The output is identical to BouncyCastle's {@code SCrypt}.
+ */
+final class ScryptEngine {
+    /**
+     * The largest array length the VM reliably supports
+     */
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+    /**
+     * The smallest N * r for which a chain is worth handing to another thread, a V of 32 KiB
+     */
+    private static final int MIN_PARALLEL_COST = 256;
+
+    private ScryptEngine() {
+    }
+
+    /**
+     * Derives a key, validating the parameters the same way as BouncyCastle
+     * @param password the password bytes
+     * @param salt the salt
+     * @param n the CPU/memory cost, a power of two greater than 1
+     * @param r the block size
+     * @param p the parallelization factor
+     * @param dkLen the length of the derived key
+     * @return the derived key
+     */
+    static byte[] derive(byte[] password, byte[] salt, int n, int r, int p, int dkLen) {
+        if (password == null) {
+            throw new IllegalArgumentException("Passphrase P must be provided.");
+        }
+        var out = new byte[Math.max(dkLen, 0)];
+        derive(password, 0, password.length, salt, n, r, p, out, 0, dkLen);
+        return out;
+    }
+
+    /**
+     * Derives a key from a range of password bytes into a range of an array, validating the parameters the same way as
+     * BouncyCastle
+     * @param password the array holding the password bytes
+     * @param passwordOff the offset of the password
+     * @param passwordLength the length of the password
+     * @param salt the salt
+     * @param n the CPU/memory cost, a power of two greater than 1
+     * @param r the block size
+     * @param p the parallelization factor
+     * @param out the array receiving the derived key
+     * @param outOff the offset of the derived key in {@code out}
+     * @param dkLen the length of the derived key
+     */
+    static void derive(byte[] password, int passwordOff, int passwordLength, byte[] salt, int n, int r, int p,
+                       byte[] out, int outOff, int dkLen) {
+        derive(password, passwordOff, passwordLength, salt, n, r, p, out, outOff, dkLen, workers(n, r, p));
+    }
+
+    /**
+     * Derives a key as {@link #derive(byte[], int, int, byte[], int, int, int, byte[], int, int)} does, mixing the
+     * chains on the given number of threads
+     * @param password the array holding the password bytes
+     * @param passwordOff the offset of the password
+     * @param passwordLength the length of the password
+     * @param salt the salt
+     * @param n the CPU/memory cost, a power of two greater than 1
+     * @param r the block size
+     * @param p the parallelization factor
+     * @param out the array receiving the derived key
+     * @param outOff the offset of the derived key in {@code out}
+     * @param dkLen the length of the derived key
+     * @param workers the number of threads, the caller's included, that mix chains
+     */
+    static void derive(byte[] password, int passwordOff, int passwordLength, byte[] salt, int n, int r, int p,
+                       byte[] out, int outOff, int dkLen, int workers) {
+        if (password == null) {
+            throw new IllegalArgumentException("Passphrase P must be provided.");
+        }
+        if (salt == null) {
+            throw new IllegalArgumentException("Salt S must be provided.");
+        }
+        if (n <= 1 || (n & (n - 1)) != 0) {
+            throw new IllegalArgumentException("Cost parameter N must be > 1 and a power of 2");
+        }
+        if (r == 1 && n >= 65536) {
+            throw new IllegalArgumentException("Cost parameter N must be > 1 and < 65536.");
+        }
+        if (r < 1) {
+            throw new IllegalArgumentException("Block size r must be >= 1.");
+        }
+        var maxParallel = Integer.MAX_VALUE / (128 * r * 8);
+        if (p < 1 || p > maxParallel) {
+            throw new IllegalArgumentException("Parallelisation parameter p must be >= 1 and <= " + maxParallel
+                    + " (based on block size r of " + r + ")");
+        }
+        if (dkLen < 1) {
+            throw new IllegalArgumentException("Generated key length dkLen must be >= 1.");
+        }
+        var areaLength = areaLength(n, r);
+        if (areaLength > MAX_ARRAY_LENGTH) {
+            throw new IllegalArgumentException("scrypt memory must not exceed " + (MAX_ARRAY_LENGTH * 8L) + " bytes");
+        }
+
+        var b = new byte[p * 128 * r];
+        try {
+            Pbkdf2Engine.derive(PBKDF2.Algorithm.HMAC_SHA256, password, passwordOff, passwordLength, salt, 1,
+                    b, 0, b.length);
+            if (workers > 1) {
+                var tasks = new ForkJoinTask<?>[workers];
+                for (int worker = 1; worker < workers; worker++) {
+                    var first = worker;
+                    tasks[worker] = KdfPool.get().submit(() -> mixChains(b, first, workers, n, r, p));
+                }
+                try {
+                    mixChains(b, 0, workers, n, r, p);
+                } finally {
+                    // the other workers still write to b, so wait for them before it is wiped
+                    for (int worker = 1; worker < workers; worker++) {
+                        tasks[worker].quietlyJoin();
+                    }
+                }
+                for (int worker = 1; worker < workers; worker++) {
+                    tasks[worker].join();
+                }
+            } else {
+                mixChains(b, 0, 1, n, r, p);
+            }
+            Pbkdf2Engine.derive(PBKDF2.Algorithm.HMAC_SHA256, password, passwordOff, passwordLength, b, 1,
+                    out, outOff, dkLen);
+        } finally {
+            Arrays.fill(b, (byte) 0);
+        }
+    }
+
+    /**
+     * Runs ROMix on every {@code step}-th chain starting at {@code first}, in a working area borrowed for the purpose
+     * @param b the concatenated chain blocks
+     * @param first the first chain
+     * @param step the distance between chains
+     * @param n the CPU/memory cost
+     * @param r the block size
+     * @param p the parallelization factor
+     */
+    private static void mixChains(byte[] b, int first, int step, int n, int r, int p) {
+        var blockBytes = 128 * r;
+        var blockLongs = 16 * r;
+        var x = n * blockLongs;
+        var areaLength = (int) areaLength(n, r);
+        var area = LongArrayPool.shared().acquire(areaLength);
+        try {
+            for (int chain = first; chain < p; chain += step) {
+                Pack.littleEndianToLong(b, chain * blockBytes, area, x, blockLongs);
+                smix(area, n, r);
+                Pack.longToLittleEndian(area, x, blockLongs, b, chain * blockBytes);
+            }
+        } finally {
+            LongArrayPool.shared().release(area, areaLength);
+        }
+    }
+
+    /**
+     * Chooses the number of threads that mix chains: one per chain up to the size of the {@link KdfPool}, or just the
+     * caller when the chains are too cheap to share
+     * @param n the CPU/memory cost
+     * @param r the block size
+     * @param p the parallelization factor
+     * @return the number of threads, the caller's included
+     */
+    static int workers(int n, int r, int p) {
+        if (p == 1 || (long) n * r < MIN_PARALLEL_COST || !KdfPool.isParallel()) {
+            return 1;
+        }
+        return Math.min(p, KdfPool.get().getParallelism());
+    }
+
+    /**
+     * Computes the memory a derivation uses, including the rounding to a pool size class and one area per thread
+     * @param n the CPU/memory cost
+     * @param r the block size
+     * @param p the parallelization factor
+     * @return the number of bytes
+     */
+    static long memoryBytes(int n, int r, int p) {
+        var areaLength = areaLength(n, r);
+        var chains = 128L * r * p;
+        var workers = workers(n, r, p);
+        if (areaLength > MAX_ARRAY_LENGTH) {
+            return workers * areaLength * Long.BYTES + chains;
+        }
+        return workers * (long) LongArrayPool.classSize((int) areaLength) * Long.BYTES + chains;
+    }
+
+    /**
+     * Computes the number of {@code long}s in the working area: N blocks of V, the X and Y blocks, and T
+     */
+    private static long areaLength(int n, int r) {
+        return (n + 2L) * 16 * r + 8;
+    }
+
+    /**
+     * Runs ROMix on the block at X, filling V on the way
+     * @param w the working area
+     * @param n the CPU/memory cost
+     * @param r the block size
+     */
+    private static void smix(long[] w, int n, int r) {
+        var blockLongs = 16 * r;
+        var x = n * blockLongs;
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(w, x, w, i * blockLongs, blockLongs);
+            blockMix(w, x, r);
+        }
+        var mask = n - 1;
+        var last = x + blockLongs - 8;
+        for (int i = 0; i < n; i++) {
+            var v = ((int) w[last] & mask) * blockLongs;
+            for (int k = 0; k < blockLongs; k++) {
+                w[x + k] ^= w[v + k];
+            }
+            blockMix(w, x, r);
+        }
+    }
+
+    /**
+     * Runs BlockMix on the block at X, using Y and T as scratch. Even sub-blocks of the output go to the first half of
+     * the block and odd ones to the second half.
+     * @param w the working area
+     * @param x the offset of X; Y follows it and T follows Y
+     * @param r the block size
+     */
+    private static void blockMix(long[] w, int x, int r) {
+        var blockLongs = 16 * r;
+        var y = x + blockLongs;
+        var t = y + blockLongs;
+        System.arraycopy(w, y - 8, w, t, 8);
+        for (int i = 0; i < 2 * r; i++) {
+            salsa20_8(w, t, x + 8 * i);
+            System.arraycopy(w, t, w, y + 8 * ((i & 1) == 0 ? i >> 1 : r + (i >> 1)), 8);
+        }
+        System.arraycopy(w, y, w, x, blockLongs);
+    }
+
+    /**
+     * Replaces T with the Salsa20/8 core of T XOR the sub-block at {@code in}
+     * @param w the working area
+     * @param t the offset of T
+     * @param in the offset of the sub-block
+     */
+    private static void salsa20_8(long[] w, int t, int in) {
+        var w0 = w[t] ^ w[in];
+        var w1 = w[t + 1] ^ w[in + 1];
+        var w2 = w[t + 2] ^ w[in + 2];
+        var w3 = w[t + 3] ^ w[in + 3];
+        var w4 = w[t + 4] ^ w[in + 4];
+        var w5 = w[t + 5] ^ w[in + 5];
+        var w6 = w[t + 6] ^ w[in + 6];
+        var w7 = w[t + 7] ^ w[in + 7];
+        int j0 = (int) w0, j1 = (int) (w0 >>> 32), j2 = (int) w1, j3 = (int) (w1 >>> 32);
+        int j4 = (int) w2, j5 = (int) (w2 >>> 32), j6 = (int) w3, j7 = (int) (w3 >>> 32);
+        int j8 = (int) w4, j9 = (int) (w4 >>> 32), j10 = (int) w5, j11 = (int) (w5 >>> 32);
+        int j12 = (int) w6, j13 = (int) (w6 >>> 32), j14 = (int) w7, j15 = (int) (w7 >>> 32);
+        int x0 = j0, x1 = j1, x2 = j2, x3 = j3, x4 = j4, x5 = j5, x6 = j6, x7 = j7;
+        int x8 = j8, x9 = j9, x10 = j10, x11 = j11, x12 = j12, x13 = j13, x14 = j14, x15 = j15;
+        for (int i = 0; i < 8; i += 2) {
+            x4 ^= Integer.rotateLeft(x0 + x12, 7);
+            x8 ^= Integer.rotateLeft(x4 + x0, 9);
+            x12 ^= Integer.rotateLeft(x8 + x4, 13);
+            x0 ^= Integer.rotateLeft(x12 + x8, 18);
+            x9 ^= Integer.rotateLeft(x5 + x1, 7);
+            x13 ^= Integer.rotateLeft(x9 + x5, 9);
+            x1 ^= Integer.rotateLeft(x13 + x9, 13);
+            x5 ^= Integer.rotateLeft(x1 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x6, 7);
+            x2 ^= Integer.rotateLeft(x14 + x10, 9);
+            x6 ^= Integer.rotateLeft(x2 + x14, 13);
+            x10 ^= Integer.rotateLeft(x6 + x2, 18);
+            x3 ^= Integer.rotateLeft(x15 + x11, 7);
+            x7 ^= Integer.rotateLeft(x3 + x15, 9);
+            x11 ^= Integer.rotateLeft(x7 + x3, 13);
+            x15 ^= Integer.rotateLeft(x11 + x7, 18);
+
+            x1 ^= Integer.rotateLeft(x0 + x3, 7);
+            x2 ^= Integer.rotateLeft(x1 + x0, 9);
+            x3 ^= Integer.rotateLeft(x2 + x1, 13);
+            x0 ^= Integer.rotateLeft(x3 + x2, 18);
+            x6 ^= Integer.rotateLeft(x5 + x4, 7);
+            x7 ^= Integer.rotateLeft(x6 + x5, 9);
+            x4 ^= Integer.rotateLeft(x7 + x6, 13);
+            x5 ^= Integer.rotateLeft(x4 + x7, 18);
+            x11 ^= Integer.rotateLeft(x10 + x9, 7);
+            x8 ^= Integer.rotateLeft(x11 + x10, 9);
+            x9 ^= Integer.rotateLeft(x8 + x11, 13);
+            x10 ^= Integer.rotateLeft(x9 + x8, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7);
+            x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13);
+            x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+        w[t] = pack(x0 + j0, x1 + j1);
+        w[t + 1] = pack(x2 + j2, x3 + j3);
+        w[t + 2] = pack(x4 + j4, x5 + j5);
+        w[t + 3] = pack(x6 + j6, x7 + j7);
+        w[t + 4] = pack(x8 + j8, x9 + j9);
+        w[t + 5] = pack(x10 + j10, x11 + j11);
+        w[t + 6] = pack(x12 + j12, x13 + j13);
+        w[t + 7] = pack(x14 + j14, x15 + j15);
+    }
+
+    private static long pack(int low, int high) {
+        return (low & 0xffffffffL) | ((long) high << 32);
+    }
+}
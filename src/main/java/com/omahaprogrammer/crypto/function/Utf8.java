@@ -0,0 +1,121 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto.function;
+
+/**
+ * Encodes passwords as UTF-8 straight into an exactly sized array, without the intermediate buffers of
+ * {@link java.nio.charset.Charset#encode(java.nio.CharBuffer)}. Unpaired surrogates are replaced by {@code '?'}, exactly
+ * as {@code StandardCharsets.UTF_8.encode} does. Character arrays are passed wrapped in a {@link java.nio.CharBuffer}.
+ */
+final class Utf8 {
+    private Utf8() {
+    }
+
+    /**
+     * Encodes a sequence of characters
+     * @param chars the characters
+     * @return the UTF-8 bytes
+     */
+    static byte[] encode(CharSequence chars) {
+        var out = new byte[encodedLength(chars)];
+        encode(chars, out, 0);
+        return out;
+    }
+
+    /**
+     * Encodes a sequence of characters, such as the remaining characters of a {@link java.nio.CharBuffer}, into an
+     * existing array
+     * @param chars the characters
+     * @param out the array receiving {@link #encodedLength(CharSequence)} bytes
+     * @param pos the index of the first byte in {@code out}
+     * @return the index after the last byte written
+     */
+    static int encode(CharSequence chars, byte[] out, int pos) {
+        var o = pos;
+        var length = chars.length();
+        for (int i = 0; i < length; i++) {
+            var c = chars.charAt(i);
+            if (c < 0x80) {
+                out[o++] = (byte) c;
+            } else if (c < 0x800) {
+                out[o++] = (byte) (0xc0 | (c >> 6));
+                out[o++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                    var cp = Character.toCodePoint(c, chars.charAt(++i));
+                    out[o++] = (byte) (0xf0 | (cp >> 18));
+                    out[o++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                    out[o++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                    out[o++] = (byte) (0x80 | (cp & 0x3f));
+                } else {
+                    out[o++] = '?';
+                }
+            } else {
+                out[o++] = (byte) (0xe0 | (c >> 12));
+                out[o++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                out[o++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        return o;
+    }
+
+    /**
+     * Determines whether a sequence of characters holds a surrogate that is not part of a pair
+     * @param chars the characters
+     * @return whether any surrogate is unpaired
+     */
+    static boolean hasUnpairedSurrogate(CharSequence chars) {
+        var length = chars.length();
+        for (int i = 0; i < length; i++) {
+            var c = chars.charAt(i);
+            if (Character.isSurrogate(c)) {
+                if (!Character.isHighSurrogate(c) || i + 1 == length || !Character.isLowSurrogate(chars.charAt(i + 1))) {
+                    return true;
+                }
+                i++;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes the length of the encoding of a sequence of characters
+     * @param chars the characters
+     * @return the number of UTF-8 bytes
+     */
+    static int encodedLength(CharSequence chars) {
+        var length = 0;
+        var count = chars.length();
+        for (int i = 0; i < count; i++) {
+            var c = chars.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                    i++;
+                    length += 4;
+                } else {
+                    length++;
+                }
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto.function;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The Argon2 compression function on the Vector API. A BlaMka round mixes sixteen words first in columns and then in
+ * diagonals; with the words held in vectors of four lanes, every mix of a step runs as one lanewise operation.
+ * <p>
+ * A row round holds its sixteen words as four vectors, so the column mixes pair up lanes directly and the diagonal
+ * mixes pair up after rotating the lanes of the second, third and fourth vectors. A column round uses two words from
+ * each of the eight rows, and two neighbouring column rounds together use four contiguous words of each row, so they
+ * run as one step over eight vectors; the diagonals then pair lanes across two rows, which a blend and a swap within
+ * each pair of lanes line up. Every load and store is contiguous.
+ * <p>
+ * Each step loads its vectors from the block and stores them back, because C2 boxes vectors once a compiled method
+ * outgrows its inlining budget, and a whole round in one method does.
+ * <p>
+ * This class is only compiled for Java 17 and later and is loaded reflectively by {@link Argon2BlockFunction#vector()}.
+ */
+final class VectorArgon2BlockFunction extends Argon2BlockFunction {
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_256;
+    private static final LongVector LOW_MASK = LongVector.broadcast(SPECIES, 0xFFFFFFFFL);
+
+    /**
+     * Lane rotations lining up the diagonals of a row round
+     */
+    private static final VectorShuffle<Long> ROTATE_1 = VectorShuffle.fromValues(SPECIES, 1, 2, 3, 0);
+    private static final VectorShuffle<Long> ROTATE_2 = VectorShuffle.fromValues(SPECIES, 2, 3, 0, 1);
+    private static final VectorShuffle<Long> ROTATE_3 = VectorShuffle.fromValues(SPECIES, 3, 0, 1, 2);
+
+    /**
+     * Swaps the lanes of each pair; with the masks it lines up the diagonals of two column rounds
+     */
+    private static final VectorShuffle<Long> SWAP = VectorShuffle.fromValues(SPECIES, 1, 0, 3, 2);
+    private static final VectorMask<Long> ODD = VectorMask.fromValues(SPECIES, false, true, false, true);
+    private static final VectorMask<Long> EVEN = ODD.not();
+
+    /**
+     * The first words of the column steps of the column rounds: two for each pair of columns, starting in the first and
+     * in the second row. The even rows hold words 0, 1, 4, 5, 8, 9, 12 and 13 of each round, the odd rows the others.
+     */
+    private static final int[] COLUMN_OFFSETS = {0, 16, 4, 20, 8, 24, 12, 28};
+
+    @Override
+    void fill(long[] x, int xOff, long[] y, int yOff, long[] dst, int dstOff, boolean withXor, long[] scratch) {
+        for (int i = 0; i < QWORDS_IN_BLOCK; i += 4) {
+            LongVector.fromArray(SPECIES, x, xOff + i)
+                    .lanewise(VectorOperators.XOR, LongVector.fromArray(SPECIES, y, yOff + i))
+                    .intoArray(scratch, i);
+        }
+        // the rows are independent of each other, and so are the pairs of columns, so each step runs on all of them
+        // before the next
+        for (int o = 0; o < QWORDS_IN_BLOCK; o += 16) {
+            mix(scratch, o, 4);
+        }
+        for (int o = 0; o < QWORDS_IN_BLOCK; o += 16) {
+            mixRotated(scratch, o);
+        }
+        for (var o : COLUMN_OFFSETS) {
+            mix(scratch, o, 32);
+        }
+        for (int i = 0; i < 8; i++) {
+            // the partners of the first row are in the third and fourth, the sixth and the eighth and seventh rows;
+            // those of the second row in the fourth and third, the fifth and the seventh and eighth rows
+            var o = (i >> 1) * 4;
+            var odd = (i & 1) * 16;
+            mixCrossed(scratch, o + odd, o + 32 + odd, o + 48 - odd, o + 80 - odd, o + 112 - odd, o + 96 + odd);
+        }
+        for (int i = 0; i < QWORDS_IN_BLOCK; i += 4) {
+            var r = LongVector.fromArray(SPECIES, x, xOff + i)
+                    .lanewise(VectorOperators.XOR, LongVector.fromArray(SPECIES, y, yOff + i))
+                    .lanewise(VectorOperators.XOR, LongVector.fromArray(SPECIES, scratch, i));
+            if (withXor) {
+                r = r.lanewise(VectorOperators.XOR, LongVector.fromArray(SPECIES, dst, dstOff + i));
+            }
+            r.intoArray(dst, dstOff + i);
+        }
+    }
+
+    /**
+     * Mixes four vectors lane by lane
+     * @param v the block
+     * @param aOff the offset of the first vector
+     * @param stride the distance between the vectors
+     */
+    private static void mix(long[] v, int aOff, int stride) {
+        var bOff = aOff + stride;
+        var cOff = bOff + stride;
+        var dOff = cOff + stride;
+        var a = LongVector.fromArray(SPECIES, v, aOff);
+        var b = LongVector.fromArray(SPECIES, v, bOff);
+        var c = LongVector.fromArray(SPECIES, v, cOff);
+        var d = LongVector.fromArray(SPECIES, v, dOff);
+        a = blaMka(a, b);
+        d = xorRotate(d, a, 32);
+        c = blaMka(c, d);
+        b = xorRotate(b, c, 24);
+        a = blaMka(a, b);
+        d = xorRotate(d, a, 16);
+        c = blaMka(c, d);
+        b = xorRotate(b, c, 63);
+        a.intoArray(v, aOff);
+        b.intoArray(v, bOff);
+        c.intoArray(v, cOff);
+        d.intoArray(v, dOff);
+    }
+
+    /**
+     * Mixes the diagonals of one row
+     * @param v the block
+     * @param o the offset of the row
+     */
+    private static void mixRotated(long[] v, int o) {
+        var a = LongVector.fromArray(SPECIES, v, o);
+        var b = LongVector.fromArray(SPECIES, v, o + 4).rearrange(ROTATE_1);
+        var c = LongVector.fromArray(SPECIES, v, o + 8).rearrange(ROTATE_2);
+        var d = LongVector.fromArray(SPECIES, v, o + 12).rearrange(ROTATE_3);
+        a = blaMka(a, b);
+        d = xorRotate(d, a, 32);
+        c = blaMka(c, d);
+        b = xorRotate(b, c, 24);
+        a = blaMka(a, b);
+        d = xorRotate(d, a, 16);
+        c = blaMka(c, d);
+        b = xorRotate(b, c, 63);
+        a.intoArray(v, o);
+        b.rearrange(ROTATE_3).intoArray(v, o + 4);
+        c.rearrange(ROTATE_2).intoArray(v, o + 8);
+        d.rearrange(ROTATE_1).intoArray(v, o + 12);
+    }
+
+    /**
+     * Mixes half of the diagonals of two neighbouring column rounds, those starting in one of the first two rows. The
+     * second and fourth vectors each take their lanes from two rows, and the words of the other half are written back
+     * unchanged.
+     * @param v the block
+     * @param aOff the offset of the first vector
+     * @param bOff the row supplying the odd lanes of the second vector
+     * @param bOther the row supplying its even lanes
+     * @param cOff the offset of the third vector
+     * @param dOff the row supplying the odd lanes of the fourth vector
+     * @param dOther the row supplying its even lanes
+     */
+    private static void mixCrossed(long[] v, int aOff, int bOff, int bOther, int cOff, int dOff, int dOther) {
+        var bx = LongVector.fromArray(SPECIES, v, bOff);
+        var by = LongVector.fromArray(SPECIES, v, bOther);
+        var dx = LongVector.fromArray(SPECIES, v, dOff);
+        var dy = LongVector.fromArray(SPECIES, v, dOther);
+        var a = LongVector.fromArray(SPECIES, v, aOff);
+        var b = interleave(bx, by);
+        var c = LongVector.fromArray(SPECIES, v, cOff);
+        var d = interleave(dx, dy);
+        a = blaMka(a, b);
+        d = xorRotate(d, a, 32);
+        c = blaMka(c, d);
+        b = xorRotate(b, c, 24);
+        a = blaMka(a, b);
+        d = xorRotate(d, a, 16);
+        c = blaMka(c, d);
+        b = xorRotate(b, c, 63);
+        a.intoArray(v, aOff);
+        c.intoArray(v, cOff);
+        b = b.rearrange(SWAP);
+        d = d.rearrange(SWAP);
+        bx.blend(b, ODD).intoArray(v, bOff);
+        by.blend(b, EVEN).intoArray(v, bOther);
+        dx.blend(d, ODD).intoArray(v, dOff);
+        dy.blend(d, EVEN).intoArray(v, dOther);
+    }
+
+    /**
+     * Takes the odd lane of each pair of {@code x} and the even lane of the same pair of {@code y}, swapped into
+     * place: {@code (x[1], y[0], x[3], y[2])}
+     */
+    private static LongVector interleave(LongVector x, LongVector y) {
+        return y.blend(x, ODD).rearrange(SWAP);
+    }
+
+    /**
+     * The BlaMka addition on every lane: {@code x + y + 2 * lo(x) * lo(y)}
+     */
+    private static LongVector blaMka(LongVector x, LongVector y) {
+        var product = x.and(LOW_MASK).mul(y.and(LOW_MASK));
+        return x.add(y).add(product).add(product);
+    }
+
+    /**
+     * Rotates {@code x ^ y} right on every lane. The rotation is spelled out as two shifts because JDK 17 does not
+     * intrinsify {@code ROR} on longs.
+     */
+    private static LongVector xorRotate(LongVector x, LongVector y, int distance) {
+        var v = x.lanewise(VectorOperators.XOR, y);
+        return v.lanewise(VectorOperators.LSHR, distance).or(v.lanewise(VectorOperators.LSHL, 64 - distance));
+    }
+}
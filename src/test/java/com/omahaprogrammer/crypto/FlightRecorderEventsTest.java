@@ -0,0 +1,95 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import com.omahaprogrammer.crypto.function.Argon2id;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Records the events with a real recording. The tests are compiled for a release without {@code jdk.jfr}, so they drive
+ * the recorder reflectively, and they are skipped on a JVM without it.
+ */
+public class FlightRecorderEventsTest {
+    @Test
+    public void testEvents() throws Exception {
+        assumeTrue(FlightRecorderEvents.isAvailable());
+        var recordingClass = Class.forName("jdk.jfr.Recording");
+        var recording = recordingClass.getConstructor().newInstance();
+        for (var name : List.of("Parse", "Validate", "Protect")) {
+            var settings = recordingClass.getMethod("enable", String.class)
+                    .invoke(recording, "com.omahaprogrammer.crypto." + name);
+            settings.getClass().getMethod("withoutThreshold").invoke(settings);
+        }
+        recordingClass.getMethod("start").invoke(recording);
+        var phc = PHC.builder(Argon2id.getInstance())
+                .withParam(Argon2id.M, 64)
+                .withParam(Argon2id.T, 1)
+                .withParam(Argon2id.P, 1)
+                .withRandomSalt()
+                .protect("password".toCharArray(), 16);
+        var parsed = PHC.<Argon2id>parse(phc.toString());
+        assertFalse(parsed.validate("wrong".toCharArray()));
+        assertFalse(PHC.tryParse("$argon2id$m=64$c2FsdA$!").isPresent());
+        recordingClass.getMethod("stop").invoke(recording);
+
+        var file = Files.createTempFile("phc", ".jfr");
+        try {
+            recordingClass.getMethod("dump", Path.class).invoke(recording, file);
+            var events = (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile")
+                    .getMethod("readAllEvents", Path.class).invoke(null, file);
+            var found = new HashMap<String, Object>();
+            for (var event : events) {
+                var type = event.getClass().getMethod("getEventType").invoke(event);
+                var name = (String) type.getClass().getMethod("getName").invoke(type);
+                var outcome = get(event, "outcome");
+                found.put(name.substring(name.lastIndexOf('.') + 1) + ":" + outcome, event);
+            }
+            assertEquals(found.keySet().toString(), 4, found.size());
+            var protect = found.get("Protect:" + FlightRecorderEvents.PROTECTED);
+            assertEquals("argon2id", get(protect, "function"));
+            assertEquals(64, get(protect, "m"));
+            assertEquals(1, get(protect, "t"));
+            assertEquals(0, get(protect, "N"));
+            assertEquals(16, get(protect, "length"));
+            assertEquals(64, get(found.get("Parse:" + FlightRecorderEvents.PARSED), "m"));
+            assertEquals("argon2id", get(found.get("Validate:" + FlightRecorderEvents.INVALID), "function"));
+            assertNull(get(found.get("Parse:" + PHCParser.UNPARSEABLE), "function"));
+        } finally {
+            recordingClass.getMethod("close").invoke(recording);
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testNotRecording() {
+        // without a running recording the hooks must stay out of the way
+        var phc = PHC.parse("$pbkdf2$alg=HmacSHA256,c=1$c2FsdHNhbHQ$aGFzaGhhc2hoYXNoaGFzaA");
+        assertFalse(phc.validate("password".toCharArray()));
+        FlightRecorderEvents.commit(null, null, null, 0, FlightRecorderEvents.FAILED);
+    }
+
+    private static Object get(Object event, String field) throws ReflectiveOperationException {
+        return event.getClass().getMethod("getValue", String.class).invoke(event, field);
+    }
+}
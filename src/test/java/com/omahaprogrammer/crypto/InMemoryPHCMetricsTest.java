@@ -0,0 +1,127 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto;
+
+import static org.junit.Assert.*;
+
+import com.omahaprogrammer.crypto.PHCMetrics.Phase;
+import com.omahaprogrammer.crypto.function.PBKDF2;
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+public class InMemoryPHCMetricsTest {
+    private static final String PARAMETER_SET = "$pbkdf2$alg=HmacSHA256,c=1000";
+
+    @After
+    public void tearDown() {
+        PHCMetrics.setGlobal(null);
+    }
+
+    @Test
+    public void testPhases() {
+        var metrics = new InMemoryPHCMetrics();
+        PHCMetrics.setGlobal(metrics);
+        var phc = PHC.builder(PBKDF2.getInstance())
+                .withParam(PBKDF2.ALG, PBKDF2.Algorithm.HMAC_SHA256)
+                .withParam(PBKDF2.C, 1000)
+                .withRandomSalt()
+                .protect("password".toCharArray());
+        var parsed = PHC.<PBKDF2>parse(phc.toString());
+        assertTrue(parsed.validate("password".toCharArray()));
+        assertFalse(parsed.validate("wrong".toCharArray()));
+        parsed.toString();
+        parsed.toString();
+        assertFalse(PHC.tryParse("$unknown$c2FsdA").isPresent());
+
+        assertEquals(3, metrics.getHistogram(Phase.HASH, PARAMETER_SET).get().getCount());
+        assertEquals(2, metrics.getHistogram(Phase.COMPARE, PARAMETER_SET).get().getCount());
+        assertEquals(1, metrics.getHistogram(Phase.PARSE, PARAMETER_SET).get().getCount());
+        assertEquals(1, metrics.getHistogram(Phase.PARSE, InMemoryPHCMetrics.INVALID).get().getCount());
+        assertEquals(2, metrics.getCount(Phase.FORMAT));
+        assertEquals(2, metrics.getCount(Phase.PARSE));
+        assertEquals("pbkdf2", metrics.getHistogram(Phase.HASH, PARAMETER_SET).get().getFunctionId());
+        assertNull(metrics.getHistogram(Phase.PARSE, InMemoryPHCMetrics.INVALID).get().getFunctionId());
+        assertEquals(0, metrics.getInFlight());
+        assertEquals(5, metrics.getHistograms().size());
+
+        metrics.reset();
+        assertTrue(metrics.getHistograms().isEmpty());
+        PHCMetrics.setGlobal(null);
+        assertSame(PHCMetrics.noop(), PHCMetrics.getGlobal());
+        parsed.validate("password".toCharArray());
+        assertTrue(metrics.getHistograms().isEmpty());
+    }
+
+    @Test
+    public void testQueued() {
+        var metrics = new InMemoryPHCMetrics();
+        PHCMetrics.setGlobal(metrics);
+        var phc = PHC.<PBKDF2>parse("$pbkdf2$alg=HmacSHA256,c=1$c2FsdHNhbHQ$aGFzaGhhc2hoYXNoaGFzaA");
+        var tasks = new ArrayList<Runnable>();
+        Executor executor = tasks::add;
+        var first = phc.validateAsync("password".toCharArray(), executor);
+        var second = phc.validateAsync("password".toCharArray(), executor);
+        assertEquals(2, metrics.getQueued());
+        tasks.get(0).run();
+        assertEquals(1, metrics.getQueued());
+        tasks.get(1).run();
+        assertEquals(0, metrics.getQueued());
+        assertFalse(first.join());
+        assertFalse(second.join());
+
+        var cancelled = phc.validateAsync("password".toCharArray(), executor);
+        assertEquals(1, metrics.getQueued());
+        assertTrue(cancelled.cancel(true));
+        tasks.get(2).run();
+        assertEquals(0, metrics.getQueued());
+        assertEquals(0, metrics.getInFlight());
+
+        Executor rejecting = task -> {
+            throw new IllegalStateException("rejected");
+        };
+        assertTrue(phc.validateAsync("password".toCharArray(), rejecting).isCompletedExceptionally());
+        assertEquals(0, metrics.getQueued());
+    }
+
+    @Test
+    public void testHistogram() {
+        var metrics = new InMemoryPHCMetrics();
+        var function = PBKDF2.getInstance();
+        var params = Map.of(PBKDF2.C, 1000);
+        for (long nanos = 1; nanos <= 100; nanos++) {
+            metrics.record(Phase.HASH, function, params, nanos * 1000);
+        }
+        metrics.hashStarted(function, params);
+        var histogram = metrics.getHistograms().get(0);
+        assertEquals("$pbkdf2$c=1000", histogram.getParameterSet());
+        assertEquals(100, histogram.getCount());
+        assertEquals(Duration.ofNanos(50500), histogram.getMean());
+        assertEquals(Duration.ofNanos(100000), histogram.getMax());
+        assertEquals(Duration.ofNanos(65535), histogram.getPercentile(50));
+        assertEquals(Duration.ofNanos(100000), histogram.getPercentile(100));
+        assertEquals(Duration.ofNanos(1023), histogram.getPercentile(0));
+        assertEquals(-99, metrics.getInFlight());
+        assertEquals(1, InMemoryPHCMetrics.bucket(1));
+        assertEquals(2, InMemoryPHCMetrics.bucket(3));
+        assertEquals(63, InMemoryPHCMetrics.bucket(Long.MAX_VALUE));
+        assertEquals(0, InMemoryPHCMetrics.bucket(0));
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto;
+
+import static org.junit.Assert.*;
+
+import com.omahaprogrammer.crypto.function.*;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+public class MemoryAdmissionControllerTest {
+    @Test
+    public void testAdmission() {
+        var controller = MemoryAdmissionController.builder(100).withMaxWait(Duration.ZERO).build();
+        try (var a = controller.acquire(60); var b = controller.acquire(40)) {
+            assertEquals(100, controller.getInUse());
+            try {
+                controller.acquire(1);
+                fail();
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            a.close();
+            a.close();
+            assertEquals(40, controller.getInUse());
+        }
+        assertEquals(0, controller.getInUse());
+        try {
+            controller.acquire(101);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testTimeout() {
+        var controller = MemoryAdmissionController.builder(100).withMaxWait(Duration.ofMillis(20)).build();
+        try (var a = controller.acquire(100)) {
+            var start = System.nanoTime();
+            try {
+                controller.acquire(1);
+                fail();
+            } catch (IllegalStateException e) {
+                assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+            }
+            assertEquals(0, controller.getQueued());
+            assertEquals(0, controller.getQueuedRequests());
+        }
+    }
+
+    @Test
+    public void testFifo() throws Exception {
+        var controller = MemoryAdmissionController.builder(100).build();
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        var first = controller.acquire(100);
+        var large = new Thread(() -> {
+            try (var p = controller.acquire(80)) {
+                order.add(80);
+            }
+        });
+        large.start();
+        while (controller.getQueuedRequests() < 1) {
+            Thread.sleep(1);
+        }
+        var small = new Thread(() -> {
+            try (var p = controller.acquire(30)) {
+                order.add(30);
+            }
+        });
+        small.start();
+        while (controller.getQueuedRequests() < 2) {
+            Thread.sleep(1);
+        }
+        assertEquals(110, controller.getQueued());
+        first.close();
+        large.join();
+        small.join();
+        assertEquals(List.of(80, 30), order);
+        assertEquals(0, controller.getInUse());
+        assertEquals(0, controller.getQueued());
+    }
+
+    @Test
+    public void testEstimates() {
+        var argon2 = Map.<PHCFunction.Param<Argon2id, ?>, Object>of(Argon2id.M, 19456, Argon2id.T, 2, Argon2id.P, 1);
+        assertTrue(Argon2id.getInstance().estimateMemory(argon2) >= 19456L * 1024);
+        assertEquals(0, Argon2id.getInstance().estimateMemory(Map.of()));
+        var scrypt = Map.<PHCFunction.Param<SCrypt, ?>, Object>of(SCrypt.N, 16, SCrypt.R, 8, SCrypt.P, 1);
+        assertEquals(2560L * 8 + 128 * 8, SCrypt.getInstance().estimateMemory(scrypt));
+        assertEquals(0, PBKDF2.getInstance().estimateMemory(Map.of(PBKDF2.C, 1000)));
+    }
+
+    @Test
+    public void testGlobal() {
+        var phc = PHC.builder(Argon2id.getInstance())
+                .withParam(Argon2id.M, 64)
+                .withParam(Argon2id.T, 1)
+                .withParam(Argon2id.P, 1)
+                .withRandomSalt()
+                .protect("password".toCharArray());
+        MemoryAdmissionController.setGlobal(MemoryAdmissionController.builder(1024).build());
+        try {
+            phc.validate("password".toCharArray());
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        } finally {
+            MemoryAdmissionController.setGlobal(null);
+        }
+        var controller = MemoryAdmissionController.builder(1L << 20).build();
+        MemoryAdmissionController.setGlobal(controller);
+        try {
+            assertTrue(phc.validate("password".toCharArray()));
+            assertEquals(0, controller.getInUse());
+        } finally {
+            MemoryAdmissionController.setGlobal(null);
+        }
+    }
+
+    @Test
+    public void testBatchUsesGlobal() {
+        var builder = PHC.builder(Argon2id.getInstance())
+                .withParam(Argon2id.M, 64)
+                .withParam(Argon2id.T, 1)
+                .withParam(Argon2id.P, 1);
+        var passwords = List.of("a".toCharArray(), "b".toCharArray(), "c".toCharArray(), "d".toCharArray());
+        var phcs = builder.protectAll(passwords);
+        var memory = Argon2id.getInstance().estimateMemory(
+                Map.<PHCFunction.Param<Argon2id, ?>, Object>of(Argon2id.M, 64, Argon2id.T, 1, Argon2id.P, 1));
+        // room for one hash at a time; reserving a batch permit from it as well would never fit
+        var controller = MemoryAdmissionController.builder(memory).build();
+        MemoryAdmissionController.setGlobal(controller);
+        try {
+            var results = PHC.validateAll(phcs, passwords);
+            for (var valid : results) {
+                assertTrue(valid);
+            }
+            assertEquals(0, controller.getInUse());
+        } finally {
+            MemoryAdmissionController.setGlobal(null);
+        }
+    }
+}
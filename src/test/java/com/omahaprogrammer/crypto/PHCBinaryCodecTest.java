@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.omahaprogrammer.crypto;
+
+import static org.junit.Assert.*;
+
+import com.omahaprogrammer.crypto.function.*;
+import org.junit.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class PHCBinaryCodecTest {
+    private static final String[] STRINGS = {
+            "$pbkdf2$alg=HmacSHA3-512,c=600000$c2FsdHNhbHQ$aGFzaGhhc2hoYXNoaGFzaA",
+            "$argon2id$m=19456,t=2,p=1,keyid=a2V5,data=ZGF0YWRhdGE$c2FsdHNhbHQ$aGFzaGhhc2hoYXNoaGFzaA",
+            "$argon2i$m=65536,t=3,p=4$c2FsdHNhbHQ",
+            "$argon2d$m=64",
+            "$bcrypt$c=12$AAAAAAAAAAAAAAAAAAAAAA$AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA",
+            "$scrypt$c2FsdA$aGFzaA",
+            "$scrypt",
+    };
+
+    @Test
+    public void testRoundTrip() {
+        for (var string : STRINGS) {
+            var phc = PHC.parse(string);
+            var bytes = phc.encode();
+            assertEquals(string, phc.getEncodedLength(), bytes.length);
+            var decoded = PHC.decode(bytes);
+            assertEquals(string, phc, decoded);
+            assertEquals(string, string, decoded.toString());
+            assertTrue(string, bytes.length < string.length());
+        }
+
+        var scrypt = PHC.builder(SCrypt.getInstance())
+                .withParam(SCrypt.N, 16).withParam(SCrypt.R, 8).withParam(SCrypt.P, 1)
+                .withSalt(new byte[16])
+                .build();
+        assertEquals(scrypt, PHC.decode(scrypt.encode()));
+    }
+
+    @Test
+    public void testLayout() {
+        var bytes = PHC.parse("$pbkdf2$alg=HmacSHA256,c=1000$AQID$BAU").encode();
+        var expected = new byte[] {
+                1, 4, 2,
+                0, 2,
+                1, (byte) 0xd0, 0x0f,
+                4, 1, 2, 3,
+                3, 4, 5
+        };
+        assertArrayEquals(expected, bytes);
+    }
+
+    @Test
+    public void testBuffers() {
+        var buffer = ByteBuffer.allocateDirect(1024);
+        for (var string : STRINGS) {
+            PHC.parse(string).encode(buffer);
+        }
+        buffer.flip();
+        for (var string : STRINGS) {
+            assertEquals(string, PHC.decode(buffer).toString());
+        }
+        assertFalse(buffer.hasRemaining());
+
+        var phc = PHC.parse(STRINGS[0]);
+        var small = ByteBuffer.allocate(phc.getEncodedLength() - 1);
+        try {
+            phc.encode(small);
+            fail();
+        } catch (BufferOverflowException e) {
+            assertEquals(0, small.position());
+        }
+    }
+
+    @Test
+    public void testInvalid() {
+        var valid = PHC.parse(STRINGS[0]).encode();
+        for (int length = 0; length < valid.length; length++) {
+            var buffer = ByteBuffer.wrap(Arrays.copyOf(valid, length));
+            try {
+                PHC.decode(buffer);
+                fail("length " + length);
+            } catch (IllegalArgumentException e) {
+                assertEquals(0, buffer.position());
+            }
+        }
+        assertInvalid(PHCBinaryCodec.MALFORMED, Arrays.copyOf(valid, valid.length + 1));
+        assertInvalid(PHCBinaryCodec.UNSUPPORTED_VERSION, new byte[] {2, 4, 0, 0, 0});
+        assertInvalid(PHCBinaryCodec.UNKNOWN_FUNCTION, new byte[] {1, 0, 0, 0, 0});
+        assertInvalid(PHCBinaryCodec.UNKNOWN_FUNCTION, new byte[] {1, 7, 0, 0, 0});
+        // parameters out of order, repeated, or unknown
+        assertInvalid(PHCBinaryCodec.MALFORMED, new byte[] {1, 4, 2, 1, 2, 0, 2, 0, 0});
+        assertInvalid(PHCBinaryCodec.MALFORMED, new byte[] {1, 4, 2, 1, 2, 1, 2, 0, 0});
+        assertInvalid(PHCBinaryCodec.MALFORMED, new byte[] {1, 5, 1, 1, 2, 0, 0});
+        // a redundant varint group
+        assertInvalid(PHCBinaryCodec.MALFORMED, new byte[] {1, 4, 1, 1, (byte) 0x82, 0, 0, 0});
+        // a hash without a salt
+        assertInvalid(PHCBinaryCodec.MALFORMED, new byte[] {1, 4, 0, 0, 1});
+        // an unknown algorithm and a cost out of range
+        assertInvalid(PHCBinaryCodec.INVALID_PARAMETER, new byte[] {1, 4, 1, 0, 9, 0, 0});
+        assertInvalid(PHCBinaryCodec.INVALID_PARAMETER, new byte[] {1, 5, 1, 0, 2, 0, 0});
+    }
+
+    private static void assertInvalid(String message, byte[] bytes) {
+        try {
+            PHC.decode(bytes);
+            fail(Arrays.toString(bytes));
+        } catch (IllegalArgumentException e) {
+            assertEquals(Arrays.toString(bytes), message, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto;
+
+import static org.junit.Assert.*;
+
+import com.omahaprogrammer.crypto.function.PBKDF2;
+import org.junit.Test;
+
+public class PHCCacheTest {
+    private static final String PHC_STRING = "$pbkdf2$alg=HmacSHA256,c=1000$c2FsdHNhbHQ$aGFzaGhhc2hoYXNoaGFzaA";
+
+    @Test
+    public void testHitsAndMisses() {
+        var cache = PHCCache.builder().build();
+        PHC<PBKDF2> first = cache.parse(PHC_STRING);
+        PHC<PBKDF2> second = cache.parse(PHC_STRING);
+        assertSame(first, second);
+        assertEquals(PHC.parse(PHC_STRING), first);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        cache.invalidate(PHC_STRING);
+        assertNotSame(first, cache.parse(PHC_STRING));
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testRejectsInvalid() {
+        var cache = PHCCache.builder().build();
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.parse("$unknown$c2FsdA");
+                fail();
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testEviction() {
+        var cache = PHCCache.builder().withMaxEntries(4).withSegments(1).build();
+        for (int c = 1; c <= 5; c++) {
+            cache.parse("$pbkdf2$alg=HmacSHA256,c=" + c + "$c2FsdA$aGFzaA");
+        }
+        assertEquals(4, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+
+        var striped = PHCCache.builder().withMaxEntries(64).withSegments(8).build();
+        for (int c = 1; c <= 1000; c++) {
+            striped.parse("$pbkdf2$alg=HmacSHA256,c=" + c + "$c2FsdA$aGFzaA");
+        }
+        assertTrue(striped.size() <= 64);
+        assertEquals(1000 - striped.size(), striped.getEvictionCount());
+        striped.invalidateAll();
+        assertEquals(0, striped.size());
+    }
+
+    @Test
+    public void testUnevenBound() {
+        for (int maxEntries = 1; maxEntries <= 20; maxEntries++) {
+            var cache = PHCCache.builder().withMaxEntries(maxEntries).withSegments(8).build();
+            for (int c = 1; c <= 500; c++) {
+                cache.parse("$pbkdf2$alg=HmacSHA256,c=" + c + "$c2FsdA$aGFzaA");
+                assertTrue(cache.size() <= maxEntries);
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto;
+
+import static org.junit.Assert.*;
+
+import com.omahaprogrammer.crypto.function.*;
+import org.junit.Test;
+
+import java.time.Duration;
+
+public class PHCCalibratorTest {
+    private static <T extends PHCFunction<T>> void assertConsistent(PHCCalibrator.Result<T> result, Duration target) {
+        assertFalse(result.getCurve().isEmpty());
+        var chosen = result.getCurve().stream()
+                .filter(sample -> sample.getParams().equals(result.getParams()))
+                .findFirst()
+                .orElseThrow();
+        assertEquals(chosen.getLatency(), result.getLatency());
+        // on a noisy machine even the cheapest parameters can miss the target, and then they are chosen anyway
+        if (result.getCurve().stream().anyMatch(sample -> sample.getLatency().compareTo(target) <= 0)) {
+            assertTrue(result.getLatency().compareTo(target) <= 0);
+        }
+        var phc = result.getBuilder().withRandomSalt().protect("password".toCharArray());
+        assertTrue(phc.validate("password".toCharArray()));
+    }
+
+    @Test
+    public void testPbkdf2() {
+        var target = Duration.ofMillis(5);
+        var result = PHCCalibrator.builder().withTargetLatency(target).withSamples(1).build()
+                .calibrate(PBKDF2.getInstance());
+        assertConsistent(result, target);
+        assertTrue((Integer) result.getParams().get(PBKDF2.C) >= 1000);
+    }
+
+    @Test
+    public void testBCrypt() {
+        var target = Duration.ofMillis(5);
+        var result = PHCCalibrator.builder().withTargetLatency(target).withSamples(1).build()
+                .calibrate(BCrypt.getInstance());
+        assertConsistent(result, target);
+    }
+
+    @Test
+    public void testScrypt() {
+        var target = Duration.ofMillis(5);
+        var result = PHCCalibrator.builder().withTargetLatency(target).withMemoryLimit(256 << 10).withSamples(1).build()
+                .calibrate(SCrypt.getInstance());
+        assertConsistent(result, target);
+        assertTrue(result.getCurve().stream().allMatch(sample -> sample.getMemory() <= 256 << 10));
+    }
+
+    @Test
+    public void testArgon2() {
+        var target = Duration.ofMillis(5);
+        var result = PHCCalibrator.builder()
+                .withTargetLatency(target)
+                .withMemoryLimit(1 << 20)
+                .withParallelism(2)
+                .withSamples(1)
+                .build()
+                .calibrate(Argon2id.getInstance());
+        assertConsistent(result, target);
+        assertTrue((Integer) result.getParams().get(Argon2id.M) <= 1024);
+        assertEquals(2, result.getParams().get(Argon2id.P));
+    }
+}
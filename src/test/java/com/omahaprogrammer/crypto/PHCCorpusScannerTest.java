@@ -0,0 +1,128 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.omahaprogrammer.crypto;
+
+import static org.junit.Assert.*;
+
+import com.omahaprogrammer.crypto.function.PBKDF2;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+public class PHCCorpusScannerTest {
+    private static final String WEAK = "$pbkdf2$alg=HmacSHA256,c=1000$c2FsdHNhbHQ$aGFzaGhhc2hoYXNoaGFzaA";
+    private static final String STRONG = "$pbkdf2$c=2000,alg=HmacSHA256$c2FsdHNhbHQ$aGFzaGhhc2hoYXNoaGFzaA";
+    private static final String ARGON2 = "$argon2id$v=19,m=64,t=1,p=1$c2FsdHNhbHQ$aGFzaGhhc2hoYXNoaGFzaA";
+
+    private static Path write(String content) throws IOException {
+        var file = Files.createTempFile("phc-corpus", ".txt");
+        file.toFile().deleteOnExit();
+        Files.write(file, content.getBytes(StandardCharsets.ISO_8859_1));
+        return file;
+    }
+
+    @Test
+    public void testScan() throws IOException {
+        var padding = new char[PHC.MAX_LENGTH];
+        Arrays.fill(padding, 'a');
+        var tooLong = "$pbkdf2$" + new String(padding);
+        var content = WEAK + "\n"
+                + STRONG + "\r\n"
+                + "\n"
+                + "$unknown$c2FsdA\n"
+                + ARGON2 + "\n"
+                + tooLong + "\n"
+                + "$pbkdf2$alg=HmacSHA256,c=1000$c2Fsdé\n"
+                + WEAK;
+        var file = write(content);
+        var policy = PHCPolicy.builder().withTarget(PBKDF2.getInstance(), PHC.parse(STRONG)).build();
+
+        for (var chunkSize : new int[] {1, 2, 7, 64, 100, 1 << 20}) {
+            var report = PHCCorpusScanner.builder()
+                    .withPolicy(policy)
+                    .withChunkSize(chunkSize)
+                    .withPool(new ForkJoinPool(4))
+                    .build()
+                    .scan(file);
+            var message = "chunk size " + chunkSize;
+            assertEquals(message, 8, report.getLines());
+            assertEquals(message, 1, report.getBlank());
+            assertEquals(message, 4, report.getValid());
+            assertEquals(message, 3, report.getRejected());
+            assertEquals(message, 2, report.getWeak());
+            assertEquals(message, Map.of("pbkdf2", 3L, "argon2id", 1L), report.getFunctionHistogram());
+            assertEquals(message, Map.of(
+                    "$pbkdf2$alg=HmacSHA256,c=1000", 2L,
+                    "$pbkdf2$alg=HmacSHA256,c=2000", 1L,
+                    "$argon2id$m=64,t=1,p=1", 1L), report.getParameterSetHistogram());
+            assertEquals(message, Map.of(
+                    PHCParser.UNKNOWN_FUNCTION, 1L,
+                    PHCParser.TOO_LONG, 1L,
+                    PHCParser.UNPARSEABLE, 1L), report.getRejectReasons());
+
+            var rejects = report.getRejects();
+            assertEquals(message, 3, rejects.size());
+            assertEquals(message, 4, rejects.get(0).getLine());
+            assertEquals(message, content.indexOf("$unknown"), rejects.get(0).getOffset());
+            assertEquals(message, PHCParser.UNKNOWN_FUNCTION, rejects.get(0).getReason());
+            assertEquals(message, 6, rejects.get(1).getLine());
+            assertEquals(message, content.indexOf(tooLong), rejects.get(1).getOffset());
+            assertEquals(message, 7, rejects.get(2).getLine());
+
+            var weak = report.getWeakHashes();
+            assertEquals(message, 2, weak.size());
+            assertEquals(message, 1, weak.get(0).getLine());
+            assertEquals(message, 0, weak.get(0).getOffset());
+            assertEquals(message, 8, weak.get(1).getLine());
+            assertEquals(message, content.lastIndexOf(WEAK), weak.get(1).getOffset());
+        }
+    }
+
+    @Test
+    public void testFindingLimit() throws IOException {
+        var content = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            content.append(i % 2 == 0 ? WEAK : "garbage").append('\n');
+        }
+        var report = PHCCorpusScanner.builder()
+                .withChunkSize(4096)
+                .withMaxFindings(10)
+                .build()
+                .scan(write(content.toString()));
+        assertEquals(1000, report.getLines());
+        assertEquals(500, report.getValid());
+        assertEquals(500, report.getRejected());
+        assertEquals(0, report.getWeak());
+        assertEquals(10, report.getRejects().size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(2 * i + 2, report.getRejects().get(i).getLine());
+        }
+    }
+
+    @Test
+    public void testEmptyFile() throws IOException {
+        var report = PHCCorpusScanner.builder().build().scan(write(""));
+        assertEquals(0, report.getLines());
+        assertTrue(report.getFunctionHistogram().isEmpty());
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto;
+
+import static org.junit.Assert.*;
+
+import com.omahaprogrammer.crypto.function.*;
+import org.junit.Test;
+
+public class PHCPolicyTest {
+    private static final String PASSWORD = "correct horse";
+
+    private static PHC.Builder<PBKDF2> pbkdf2(int iterations) {
+        return PHC.builder(PBKDF2.getInstance())
+                .withParam(PBKDF2.ALG, PBKDF2.Algorithm.HMAC_SHA256)
+                .withParam(PBKDF2.C, iterations);
+    }
+
+    @Test
+    public void testNeedsRehash() {
+        var policy = PHCPolicy.builder().withTarget(pbkdf2(2000).build()).build();
+        assertTrue(policy.needsRehash(pbkdf2(1000).withRandomSalt(16).protect(PASSWORD.toCharArray())));
+        assertFalse(policy.needsRehash(pbkdf2(2000).withRandomSalt(16).protect(PASSWORD.toCharArray())));
+        var argon2 = PHC.builder(Argon2id.getInstance())
+                .withParam(Argon2id.M, 64).withParam(Argon2id.T, 1).withParam(Argon2id.P, 1)
+                .withRandomSalt()
+                .protect(PASSWORD.toCharArray());
+        assertFalse(policy.needsRehash(argon2));
+        assertFalse(policy.getTarget(argon2).isPresent());
+
+        var saltPolicy = PHCPolicy.builder().withTarget(pbkdf2(2000).withRandomSalt(32).build()).build();
+        assertTrue(saltPolicy.needsRehash(pbkdf2(2000).withRandomSalt(16).protect(PASSWORD.toCharArray())));
+        assertFalse(saltPolicy.needsRehash(pbkdf2(2000).withRandomSalt(32).protect(PASSWORD.toCharArray())));
+
+        var defaultLength = PBKDF2.getInstance().getDefaultHashLength();
+        assertTrue(policy.needsRehash(pbkdf2(2000).withRandomSalt(16).protect(PASSWORD.toCharArray(), 16)));
+        assertFalse(policy.needsRehash(pbkdf2(2000).withRandomSalt(16)
+                .protect(PASSWORD.toCharArray(), defaultLength + 16)));
+        var lengthPolicy = PHCPolicy.builder()
+                .withTarget(pbkdf2(2000).withRandomSalt(16).protect(PASSWORD.toCharArray(), defaultLength + 16))
+                .build();
+        assertTrue(lengthPolicy.needsRehash(pbkdf2(2000).withRandomSalt(16).protect(PASSWORD.toCharArray())));
+        assertFalse(lengthPolicy.needsRehash(pbkdf2(2000).withRandomSalt(16)
+                .protect(PASSWORD.toCharArray(), defaultLength + 16)));
+    }
+
+    @Test
+    public void testValidateAndRehash() {
+        var target = PHC.builder(Argon2id.getInstance())
+                .withParam(Argon2id.M, 64).withParam(Argon2id.T, 1).withParam(Argon2id.P, 1)
+                .build();
+        var policy = PHCPolicy.builder().withDefaultTarget(target).build();
+        var stored = pbkdf2(1000).withRandomSalt().protect(PASSWORD.toCharArray());
+
+        var invalid = policy.validateAndRehash(stored, "wrong".toCharArray());
+        assertFalse(invalid.isValid());
+        assertFalse(invalid.getReplacement().isPresent());
+
+        var result = policy.validateAndRehash(stored, PASSWORD.toCharArray());
+        assertTrue(result.isValid());
+        var replacement = result.getReplacement().orElseThrow();
+        assertSame(Argon2id.getInstance(), replacement.getFunction());
+        assertEquals(Argon2id.getInstance().getDefaultSaltLength(), replacement.getSalt().length);
+        assertEquals(Argon2id.getInstance().getDefaultHashLength(), replacement.getProtectedPassword().length);
+        assertTrue(replacement.validate(PASSWORD.toCharArray()));
+        assertFalse(policy.needsRehash(replacement));
+
+        var current = policy.validateAndRehash(replacement, PASSWORD.toCharArray());
+        assertTrue(current.isValid());
+        assertFalse(current.getReplacement().isPresent());
+    }
+}
@@ -21,9 +21,22 @@ import com.omahaprogrammer.crypto.function.*;
 import org.bouncycastle.util.encoders.Hex;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 public class PHCTest {
     private static final String PASSWORD = "password"; // NOSONAR
@@ -450,6 +463,241 @@ public class PHCTest {
         }
     }
 
+    @Test
+    public void testTryParse() {
+        var reasons = new ArrayList<String>();
+        var longSalt = new char[PHC.MAX_LENGTH];
+        Arrays.fill(longSalt, 'A');
+        assertFalse(PHC.tryParse("argon2i$m=120,t=5000,p=2", reasons::add).isPresent());
+        assertFalse(PHC.tryParse("$md5$m=120", reasons::add).isPresent());
+        assertFalse(PHC.tryParse("$argon2i$m=120,t=5000,p=0", reasons::add).isPresent());
+        assertFalse(PHC.tryParse("$argon2i$m=120,t=,p=2", reasons::add).isPresent());
+        assertFalse(PHC.tryParse("$argon2i$m=120,t=5000,p=2$a.b", reasons::add).isPresent());
+        assertFalse(PHC.tryParse("$argon2i$m=120,t=5000,p=2$salt$hash$extra", reasons::add).isPresent());
+        assertFalse(PHC.tryParse("$argon2i$m=120$" + new String(longSalt), reasons::add).isPresent());
+        assertEquals(List.of("Unparseable token", "Unknown function", "Invalid parameter value", "Unparseable token",
+                "Invalid Base64 encoding", "Unparseable token", "PHC string exceeds 2048 characters"), reasons);
+
+        PHC<Argon2i> phc = PHC.<Argon2i>tryParse("$argon2i$m=abc,t=5000,p=2,m=+120,x=1$$").orElseThrow();
+        assertEquals(Integer.valueOf(120), phc.getParam(Argon2i.M).orElse(null));
+        assertEquals(0, phc.getSalt().length);
+        assertEquals(0, phc.getProtectedPassword().length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseRejectsInvalid() {
+        PHC.parse("$argon2i$m=120,t=5000,p=2$salt=");
+    }
+
+    @Test
+    public void testSaltGenerator() {
+        var phc = PHC.builder(PBKDF2.getInstance())
+                .withSaltGenerator(salt -> Arrays.fill(salt, (byte) 7))
+                .withRandomSalt(4)
+                .withParam(PBKDF2.ALG, PBKDF2.Algorithm.HMAC_SHA256)
+                .withParam(PBKDF2.C, 1)
+                .protect(PASSWORD.toCharArray());
+        assertArrayEquals(new byte[]{7, 7, 7, 7}, phc.getSalt());
+        assertArrayEquals(new byte[]{1, 1, 1, 1}, phc.protectNewPassword(salt -> Arrays.fill(salt, (byte) 1), PASSWORD.toCharArray()).getSalt());
+
+        var generator = DrbgSaltGenerator.builder().withPrefetch(64).withReseedAfterBytes(100).build();
+        var salts = new HashSet<String>();
+        for (int i = 0; i < 50; i++) {
+            salts.add(encoder.encodeToString(generator.generate(16)));
+        }
+        assertEquals(50, salts.size());
+    }
+
+    @Test
+    public void testAsync() {
+        var builder = PHC.builder(PBKDF2.getInstance())
+                .withRandomSalt()
+                .withParam(PBKDF2.ALG, PBKDF2.Algorithm.HMAC_SHA256)
+                .withParam(PBKDF2.C, 1000);
+        var password = PASSWORD.toCharArray();
+        var future = builder.protectAsync(password, HashingExecutors.limit(HashingExecutors.getDefault(), 1));
+        Arrays.fill(password, '\0');
+        builder.withParam(PBKDF2.C, 2000);
+        var phc = future.join();
+        assertEquals(Integer.valueOf(1000), phc.getParam(PBKDF2.C).orElseThrow());
+        assertTrue(phc.validateAsync(PASSWORD.toCharArray()).join());
+        assertFalse(phc.validateAsync("wrong".toCharArray()).join());
+
+        Executor rejecting = task -> {
+            throw new RejectedExecutionException();
+        };
+        assertTrue(phc.validateAsync(PASSWORD.toCharArray(), rejecting).isCompletedExceptionally());
+        assertTrue(PHC.builder(PBKDF2.getInstance()).protectAsync(PASSWORD.toCharArray()).isCompletedExceptionally());
+        try {
+            builder.protectAsync(new char[0]).join();
+            fail();
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    @Test
+    public void testCancelQueuedAsync() {
+        var phc = PHC.<PBKDF2>parse("$pbkdf2$alg=HmacSHA256,c=1$c2FsdHNhbHQ$aGFzaGhhc2hoYXNoaGFzaA");
+        var metrics = new InMemoryPHCMetrics();
+        PHCMetrics.setGlobal(metrics);
+        try {
+            var tasks = new ArrayList<Runnable>();
+            Executor executor = tasks::add;
+            var future = phc.validateAsync(PASSWORD.toCharArray(), executor);
+            assertTrue(future.cancel(true));
+            assertEquals(1, tasks.size());
+            tasks.get(0).run();
+            assertTrue(future.isCancelled());
+            assertFalse(metrics.getHistogram(PHCMetrics.Phase.HASH, "$pbkdf2$alg=HmacSHA256,c=1").isPresent());
+            assertEquals(0, metrics.getInFlight());
+
+            var copy = PASSWORD.toCharArray();
+            var owned = PHC.supplyOwned(copy, phc::validate, executor);
+            assertTrue(owned.cancel(true));
+            tasks.get(1).run();
+            assertArrayEquals(new char[PASSWORD.length()], copy);
+        } finally {
+            PHCMetrics.setGlobal(null);
+        }
+    }
+
+    @Test
+    public void testMetricsCannotModifyParams() {
+        var phc = PHC.builder(Argon2id.getInstance())
+                .withParam(Argon2id.M, 256)
+                .withParam(Argon2id.T, 2)
+                .withParam(Argon2id.P, 2)
+                .withParam(Argon2id.KEY_ID, "key".getBytes(StandardCharsets.US_ASCII))
+                .withRandomSalt()
+                .protect(PASSWORD.toCharArray());
+        var parsed = PHC.<Argon2id>parse(phc.toString());
+        PHCMetrics.setGlobal(new PHCMetrics() {
+            @Override
+            public void hashStarted(PHCFunction<?> function, Map<? extends PHCFunction.Param<?, ?>, ?> params) {
+                for (var value : params.values()) {
+                    if (value instanceof byte[]) {
+                        Arrays.fill((byte[]) value, (byte) 'X');
+                    }
+                }
+            }
+        });
+        try {
+            assertTrue(parsed.validate(PASSWORD.toCharArray()));
+        } finally {
+            PHCMetrics.setGlobal(null);
+        }
+        assertArrayEquals("key".getBytes(StandardCharsets.US_ASCII), parsed.getParam(Argon2id.KEY_ID).orElseThrow());
+        assertEquals(phc.toString(), parsed.toString());
+        assertTrue(parsed.validate(PASSWORD.toCharArray()));
+    }
+
+    @Test
+    public void testBatch() {
+        var builders = List.<PHC.Builder<?>>of(
+                PHC.builder(PBKDF2.getInstance()).withParam(PBKDF2.ALG, PBKDF2.Algorithm.HMAC_SHA256).withParam(PBKDF2.C, 1000),
+                PHC.builder(Argon2id.getInstance()).withParam(Argon2id.M, 256).withParam(Argon2id.T, 2).withParam(Argon2id.P, 2),
+                PHC.builder(SCrypt.getInstance()).withParam(SCrypt.N, 16).withParam(SCrypt.R, 8).withParam(SCrypt.P, 2),
+                PHC.builder(BCrypt.getInstance()).withParam(BCrypt.C, 4));
+        var passwords = new ArrayList<char[]>();
+        for (int i = 0; i < 20; i++) {
+            passwords.add(("password" + i).toCharArray());
+        }
+        var phcs = new ArrayList<PHC<?>>();
+        var candidates = new ArrayList<char[]>();
+        for (var builder : builders) {
+            var protectedAll = builder.protectAll(passwords);
+            assertEquals(passwords.size(), protectedAll.size());
+            assertEquals(passwords.size(), protectedAll.stream().map(phc -> encoder.encodeToString(phc.getSalt())).distinct().count());
+            for (int i = 0; i < protectedAll.size(); i++) {
+                phcs.add(protectedAll.get(i));
+                candidates.add(i % 3 == 0 ? "wrong".toCharArray() : passwords.get(i));
+            }
+        }
+        var results = PHC.validateAll(phcs, candidates);
+        for (int i = 0; i < results.length; i++) {
+            assertEquals(i % passwords.size() % 3 != 0, results[i]);
+            assertEquals(phcs.get(i).validate(candidates.get(i)), results[i]);
+        }
+
+        try {
+            PHC.validateAll(phcs, passwords);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            builders.get(0).protectAll(List.of(PASSWORD.toCharArray(), new char[0]));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("password empty", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testEqualsAndHashCode() {
+        var text = "$argon2id$m=64,t=1,p=1,keyid=AAECAw,data=BAUG$c2FsdHNhbHQ$aGFzaGhhc2hoYXNoaGFzaA";
+        PHC<Argon2id> phc = PHC.parse(text);
+        PHC<Argon2id> same = PHC.parse(text);
+        assertEquals(phc, same);
+        assertEquals(phc.hashCode(), same.hashCode());
+        assertEquals(64, phc.getIntParam(Argon2id.M, 0));
+        assertEquals(-1, PHC.builder(Argon2id.getInstance()).build().getIntParam(Argon2id.M, -1));
+        assertNotEquals(phc, PHC.parse(text.replace("data=BAUG", "data=BAUH")));
+        assertNotEquals(phc, PHC.parse(text.replace("$aGFz", "$bGFz")));
+        assertNotEquals(phc, PHC.parse(text.substring(0, text.lastIndexOf('$'))));
+        assertNotEquals(phc, PHC.parse(text.replace("argon2id", "argon2i")));
+
+        phc.getParam(Argon2id.KEY_ID).orElseThrow()[0] = 9;
+        assertEquals(same, phc);
+    }
+
+    @Test
+    public void testWriteTo() throws IOException {
+        var text = "$argon2id$m=2147483647,t=1,p=1,keyid=AAECAw,data=BAUG$c2FsdHNhbHQ$aGFzaGhhc2hoYXNoaGFzaA";
+        for (var phc : List.of(PHC.parse(text), PHC.parse(text))) {
+            var builder = new StringBuilder("x");
+            phc.writeTo(builder);
+            assertEquals("x" + text, builder.toString());
+            var writer = new StringWriter();
+            phc.writeTo(writer);
+            assertEquals(text, writer.toString());
+            var buffer = ByteBuffer.allocate(text.length() + 1);
+            phc.writeTo(buffer);
+            assertEquals(text.length(), phc.getFormattedLength());
+            assertEquals(text, new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII));
+            try {
+                phc.writeTo(buffer);
+                fail();
+            } catch (BufferOverflowException e) {
+                assertEquals(text.length(), buffer.position());
+            }
+            assertEquals(text, phc.toString());
+            assertSame(phc.toString(), phc.toString());
+        }
+
+        var random = new Random(1);
+        for (int length = 0; length < 64; length++) {
+            var salt = new byte[length + 1];
+            random.nextBytes(salt);
+            var hash = Arrays.copyOf(salt, length);
+            var expected = "$pbkdf2$alg=HmacSHA256,c=1$" + encoder.encodeToString(salt) + "$"
+                    + encoder.encodeToString(hash);
+            var phc = PHC.parse(expected);
+            var builder = new StringBuilder();
+            phc.writeTo(builder);
+            assertEquals(expected, builder.toString());
+            assertEquals(expected, phc.toString());
+        }
+
+        try {
+            PHC.builder(BCrypt.getInstance()).withParam(BCrypt.C, 3);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("cost must be between 4 and 31", e.getMessage());
+        }
+    }
+
     @Test
     public void testPasswordValidation() {
         var phc = PHC.parse("$pbkdf2$alg=HmacSHA512,c=4096$E3nl4k+qzPH2bDYUHBEeCkbx594h431K9wYaqrSun90$G2H7TEl/ujgoe6XM/1926saYNo7HLIoOvLTUqVpT3fQnMDdv+ZwrplqOoqw6h3f6JpIOx5XS5NM2cC+HXG8rGQ");
@@ -462,6 +710,81 @@ public class PHCTest {
         assertFalse(phc.validate("passwordWithWhichToTest".toCharArray()));
     }
 
+    @Test
+    public void testPasswordValidationInPlace() {
+        var builders = List.<PHC.Builder<?>>of(
+                PHC.builder(PBKDF2.getInstance()).withParam(PBKDF2.ALG, PBKDF2.Algorithm.HMAC_SHA256).withParam(PBKDF2.C, 10),
+                PHC.builder(Argon2id.getInstance()).withParam(Argon2id.M, 64).withParam(Argon2id.T, 1).withParam(Argon2id.P, 2),
+                PHC.builder(SCrypt.getInstance()).withParam(SCrypt.N, 16).withParam(SCrypt.R, 2).withParam(SCrypt.P, 2),
+                PHC.builder(BCrypt.getInstance()).withParam(BCrypt.C, 4));
+        var password = "pässwörd \u2603\ud83d\ude00";
+        for (var builder : builders) {
+            var phc = builder.withRandomSalt().protect(password.toCharArray());
+            assertTrue(phc.validate(password.getBytes(StandardCharsets.UTF_8)));
+            assertFalse(phc.validate("wrong".getBytes(StandardCharsets.UTF_8)));
+
+            var buffer = CharBuffer.wrap("xx" + password + "yy");
+            buffer.position(2).limit(2 + password.length());
+            assertTrue(phc.validate(buffer));
+            assertEquals(2, buffer.position());
+            assertTrue(phc.validate(CharBuffer.wrap(password).asReadOnlyBuffer()));
+            assertFalse(phc.validate(CharBuffer.wrap("wrong")));
+
+            // unpaired surrogates keep each function's own encoding
+            var lone = "lone\ud800".toCharArray();
+            try {
+                var surrogate = builder.withRandomSalt().protect(lone);
+                assertTrue(surrogate.validate(lone));
+                assertTrue(surrogate.validate(CharBuffer.wrap(lone)));
+            } catch (IllegalStateException e) {
+                // BouncyCastle rejects unpaired surrogates for some functions
+            }
+        }
+    }
+
+    @Test
+    public void testProtectPasswordInPlace() {
+        Map<PHCFunction.Param<SCrypt, ?>, Object> params = Map.of(SCrypt.N, 16, SCrypt.R, 2, SCrypt.P, 1);
+        var salt = "somesaltsomesalt".getBytes(StandardCharsets.US_ASCII);
+        var scrypt = SCrypt.getInstance();
+        var expected = scrypt.protectPassword(params, salt, PASSWORD.toCharArray(), 32);
+
+        var utf8 = ("--" + PASSWORD).getBytes(StandardCharsets.UTF_8);
+        var out = new byte[40];
+        scrypt.protectPassword(params, salt, utf8, 2, utf8.length - 2, out, 5, 32);
+        assertArrayEquals(expected, Arrays.copyOfRange(out, 5, 37));
+
+        Arrays.fill(out, (byte) 0);
+        scrypt.protectPassword(params, salt, CharBuffer.wrap(PASSWORD), out, 3, 32);
+        assertArrayEquals(expected, Arrays.copyOfRange(out, 3, 35));
+
+        for (var buffer : new ByteBuffer[]{ByteBuffer.allocate(40), ByteBuffer.allocateDirect(40),
+                ByteBuffer.wrap(new byte[48], 4, 40).slice()}) {
+            buffer.position(4);
+            scrypt.protectPassword(params, salt, CharBuffer.wrap(PASSWORD), buffer, 32);
+            assertEquals(36, buffer.position());
+            var actual = new byte[32];
+            buffer.position(4);
+            buffer.get(actual);
+            assertArrayEquals(expected, actual);
+
+            buffer.position(4);
+            scrypt.protectPassword(params, salt, utf8, 2, utf8.length - 2, buffer, 32);
+            assertEquals(36, buffer.position());
+            buffer.position(4);
+            buffer.get(actual);
+            assertArrayEquals(expected, actual);
+
+            buffer.position(10);
+            try {
+                scrypt.protectPassword(params, salt, CharBuffer.wrap(PASSWORD), buffer, 32);
+                fail();
+            } catch (BufferOverflowException e) {
+                assertEquals(10, buffer.position());
+            }
+        }
+    }
+
     @Test
     public void testPBKDF2Algs() {
         try {
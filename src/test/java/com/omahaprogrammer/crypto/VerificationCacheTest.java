@@ -0,0 +1,88 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto;
+
+import static org.junit.Assert.*;
+
+import com.omahaprogrammer.crypto.function.PBKDF2;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class VerificationCacheTest {
+    private static PHC<PBKDF2> protect(String password) {
+        return PHC.builder(PBKDF2.getInstance())
+                .withParam(PBKDF2.ALG, PBKDF2.Algorithm.HMAC_SHA256)
+                .withParam(PBKDF2.C, 1000)
+                .withRandomSalt()
+                .protect(password.toCharArray());
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        var cache = VerificationCache.builder().build();
+        var phc = protect("secret");
+        assertTrue(cache.validate(phc, "secret".toCharArray()));
+        assertTrue(cache.validate(phc, "secret".toCharArray()));
+        assertFalse(cache.validate(phc, "guess".toCharArray()));
+        assertFalse(cache.validate(phc, "guess".toCharArray()));
+        assertTrue(cache.validate(PHC.parse(phc.toString()), "secret".toCharArray()));
+        assertEquals(3, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.size());
+
+        var other = protect("secret");
+        assertTrue(cache.validate(other, "secret".toCharArray()));
+        assertEquals(3, cache.getMissCount());
+    }
+
+    @Test
+    public void testExpiry() {
+        var now = new AtomicLong();
+        var cache = VerificationCache.builder().withTtl(Duration.ofSeconds(5)).withClock(now::get).build();
+        var phc = protect("secret");
+        cache.validate(phc, "secret".toCharArray());
+        now.set(TimeUnit.SECONDS.toNanos(4));
+        cache.validate(phc, "secret".toCharArray());
+        assertEquals(1, cache.getHitCount());
+        now.set(TimeUnit.SECONDS.toNanos(5));
+        cache.validate(phc, "secret".toCharArray());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testEvictionAndInvalidation() {
+        var cache = VerificationCache.builder().withMaxEntries(2).build();
+        var first = protect("first");
+        var second = protect("second");
+        cache.validate(first, "first".toCharArray());
+        cache.validate(first, "wrong".toCharArray());
+        cache.validate(first, "first".toCharArray());
+        cache.validate(second, "second".toCharArray());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2, cache.size());
+
+        cache.invalidate(first);
+        assertEquals(1, cache.size());
+        cache.validate(first, "first".toCharArray());
+        assertEquals(4, cache.getMissCount());
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto.function;
+
+import static org.junit.Assert.*;
+
+import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
+import org.bouncycastle.crypto.params.Argon2Parameters;
+import org.bouncycastle.util.encoders.Hex;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class Argon2EngineTest {
+    private static final byte[] PASSWORD = "password".getBytes(StandardCharsets.US_ASCII); // NOSONAR
+    private static final byte[] SALT = "somesaltsomesalt".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    public void testMatchesBouncyCastle() {
+        int[] types = {Argon2Parameters.ARGON2_d, Argon2Parameters.ARGON2_i, Argon2Parameters.ARGON2_id};
+        int[][] costs = {{8, 1, 1}, {256, 2, 2}, {1000, 1, 3}, {4096, 2, 4}, {2048, 1, 8}, {16, 3, 2}};
+        for (var type : types) {
+            for (var cost : costs) {
+                assertArrayEquals(type + "/" + cost[0] + "/" + cost[1] + "/" + cost[2],
+                        bouncyCastle(type, cost[0], cost[1], cost[2], null, null, 32),
+                        engine(type, cost[0], cost[1], cost[2], null, null, 32));
+            }
+        }
+    }
+
+    @Test
+    public void testSecretDataAndLongOutput() {
+        var secret = new byte[]{3, 3, 3, 3, 3, 3, 3, 3};
+        var data = new byte[]{4, 4, 4, 4, 4, 4, 4, 4, 4, 4, 4, 4};
+        for (var length : new int[]{4, 64, 65, 100, 1024}) {
+            assertArrayEquals(bouncyCastle(Argon2Parameters.ARGON2_id, 512, 2, 4, secret, data, length),
+                    engine(Argon2Parameters.ARGON2_id, 512, 2, 4, secret, data, length));
+        }
+    }
+
+    /**
+     * The test vectors of RFC 9106, section 5
+     */
+    @Test
+    public void testRfc9106() {
+        var password = new byte[32];
+        var salt = new byte[16];
+        var secret = new byte[8];
+        var data = new byte[12];
+        Arrays.fill(password, (byte) 1);
+        Arrays.fill(salt, (byte) 2);
+        Arrays.fill(secret, (byte) 3);
+        Arrays.fill(data, (byte) 4);
+        String[] expected = {
+                "512b391b6f1162975371d30919734294f868e3be3984f3c1a13a4db9fabe4acb",
+                "c814d9d1dc7f37aa13f0d77f2494bda1c8de6b016dd388d29952a4c4672b6ce8",
+                "0d640df58d78766c08c037a34a8b53c9d01ef0452d75b65eb52520e96b01e659"
+        };
+        for (var blockFunction : blockFunctions()) {
+            for (int type = 0; type < expected.length; type++) {
+                var out = new byte[32];
+                new Argon2Engine(type, 32, 3, 4, blockFunction).generate(password, salt, secret, data, out);
+                assertEquals(expected[type], Hex.toHexString(out));
+            }
+        }
+    }
+
+    /**
+     * The vector backend runs only on Java 17 or later with {@code --add-modules jdk.incubator.vector}; everywhere else
+     * selecting it must fall back to the scalar function
+     */
+    @Test
+    public void testBackendSelection() {
+        var vector = Argon2BlockFunction.vector();
+        assertTrue(Argon2Backend.SCALAR.isAvailable());
+        assertEquals(vector != null, Argon2Backend.VECTOR.isAvailable());
+        assertEquals(Argon2Backend.SCALAR, Argon2Backend.fromProperty(null));
+        assertEquals(Argon2Backend.VECTOR, Argon2Backend.fromProperty(" Vector"));
+        assertEquals(Argon2Backend.SCALAR, Argon2Backend.fromProperty("avx"));
+
+        var previous = Argon2Backend.getDefault();
+        try {
+            Argon2Backend.setDefault(Argon2Backend.VECTOR);
+            assertSame(vector != null ? vector : Argon2BlockFunction.SCALAR, Argon2Backend.blockFunction());
+            var hash = Argon2id.getInstance().protectPassword(costs(), SALT, "password".toCharArray(), 32);
+            Argon2Backend.setDefault(Argon2Backend.SCALAR);
+            assertSame(Argon2BlockFunction.SCALAR, Argon2Backend.blockFunction());
+            assertArrayEquals(hash, Argon2id.getInstance().protectPassword(costs(), SALT, "password".toCharArray(), 32));
+        } finally {
+            Argon2Backend.setDefault(previous);
+        }
+    }
+
+    @Test
+    public void testBlockFunctionsMatchBouncyCastle() {
+        for (var blockFunction : blockFunctions()) {
+            assertTrue(Argon2BlockFunction.matchesScalar(blockFunction));
+            for (var type : new int[]{Argon2Parameters.ARGON2_d, Argon2Parameters.ARGON2_i, Argon2Parameters.ARGON2_id}) {
+                var out = new byte[32];
+                new Argon2Engine(type, 1024, 2, 2, blockFunction).generate(PASSWORD, SALT, null, null, out);
+                assertArrayEquals(bouncyCastle(type, 1024, 2, 2, null, null, 32), out);
+            }
+        }
+    }
+
+    @Test
+    public void testMemoryTooSmall() {
+        try {
+            engine(Argon2Parameters.ARGON2_i, 3, 1, 2, null, null, 32);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("memory must be at least 2 * lanes = 4 KiB, got 3", e.getMessage());
+        }
+    }
+
+    private static List<Argon2BlockFunction> blockFunctions() {
+        var vector = Argon2BlockFunction.vector();
+        return vector == null ? List.of(Argon2BlockFunction.SCALAR) : List.of(Argon2BlockFunction.SCALAR, vector);
+    }
+
+    private static Map<PHCFunction.Param<Argon2id, ?>, Object> costs() {
+        return Map.of(Argon2.MemorySizeParam.getInstance(), 256,
+                Argon2.IterationsParam.getInstance(), 2,
+                Argon2.ParallelismParam.getInstance(), 2);
+    }
+
+    private static byte[] engine(int type, int m, int t, int p, byte[] secret, byte[] data, int length) {
+        var out = new byte[length];
+        new Argon2Engine(type, m, t, p).generate(PASSWORD, SALT, secret, data, out);
+        return out;
+    }
+
+    private static byte[] bouncyCastle(int type, int m, int t, int p, byte[] secret, byte[] data, int length) {
+        var out = new byte[length];
+        var gen = new Argon2BytesGenerator();
+        gen.init(new Argon2Parameters.Builder(type)
+                .withMemoryAsKB(m)
+                .withIterations(t)
+                .withParallelism(p)
+                .withSecret(secret)
+                .withAdditional(data)
+                .withSalt(SALT)
+                .build());
+        gen.generateBytes(PASSWORD, out);
+        return out;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto.function;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+public class BCryptEngineTest {
+    @Test
+    public void testMatchesBouncyCastle() {
+        var random = new Random(42);
+        for (int length = 0; length <= BCryptEngine.MAX_KEY_LENGTH; length += 7) {
+            var key = new byte[length];
+            var salt = new byte[BCryptEngine.SALT_LENGTH];
+            random.nextBytes(key);
+            random.nextBytes(salt);
+            var cost = BCryptEngine.MIN_COST + length % 3;
+            var out = new byte[BCryptEngine.HASH_LENGTH + 2];
+            BCryptEngine.generate(key, length, salt, cost, out, 1);
+            assertArrayEquals("length " + length,
+                    org.bouncycastle.crypto.generators.BCrypt.generate(key, salt, cost),
+                    Arrays.copyOfRange(out, 1, 1 + BCryptEngine.HASH_LENGTH));
+        }
+    }
+
+    @Test
+    public void testPasswordEncoding() {
+        var salt = "somesaltsomesalt".getBytes(StandardCharsets.US_ASCII);
+        for (var password : new String[]{"", "password", "pässwörd € 🔑", "\ud800x"}) {
+            var chars = password.toCharArray();
+            var out = new byte[BCryptEngine.HASH_LENGTH];
+            BCryptEngine.generate(chars, salt, 5, out, 0);
+            assertArrayEquals(password, org.bouncycastle.crypto.generators.BCrypt.generate(
+                    org.bouncycastle.crypto.generators.BCrypt.passwordToByteArray(chars), salt, 5), out);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRejectsWhatBouncyCastleRejects() {
+        BCryptEngine.generate("x\udc00".toCharArray(), new byte[BCryptEngine.SALT_LENGTH], 4,
+                new byte[BCryptEngine.HASH_LENGTH], 0);
+    }
+
+    @Test
+    public void testMaximumLength() {
+        var salt = new byte[BCryptEngine.SALT_LENGTH];
+        var chars = new char[BCryptEngine.MAX_KEY_LENGTH - 1];
+        Arrays.fill(chars, 'x');
+        var out = new byte[BCryptEngine.HASH_LENGTH];
+        BCryptEngine.generate(chars, salt, 4, out, 0);
+        chars[0] = 'é';
+        try {
+            BCryptEngine.generate(chars, salt, 4, out, 0);
+            fail("a 73-byte key was accepted");
+        } catch (IllegalArgumentException e) {
+            assertEquals("BCrypt password must be <= 72 bytes", e.getMessage());
+        }
+    }
+}
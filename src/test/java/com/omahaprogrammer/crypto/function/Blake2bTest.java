@@ -0,0 +1,67 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto.function;
+
+import static org.junit.Assert.*;
+
+import org.bouncycastle.crypto.digests.Blake2bDigest;
+import org.bouncycastle.util.encoders.Hex;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class Blake2bTest {
+    @Test
+    public void testRfc7693() {
+        var blake = new Blake2b();
+        var out = new byte[64];
+        blake.update("abc".getBytes(StandardCharsets.US_ASCII), 0, 3);
+        blake.doFinal(out, 0);
+        assertEquals("ba80a53f981c4d0d6a2797b69f12f6e94c212f14685ac4b74b12bb6fdbffa2d1"
+                + "7d87c5392aab792dc252d5de4533cc9518d38aa8dbf1925ab92386edd4009923", Hex.toHexString(out));
+    }
+
+    @Test
+    public void testMatchesBouncyCastle() {
+        var input = new byte[1000];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (byte) (i * 31);
+        }
+        var blake = new Blake2b();
+        for (var digestLength : new int[]{1, 4, 32, 63, 64}) {
+            for (var length : new int[]{0, 1, 127, 128, 129, 256, 1000}) {
+                var expected = new byte[digestLength];
+                var reference = new Blake2bDigest(digestLength * 8);
+                reference.update(input, 0, length);
+                reference.doFinal(expected, 0);
+
+                var actual = new byte[digestLength];
+                blake.reset(digestLength);
+                if (length > 0) {
+                    blake.update(input[0]);
+                    blake.update(input, 1, length - 1);
+                }
+                blake.doFinal(actual, 0);
+                assertArrayEquals(digestLength + "/" + length, expected, actual);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDigestLength() {
+        new Blake2b().reset(65);
+    }
+}
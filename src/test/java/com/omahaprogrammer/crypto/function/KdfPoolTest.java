@@ -0,0 +1,34 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto.function;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class KdfPoolTest {
+    @Test
+    public void testClampParallelism() {
+        assertEquals(1, KdfPool.clampParallelism(Integer.MIN_VALUE));
+        assertEquals(1, KdfPool.clampParallelism(-4));
+        assertEquals(1, KdfPool.clampParallelism(0));
+        assertEquals(1, KdfPool.clampParallelism(1));
+        assertEquals(8, KdfPool.clampParallelism(8));
+        assertEquals(KdfPool.MAX_PARALLELISM, KdfPool.clampParallelism(KdfPool.MAX_PARALLELISM));
+        assertEquals(KdfPool.MAX_PARALLELISM, KdfPool.clampParallelism(Integer.MAX_VALUE));
+        assertTrue(KdfPool.get().getParallelism() >= 1);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto.function;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LongArrayPoolTest {
+    @Test
+    public void testClassSize() {
+        assertEquals(1024, LongArrayPool.classSize(1));
+        assertEquals(1024, LongArrayPool.classSize(1024));
+        assertEquals(1280, LongArrayPool.classSize(1025));
+        assertEquals(1536, LongArrayPool.classSize(1500));
+        assertEquals(2048, LongArrayPool.classSize(2048));
+        assertEquals(1 << 23, LongArrayPool.classSize(1 << 23));
+        assertEquals(2621440, LongArrayPool.classSize(19456 * 128));
+        assertEquals(Integer.MAX_VALUE - 8, LongArrayPool.classSize(Integer.MAX_VALUE - 8));
+        for (int length = 1; length < 100_000; length += 37) {
+            var size = LongArrayPool.classSize(length);
+            assertTrue(size >= length);
+            assertTrue(size <= Math.max(1024, length + length / 4 + 1));
+        }
+    }
+
+    @Test
+    public void testReuseAndWipe() {
+        var pool = new LongArrayPool(1 << 20, Long.MAX_VALUE, System::nanoTime);
+        var array = pool.acquire(2000);
+        assertEquals(2048, array.length);
+        array[0] = 1;
+        array[1999] = 2;
+        pool.release(array, 2000);
+        assertEquals(2048 * 8, pool.getRetainedBytes());
+        var again = pool.acquire(1900);
+        assertSame(array, again);
+        assertEquals(0, pool.getRetainedBytes());
+        for (var value : again) {
+            assertEquals(0, value);
+        }
+        assertNotSame(again, pool.acquire(2000));
+    }
+
+    @Test
+    public void testMaxRetained() {
+        var pool = new LongArrayPool(3 * 1024 * 8, Long.MAX_VALUE, System::nanoTime);
+        var arrays = new long[4][];
+        for (int i = 0; i < arrays.length; i++) {
+            arrays[i] = pool.acquire(1024);
+        }
+        for (var array : arrays) {
+            pool.release(array, array.length);
+        }
+        assertEquals(3 * 1024 * 8, pool.getRetainedBytes());
+        pool.release(new long[1 << 20], 0);
+        assertEquals(3 * 1024 * 8, pool.getRetainedBytes());
+    }
+
+    @Test
+    public void testIdleEviction() {
+        var now = new AtomicLong();
+        var pool = new LongArrayPool(1 << 20, 1000, now::get);
+        var array = pool.acquire(1024);
+        pool.release(array, 0);
+        now.set(500);
+        pool.release(pool.acquire(4096), 0);
+        assertEquals((1024 + 4096) * 8, pool.getRetainedBytes());
+        now.set(1200);
+        var fresh = pool.acquire(2048);
+        assertEquals(4096 * 8, pool.getRetainedBytes());
+        pool.release(fresh, 0);
+        now.set(2500);
+        pool.acquire(1024);
+        assertEquals(0, pool.getRetainedBytes());
+    }
+
+    @Test
+    public void testBackgroundEviction() throws InterruptedException {
+        var pool = new LongArrayPool(1 << 20, TimeUnit.MILLISECONDS.toNanos(40), System::nanoTime);
+        var executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            pool.scheduleSweeps(executor);
+            pool.release(pool.acquire(1024), 0);
+            pool.release(pool.acquire(4096), 0);
+            assertEquals((1024 + 4096) * 8, pool.getRetainedBytes());
+            var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (pool.getRetainedBytes() != 0 && System.nanoTime() - deadline < 0) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, pool.getRetainedBytes());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.omahaprogrammer.crypto.function;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+public class ParamValuesTest {
+    @Test
+    public void testSlots() {
+        var empty = ParamValues.empty(Argon2id.getInstance());
+        assertTrue(empty.isEmpty());
+        assertSame(empty, ParamValues.empty(Argon2id.getInstance()));
+
+        var keyId = new byte[] {1, 2, 3};
+        var values = empty.with(Argon2id.P, 4).with(Argon2id.KEY_ID, keyId).with(Argon2id.M, 65536);
+        keyId[0] = 9;
+        assertTrue(empty.isEmpty());
+        assertEquals(3, values.size());
+        assertEquals(65536, values.getInt(Argon2id.M, 0));
+        assertEquals(-1, values.getInt(Argon2id.T, -1));
+        assertArrayEquals(new byte[] {1, 2, 3}, (byte[]) values.get(Argon2id.KEY_ID));
+        ((byte[]) values.get(Argon2id.KEY_ID))[0] = 9;
+        for (var value : values.values()) {
+            if (value instanceof byte[]) {
+                ((byte[]) value)[1] = 9;
+            }
+        }
+        assertArrayEquals(new byte[] {1, 2, 3}, (byte[]) values.get(Argon2id.KEY_ID));
+        assertArrayEquals(new byte[] {1, 2, 3}, Argon2id.KEY_ID.getValue(values));
+        assertFalse(values.containsKey(Argon2id.T));
+        assertFalse(values.containsKey(PBKDF2.C));
+        assertNull(values.get(PBKDF2.C));
+        assertEquals(List.of(Argon2id.M, Argon2id.P, Argon2id.KEY_ID), new ArrayList<>(values.keySet()));
+
+        try {
+            values.getInt(Argon2id.KEY_ID, 0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            values.with(Argon2id.P, 256);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testMapView() {
+        var values = ParamValues.empty(PBKDF2.getInstance())
+                .with(PBKDF2.C, 1000)
+                .with(PBKDF2.ALG, PBKDF2.Algorithm.HMAC_SHA512);
+        var map = new TreeMap<PHCFunction.Param<PBKDF2, ?>, Object>();
+        map.put(PBKDF2.ALG, PBKDF2.Algorithm.HMAC_SHA512);
+        map.put(PBKDF2.C, 1000);
+        assertEquals(map, values);
+        assertEquals(values, map);
+        assertEquals(map.hashCode(), values.hashCode());
+        assertEquals(PBKDF2.Algorithm.HMAC_SHA512, values.get(PBKDF2.ALG));
+        assertTrue(values.isSlotSet(0));
+        assertFalse(values.isIntSlot(0));
+        assertEquals(PBKDF2.Algorithm.HMAC_SHA512.ordinal(), values.getSlotInt(0));
+        assertTrue(values.isIntSlot(1));
+        assertEquals(2 * 1000 * 128, PBKDF2.getInstance().estimateWork(values));
+    }
+
+    @Test
+    public void testSameValues() {
+        var a = ParamValues.of(Argon2i.getInstance(), new PHCFunction.Param<?, ?>[] {Argon2i.M, Argon2i.DATA},
+                new Object[] {64, new byte[] {1, 2}}, 2);
+        var b = ParamValues.empty(Argon2i.getInstance()).with(Argon2i.DATA, new byte[] {1, 2}).with(Argon2i.M, 64);
+        assertTrue(a.hasSameValues(b));
+        assertEquals(a.valuesHashCode(), b.valuesHashCode());
+        assertFalse(a.hasSameValues(b.with(Argon2i.DATA, new byte[] {1, 3})));
+        assertFalse(a.hasSameValues(b.with(Argon2i.T, 1)));
+        var other = ParamValues.empty(Argon2d.getInstance()).with(Argon2d.DATA, new byte[] {1, 2}).with(Argon2d.M, 64);
+        assertFalse(a.hasSameValues(other));
+
+        try {
+            ParamValues.of(Argon2i.getInstance(), new PHCFunction.Param<?, ?>[] {PBKDF2.C}, new Object[] {1}, 1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testAccessLimitedToPhcPackage() {
+        try {
+            ParamAccess.get(MethodHandles.lookup());
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            ParamAccess.get(MethodHandles.publicLookup());
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCompareTo() {
+        assertTrue(Argon2id.M.compareTo(Argon2id.T) < 0);
+        assertTrue(Argon2id.DATA.compareTo(Argon2id.KEY_ID) > 0);
+        assertEquals(0, Argon2id.P.compareTo(Argon2id.P));
+    }
+}
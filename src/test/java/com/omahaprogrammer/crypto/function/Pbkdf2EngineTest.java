@@ -0,0 +1,59 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto.function;
+
+import static org.junit.Assert.*;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Test;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+public class Pbkdf2EngineTest {
+    private static final BouncyCastleProvider PROVIDER = new BouncyCastleProvider();
+    private static final byte[] SALT = "saltSALTsaltSALT".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    public void testMatchesProvider() throws Exception {
+        String[] passwords = {"password", "pässwörd ☃", "a"};
+        for (var alg : PBKDF2.Algorithm.values()) {
+            for (var password : passwords) {
+                for (var length : new int[]{1, 20, 64, 100}) {
+                    var expected = SecretKeyFactory.getInstance("PBKDF2With" + alg.getLabel(), PROVIDER)
+                            .generateSecret(new PBEKeySpec(password.toCharArray(), SALT, 3, length * 8))
+                            .getEncoded();
+                    var actual = PBKDF2.getInstance().protectPassword(
+                            Map.of(PBKDF2.ALG, alg, PBKDF2.C, 3), SALT, password.toCharArray(), length);
+                    assertArrayEquals(alg + "/" + password + "/" + length, expected, actual);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMacIsReusedAndScrubbed() {
+        var mac = Pbkdf2Engine.mac(PBKDF2.Algorithm.HMAC_SHA256);
+        var first = new byte[32];
+        var second = new byte[32];
+        Pbkdf2Engine.derive(PBKDF2.Algorithm.HMAC_SHA256, new byte[]{1, 2, 3}, SALT, 2, first, 0, 32);
+        Pbkdf2Engine.derive(PBKDF2.Algorithm.HMAC_SHA256, new byte[]{1, 2, 3}, SALT, 2, second, 0, 32);
+        assertSame(mac, Pbkdf2Engine.mac(PBKDF2.Algorithm.HMAC_SHA256));
+        assertArrayEquals(first, second);
+    }
+}
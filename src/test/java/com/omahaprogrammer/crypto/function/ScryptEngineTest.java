@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019 Jonathan Paz <omahaprogrammer@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.omahaprogrammer.crypto.function;
+
+import static org.junit.Assert.*;
+
+import org.bouncycastle.crypto.generators.SCrypt;
+import org.bouncycastle.util.encoders.Hex;
+import org.junit.Test;
+
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+public class ScryptEngineTest {
+    @Test
+    public void testRfc7914Vectors() {
+        assertArrayEquals(Hex.decode("77d6576238657b203b19ca42c18a0497f16b4844e3074ae8dfdffa3fede21442"
+                        + "fcd0069ded0948f8326a753a0fc81f17e8d3e0fb2e0d3628cf35e20c38d18906"),
+                ScryptEngine.derive(new byte[0], new byte[0], 16, 1, 1, 64));
+        assertArrayEquals(Hex.decode("fdbabe1c9d3472007856e7190d01e9fe7c6ad7cbc8237830e77376634b373162"
+                        + "2eaf30d92e22a3886ff109279d9830dac727afb94a83ee6d8360cbdfa2cc0640"),
+                ScryptEngine.derive("password".getBytes(StandardCharsets.US_ASCII),
+                        "NaCl".getBytes(StandardCharsets.US_ASCII), 1024, 8, 16, 64));
+    }
+
+    @Test
+    public void testMatchesBouncyCastle() {
+        var random = new Random(7914);
+        for (int n = 2; n <= 512; n *= 2) {
+            for (int r = 1; r <= 4; r++) {
+                for (int p = 1; p <= 3; p++) {
+                    var password = new byte[random.nextInt(40)];
+                    var salt = new byte[random.nextInt(40)];
+                    random.nextBytes(password);
+                    random.nextBytes(salt);
+                    var dkLen = 1 + random.nextInt(100);
+                    assertArrayEquals("N=" + n + " r=" + r + " p=" + p,
+                            SCrypt.generate(password, salt, n, r, p, dkLen),
+                            ScryptEngine.derive(password, salt, n, r, p, dkLen));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testParallelChainsMatchBouncyCastle() {
+        var random = new Random(2016);
+        for (int p = 2; p <= 5; p++) {
+            for (int workers = 2; workers <= p; workers++) {
+                var password = new byte[random.nextInt(40)];
+                var salt = new byte[random.nextInt(40)];
+                random.nextBytes(password);
+                random.nextBytes(salt);
+                var out = new byte[70];
+                ScryptEngine.derive(password, 0, password.length, salt, 256, 2, p, out, 3, 64, workers);
+                assertArrayEquals("p=" + p + " workers=" + workers,
+                        SCrypt.generate(password, salt, 256, 2, p, 64), Arrays.copyOfRange(out, 3, 67));
+            }
+        }
+    }
+
+    @Test
+    public void testRejectsInvalid() {
+        var invalid = new int[][]{{1, 1, 1, 1}, {3, 1, 1, 1}, {65536, 1, 1, 1}, {2, 0, 1, 1}, {2, 1, 0, 1}, {2, 1, 1, 0}};
+        for (var args : invalid) {
+            try {
+                ScryptEngine.derive(new byte[1], new byte[1], args[0], args[1], args[2], args[3]);
+                fail(Arrays.toString(args));
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testUtf8MatchesCharset() {
+        var random = new Random(8);
+        var alphabet = new char[]{'a', 'é', '€', '\ud83d', '\ude00', '\u0000', '߿', 'ࠀ', '￿'};
+        for (int i = 0; i < 10_000; i++) {
+            var chars = new char[random.nextInt(8)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = alphabet[random.nextInt(alphabet.length)];
+            }
+            var buffer = StandardCharsets.UTF_8.encode(CharBuffer.wrap(chars));
+            var expected = Arrays.copyOfRange(buffer.array(), buffer.position(), buffer.limit());
+            assertArrayEquals(new String(chars), expected, Utf8.encode(CharBuffer.wrap(chars)));
+        }
+    }
+}